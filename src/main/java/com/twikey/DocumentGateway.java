@@ -1,23 +1,40 @@
 package com.twikey;
 
+import com.twikey.bulk.MandatePager;
 import com.twikey.callback.DocumentCallback;
+import com.twikey.cache.MandateCache;
+import com.twikey.cache.MandateIndex;
+import com.twikey.cache.MappedMandateStore;
+import com.twikey.cache.NegativeCache;
+import com.twikey.cache.PdfCache;
+import com.twikey.cache.ValidatorCache;
+import com.twikey.codec.FormEncoder;
+import com.twikey.feed.FeedProjection;
+import com.twikey.feed.FeedType;
 import com.twikey.modal.DocumentRequests;
 import com.twikey.modal.DocumentResponse;
-import org.json.JSONArray;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
 import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 
@@ -58,17 +75,20 @@ public class DocumentGateway {
      * @throws TwikeyClient.UserException A Twikey generated user error occurred
      */
     public DocumentResponse.MandateCreationResponse create(DocumentRequests.InviteRequest invite) throws Exception, TwikeyClient.UserException {
-        Map<String, String> requestMap = invite.toRequest();
-        HttpClient client = HttpClient.newHttpClient();
-        URL myurl = twikeyClient.getUrl("/invite");
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(myurl.toString()))
-                .header("Content-Type", FORM_URLENCODED)
-                .header("User-Agent", twikeyClient.getUserAgent())
-                .header("Authorization", twikeyClient.getSessionToken())
-                .POST(HttpRequest.BodyPublishers.ofString(getPostDataString(requestMap)))
-                .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<byte[]> response;
+        try (FormEncoder form = FormEncoder.acquire()) {
+            invite.writeForm(form);
+            HttpClient client = HttpClient.newHttpClient();
+            URL myurl = twikeyClient.getUrl("/invite");
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(myurl.toString()))
+                    .header("Content-Type", FORM_URLENCODED)
+                    .header("User-Agent", twikeyClient.getUserAgent())
+                    .header("Authorization", twikeyClient.getSessionToken())
+                    .POST(form.toBodyPublisher())
+                    .build();
+            response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        }
 
         if (response.statusCode() == 200) {
                 /* {
@@ -76,7 +96,12 @@ public class DocumentGateway {
                   "url": "http://twikey.to/myComp/ToYG",
                   "key": "ToYG"
                 } */
-                return DocumentResponse.MandateCreationResponse.fromJson(response.body());
+                DocumentResponse.MandateCreationResponse created = twikeyClient.getJsonCodec().decodeMandateCreation(response.body());
+                NegativeCache missing = twikeyClient.getNegativeCache();
+                if (missing != null) {
+                    missing.invalidate(FeedType.MANDATE, created.getMandateNumber());
+                }
+                return created;
         } else {
             String apiError = response.headers()
                     .firstValue("apierror")
@@ -104,25 +129,33 @@ public class DocumentGateway {
      * @throws TwikeyClient.UserException A Twikey generated user error occurred
      */
     public DocumentResponse.MandateCreationResponse sign(DocumentRequests.SignRequest invite) throws Exception, TwikeyClient.UserException {
-        Map<String, String> requestMap = invite.toRequest();
-        HttpClient client = HttpClient.newHttpClient();
-        URL myurl = twikeyClient.getUrl("/sign");
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(myurl.toString()))
-                .header("Content-Type", "application/x-www-form-urlencoded")
-                .header("User-Agent", twikeyClient.getUserAgent())
-                .header("Authorization", twikeyClient.getSessionToken())
-                .POST(HttpRequest.BodyPublishers.ofString(getPostDataString(requestMap)))
-                .build();
+        HttpResponse<byte[]> response;
+        try (FormEncoder form = FormEncoder.acquire()) {
+            invite.writeForm(form);
+            HttpClient client = HttpClient.newHttpClient();
+            URL myurl = twikeyClient.getUrl("/sign");
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(myurl.toString()))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .header("User-Agent", twikeyClient.getUserAgent())
+                    .header("Authorization", twikeyClient.getSessionToken())
+                    .POST(form.toBodyPublisher())
+                    .build();
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        }
         if (response.statusCode() == 200) {
                 /* {
                   "mndtId": "COREREC01",
                   "url": "http://twikey.to/myComp/ToYG",
                   "key": "ToYG"
                 } */
-                return DocumentResponse.MandateCreationResponse.fromJson(response.body());
+                DocumentResponse.MandateCreationResponse created = twikeyClient.getJsonCodec().decodeMandateCreation(response.body());
+                NegativeCache missing = twikeyClient.getNegativeCache();
+                if (missing != null) {
+                    missing.invalidate(FeedType.MANDATE, created.getMandateNumber());
+                }
+                return created;
         } else {
             String apiError = response.headers()
                     .firstValue("apierror")
@@ -149,18 +182,21 @@ public class DocumentGateway {
      * @throws TwikeyClient.UserException if the API returns an error or the request fails
      */
     public void action(DocumentRequests.MandateActionRequest action) throws IOException, TwikeyClient.UserException, InterruptedException {
-        Map<String, String> requestMap = action.toRequest();
         HttpClient client = HttpClient.newHttpClient();
-        URL myurl = twikeyClient.getUrl("/mandate/%s/action".formatted(String.valueOf(requestMap.get("mndtId"))));
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(myurl.toString()))
-                .timeout(Duration.of(10, SECONDS))
-                .header("Content-Type", FORM_URLENCODED)
-                .header("User-Agent", twikeyClient.getUserAgent())
-                .header("Authorization", twikeyClient.getSessionToken())
-                .POST(HttpRequest.BodyPublishers.ofString(getPostDataString(requestMap)))
-                .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        URL myurl = twikeyClient.getUrl("/mandate/%s/action".formatted(action.getMandateNumber()));
+        HttpResponse<String> response;
+        try (FormEncoder form = FormEncoder.acquire()) {
+            action.writeForm(form);
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(myurl.toString()))
+                    .timeout(Duration.of(10, SECONDS))
+                    .header("Content-Type", FORM_URLENCODED)
+                    .header("User-Agent", twikeyClient.getUserAgent())
+                    .header("Authorization", twikeyClient.getSessionToken())
+                    .POST(form.toBodyPublisher())
+                    .build();
+            response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        }
         if (response.statusCode() != 204) {
             String apiError = response.headers()
                     .firstValue("apierror")
@@ -179,6 +215,10 @@ public class DocumentGateway {
      * <p>This endpoint allows searching for mandates based on specific identifiers.
      * The result contains a list of contracts (mandates) that match the provided parameters.</p>
      *
+     * <p>When a {@link MandateIndex} is configured on the client the query is answered from it, Twikey is only
+     * asked for a specific page or when nothing matches locally (unless the index has no fallback). The answer of
+     * Twikey is not indexed, as it lacks most fields of a mandate.</p>
+     *
      * @param action  The query parameters such as:
      *                <ul>
      *                    <li>iban</li>
@@ -197,6 +237,38 @@ public class DocumentGateway {
      * @throws TwikeyClient.UserException if the API returns a user-related error
      */
     public List<DocumentResponse.Document> query(DocumentRequests.MandateQuery action) throws Exception, TwikeyClient.UserException {
+        MandateIndex index = twikeyClient.getMandateIndex();
+        if (index == null || action.getPage() != null) {
+            return remoteQuery(action);
+        }
+        List<DocumentResponse.Document> local = index.query(action);
+        if (!local.isEmpty() || !index.isFallback()) {
+            return local;
+        }
+        // query results only carry a few fields, they would replace what the feed indexed
+        return remoteQuery(action);
+    }
+
+    /**
+     * All mandates matching the query, walking its pages as the stream is consumed while the next page is already
+     * being fetched. See {@link MandatePager}, closing the stream stops fetching.
+     *
+     * @param action The query, starting from its page or else the first one
+     */
+    public Stream<DocumentResponse.Document> queryAll(DocumentRequests.MandateQuery action) {
+        return queryAll(action, 1, 1);
+    }
+
+    /**
+     * @param action      The query, starting from its page or else the first one
+     * @param lookAhead   number of pages fetched ahead of the one being consumed
+     * @param parallelism number of pages that are fetched at the same time
+     */
+    public Stream<DocumentResponse.Document> queryAll(DocumentRequests.MandateQuery action, int lookAhead, int parallelism) {
+        return new MandatePager(twikeyClient, action, lookAhead, parallelism).stream();
+    }
+
+    private List<DocumentResponse.Document> remoteQuery(DocumentRequests.MandateQuery action) throws Exception, TwikeyClient.UserException {
         Map<String, String> requestMap = action.toRequest();
         HttpClient client = HttpClient.newHttpClient();
         URL myurl = twikeyClient.getUrl("/mandate/query?"+getPostDataString(requestMap));
@@ -207,10 +279,9 @@ public class DocumentGateway {
                 .headers("Authorization", twikeyClient.getSessionToken())
                 .GET()
                 .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        JSONObject json = new JSONObject(new JSONTokener(response.body()));
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
         if (response.statusCode() == 200) {
-            return DocumentResponse.Document.fromQuery(json);
+            return twikeyClient.getJsonCodec().decodeDocuments(response.body());
         } else {
             String apiError = response.headers()
                     .firstValue("apierror")
@@ -261,6 +332,19 @@ public class DocumentGateway {
                     .orElse(null);
             throw new TwikeyClient.UserException(apiError);
         }
+        twikeyClient.invalidateMandate(mandateNumber);
+        MandateIndex index = twikeyClient.getMandateIndex();
+        if (index != null) {
+            index.remove(mandateNumber);
+        }
+        MappedMandateStore store = twikeyClient.getMandateStore();
+        if (store != null) {
+            store.remove(mandateNumber);
+        }
+        PdfCache pdfCache = twikeyClient.getPdfCache();
+        if (pdfCache != null) {
+            pdfCache.invalidate(mandateNumber);
+        }
     }
 
     /**
@@ -270,6 +354,9 @@ public class DocumentGateway {
      * <p>
      * This method queries the Twikey API for the latest details related to the mandate, invoice, etc. for the
      * provided identifier. Typically used for querying status based on ID, reference, or mandate.
+     * <p>
+     * When a {@link MandateCache} is configured on the client the mandate is served from it unless the request
+     * is forced.
      *
      * @param fetch An object representing information for identifying the mandate.
      *
@@ -279,29 +366,54 @@ public class DocumentGateway {
      * @throws TwikeyClient.UserException If the API returns an error.
      */
     public DocumentResponse.Document fetch(DocumentRequests.MandateDetailRequest fetch) throws Exception, TwikeyClient.UserException {
+        NegativeCache missing = twikeyClient.getNegativeCache();
+        if (missing != null && !fetch.isForce()) {
+            missing.check(FeedType.MANDATE, fetch.getMandateNumber());
+        }
+        MandateCache cache = twikeyClient.getMandateCache();
+        if (cache != null && !fetch.isForce()) {
+            return cache.get(fetch.getMandateNumber(), () -> load(fetch));
+        }
+        return load(fetch);
+    }
+
+    private DocumentResponse.Document load(DocumentRequests.MandateDetailRequest fetch) throws Exception, TwikeyClient.UserException {
         Map<String, String> requestMap = fetch.toRequest();
         HttpClient client = HttpClient.newHttpClient();
         URL myurl = twikeyClient.getUrl("/mandate/detail?" + getPostDataString(requestMap));
-        HttpRequest request = HttpRequest.newBuilder()
+        ValidatorCache validators = twikeyClient.getValidatorCache();
+        ValidatorCache.Validated<DocumentResponse.Document> cached = validators != null ? validators.get(myurl.toString(), DocumentResponse.Document.class) : null;
+        HttpRequest.Builder request = HttpRequest.newBuilder()
                 .uri(URI.create(myurl.toString()))
                 .headers("Content-Type", FORM_URLENCODED)
                 .headers("User-Agent", twikeyClient.getUserAgent())
                 .headers("Authorization", twikeyClient.getSessionToken())
-                .GET()
-                .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        if (response.statusCode() == 200) {
-            JSONObject json = new JSONObject(new JSONTokener(response.body()));
-            if (response.headers().firstValue("x-state").isPresent()) {
-                return DocumentResponse.Document.fromJson(json, response.headers().firstValue("x-state").get());
+                .GET();
+        if (cached != null) {
+            cached.applyTo(request);
+        }
+        HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() == 304 && cached != null) {
+            validators.notModified();
+            return cached.value();
+        } else if (response.statusCode() == 200) {
+            DocumentResponse.Document document = twikeyClient.getJsonCodec().decodeDocument(response.body(), response.headers().firstValue("x-state").orElse(null));
+            if (validators != null) {
+                validators.store(myurl.toString(), response.headers(), document);
             }
-            else  {
-                return DocumentResponse.Document.fromJson(json, null);
+            MappedMandateStore store = twikeyClient.getMandateStore();
+            if (store != null) {
+                store.put(document);
             }
+            return document;
         } else {
             String apiError = response.headers()
                     .firstValue("apierror")
                     .orElse(null);
+            NegativeCache missing = twikeyClient.getNegativeCache();
+            if (missing != null && NegativeCache.isNotFound(response.statusCode(), apiError)) {
+                missing.missing(FeedType.MANDATE, fetch.getMandateNumber(), apiError);
+            }
             throw new TwikeyClient.UserException(apiError);
         }
     }
@@ -322,24 +434,32 @@ public class DocumentGateway {
      * @throws InterruptedException If the request is interrupted.
      */
     public void update(DocumentRequests.UpdateMandateRequest update) throws IOException, TwikeyClient.UserException, InterruptedException {
-        Map<String, String> requestMap = update.toRequest();
-        HttpClient client = HttpClient.newHttpClient();
-        URL myurl = twikeyClient.getUrl("/mandate/update");
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(myurl.toString()))
-                .timeout(Duration.of(10, SECONDS))
-                .header("Content-Type", FORM_URLENCODED)
-                .header("User-Agent", twikeyClient.getUserAgent())
-                .header("Authorization", twikeyClient.getSessionToken())
-                .POST(HttpRequest.BodyPublishers.ofString(getPostDataString(requestMap)))
-                .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response;
+        try (FormEncoder form = FormEncoder.acquire()) {
+            update.writeForm(form);
+            HttpClient client = HttpClient.newHttpClient();
+            URL myurl = twikeyClient.getUrl("/mandate/update");
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(myurl.toString()))
+                    .timeout(Duration.of(10, SECONDS))
+                    .header("Content-Type", FORM_URLENCODED)
+                    .header("User-Agent", twikeyClient.getUserAgent())
+                    .header("Authorization", twikeyClient.getSessionToken())
+                    .POST(form.toBodyPublisher())
+                    .build();
+            response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        }
         if (response.statusCode() != 204) {
             String apiError = response.headers()
                     .firstValue("apierror")
                     .orElse(null);
             throw new TwikeyClient.UserException(apiError);
         }
+        twikeyClient.invalidateMandate(update.getMndtId());
+        PdfCache pdfCache = twikeyClient.getPdfCache();
+        if (pdfCache != null) {
+            pdfCache.invalidate(update.getMndtId());
+        }
     }
 
     /**
@@ -365,11 +485,10 @@ public class DocumentGateway {
                 .header("Authorization", twikeyClient.getSessionToken())
                 .POST(HttpRequest.BodyPublishers.ofString("mndtId=%s".formatted(mandateNumber)))
                 .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
 
         if (response.statusCode() == 200) {
-            JSONObject json = new JSONObject(new JSONTokener(response.body()));
-            return DocumentResponse.CustomerAccessResponse.fromJson(json);
+            return twikeyClient.getJsonCodec().decodeCustomerAccess(response.body());
         } else {
             String apiError = response.headers()
                     .firstValue("apierror")
@@ -392,25 +511,84 @@ public class DocumentGateway {
      * @throws InterruptedException If the request is interrupted.
      */
     public DocumentResponse.PdfResponse retrievePdf(String mandateNumber) throws IOException, TwikeyClient.UserException, InterruptedException {
+        PdfCache pdfCache = twikeyClient.getPdfCache();
+        DocumentResponse.PdfResponse stored = pdfCache != null ? pdfCache.get(mandateNumber) : null;
+        if (stored != null) {
+            return stored;
+        }
         HttpClient client = HttpClient.newHttpClient();
-        URL myurl = twikeyClient.getUrl("/mandate/pdf?mndtId=" + mandateNumber);
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(myurl.toString()))
-                .headers("Content-Type", FORM_URLENCODED)
-                .headers("User-Agent", twikeyClient.getUserAgent())
-                .headers("Authorization", twikeyClient.getSessionToken())
-                .GET()
-                .build();
-        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
-        if (response.statusCode() == 200) {
-            String disposition = response.headers().firstValue("content-disposition").get();
-            String[] parts = disposition.split("=");
-            String filename = null;
-            if (parts.length == 2) {
-                filename = parts[1].trim().replace("\"", "");
+        HttpRequest.Builder request = pdfRequest(mandateNumber);
+        String url = request.build().uri().toString();
+        ValidatorCache validators = twikeyClient.getValidatorCache();
+        ValidatorCache.Validated<DocumentResponse.PdfResponse> cached = validators != null ? validators.get(url, DocumentResponse.PdfResponse.class) : null;
+        if (cached != null) {
+            cached.applyTo(request);
+        }
+        HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        DocumentResponse.PdfResponse pdf;
+        if (response.statusCode() == 304 && cached != null) {
+            validators.notModified();
+            pdf = cached.value();
+        } else if (response.statusCode() == 200) {
+            pdf = new DocumentResponse.PdfResponse(response.body(), filenameOf(response.headers()));
+            if (validators != null) {
+                validators.store(url, response.headers(), pdf);
             }
+        } else {
+            String apiError = response.headers()
+                    .firstValue("apierror")
+                    .orElse(null);
+            throw new TwikeyClient.UserException(apiError);
+        }
+        if (pdfCache != null) {
+            pdfCache.put(mandateNumber, pdf.getFilename(), pdf.getContent());
+        }
+        return pdf;
+    }
 
-            return new DocumentResponse.PdfResponse(response.body(), filename);
+    /**
+     * Retrieve the PDF of a mandate straight into a file, without holding the document in memory.
+     *
+     * @param mandateNumber A unique identifier for a mandate.
+     * @param target File to write to (replaced if it exists) or a directory in which the pdf is stored using the
+     *               filename provided by Twikey.
+     *
+     * @return the file the pdf was written to
+     *
+     * @throws IOException If there is an error during the request or while writing the file.
+     * @throws TwikeyClient.UserException If the API returns an error.
+     * @throws InterruptedException If the request is interrupted.
+     */
+    public Path retrievePdfTo(String mandateNumber, Path target) throws IOException, TwikeyClient.UserException, InterruptedException {
+        PdfCache pdfCache = twikeyClient.getPdfCache();
+        PdfCache.Entry entry = pdfCache != null ? pdfCache.getEntry(mandateNumber) : null;
+        if (entry != null) {
+            Path file = Files.isDirectory(target) ? target.resolve(Path.of(entry.filename()).getFileName()) : target;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (pdfCache.transferTo(mandateNumber, channel) != null) {
+                    return file;
+                }
+            }
+        }
+        HttpResponse<Path> response = HttpClient.newHttpClient().send(pdfRequest(mandateNumber).build(), responseInfo -> {
+            if (responseInfo.statusCode() != 200) {
+                return HttpResponse.BodySubscribers.replacing(null);
+            }
+            Path file = target;
+            if (Files.isDirectory(target)) {
+                String filename = filenameOf(responseInfo.headers());
+                // only the name, a path in the header should not allow writing outside of the directory
+                file = target.resolve(Path.of(filename != null ? filename : "mandate.pdf").getFileName());
+            }
+            return HttpResponse.BodySubscribers.ofFile(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        });
+        if (response.statusCode() == 200) {
+            if (pdfCache != null) {
+                try (InputStream in = Files.newInputStream(response.body())) {
+                    pdfCache.put(mandateNumber, filenameOf(response.headers()), in);
+                }
+            }
+            return response.body();
         } else {
             String apiError = response.headers()
                     .firstValue("apierror")
@@ -419,6 +597,71 @@ public class DocumentGateway {
         }
     }
 
+    /**
+     * Retrieve the PDF of a mandate, copying it to the given stream as it is received.
+     *
+     * @param mandateNumber A unique identifier for a mandate.
+     * @param out Stream receiving the pdf, it is not closed.
+     *
+     * @return the filename as provided by Twikey (defaults to mandate.pdf)
+     *
+     * @throws IOException If there is an error during the request or while writing to the stream.
+     * @throws TwikeyClient.UserException If the API returns an error.
+     * @throws InterruptedException If the request is interrupted.
+     */
+    public String retrievePdfTo(String mandateNumber, OutputStream out) throws IOException, TwikeyClient.UserException, InterruptedException {
+        PdfCache pdfCache = twikeyClient.getPdfCache();
+        if (pdfCache != null) {
+            // not closed, that would close the stream
+            PdfCache.Entry entry = pdfCache.transferTo(mandateNumber, Channels.newChannel(out));
+            if (entry != null) {
+                return entry.filename();
+            }
+        }
+        HttpResponse<InputStream> response = HttpClient.newHttpClient().send(pdfRequest(mandateNumber).build(), HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream in = response.body()) {
+            if (response.statusCode() == 200) {
+                String filename = filenameOf(response.headers());
+                if (pdfCache != null) {
+                    pdfCache.put(mandateNumber, filename, in, out);
+                } else {
+                    in.transferTo(out);
+                }
+                return filename != null ? filename : "mandate.pdf";
+            } else {
+                String apiError = response.headers()
+                        .firstValue("apierror")
+                        .orElse(null);
+                throw new TwikeyClient.UserException(apiError);
+            }
+        }
+    }
+
+    private HttpRequest.Builder pdfRequest(String mandateNumber) throws IOException, TwikeyClient.UserException {
+        URL myurl = twikeyClient.getUrl("/mandate/pdf?mndtId=" + mandateNumber);
+        return HttpRequest.newBuilder()
+                .uri(URI.create(myurl.toString()))
+                .headers("Content-Type", FORM_URLENCODED)
+                .headers("User-Agent", twikeyClient.getUserAgent())
+                .headers("Authorization", twikeyClient.getSessionToken())
+                .GET();
+    }
+
+    /**
+     * @return the filename of a content-disposition header like <code>attachment; filename="mandate.pdf"</code>
+     */
+    static String filenameOf(HttpHeaders headers) {
+        String disposition = headers.firstValue("content-disposition").orElse(null);
+        if (disposition == null) {
+            return null;
+        }
+        String[] parts = disposition.split("=");
+        if (parts.length == 2) {
+            return parts[1].trim().replace("\"", "");
+        }
+        return null;
+    }
+
     /**
      * See <a href="https://www.twikey.com/api/#upload-pdf">Twikey API - Upload Mandate Pdf</a>
      * <p>
@@ -435,6 +678,54 @@ public class DocumentGateway {
      * @throws InterruptedException If the request is interrupted.
      */
     public void uploadPdf(DocumentRequests.UploadPdfRequest pdfRequest) throws IOException, TwikeyClient.UserException, InterruptedException {
+        if (pdfRequest.pdfPath() == null) {
+            throw new IllegalArgumentException("pdfPath is required");
+        }
+        Path pdf = Path.of(pdfRequest.pdfPath());
+        uploadPdf(pdfRequest, HttpRequest.BodyPublishers.ofFile(pdf));
+        PdfCache pdfCache = twikeyClient.getPdfCache();
+        if (pdfCache != null) {
+            try (InputStream in = Files.newInputStream(pdf)) {
+                pdfCache.put(pdfRequest.mndtId(), pdf.getFileName().toString(), in);
+            }
+        }
+    }
+
+    /**
+     * Upload a mandate pdf generated in memory, without going through a file
+     *
+     * @param pdfRequest mandate and bank signature of the upload, the pdfPath is ignored
+     * @param pdf the document, read once (so the upload can not be resent nor cached) and closed afterwards
+     */
+    public void uploadPdf(DocumentRequests.UploadPdfRequest pdfRequest, InputStream pdf) throws IOException, TwikeyClient.UserException, InterruptedException {
+        try (pdf) {
+            uploadPdf(pdfRequest, HttpRequest.BodyPublishers.ofInputStream(() -> pdf));
+        }
+    }
+
+    /**
+     * Upload a mandate pdf generated in memory, without going through a file
+     *
+     * @param pdfRequest mandate and bank signature of the upload, the pdfPath is ignored
+     * @param pdf opens a new stream over the document every time the body is (re)sent
+     */
+    public void uploadPdf(DocumentRequests.UploadPdfRequest pdfRequest, Supplier<InputStream> pdf) throws IOException, TwikeyClient.UserException, InterruptedException {
+        uploadPdf(pdfRequest, HttpRequest.BodyPublishers.ofInputStream(pdf));
+        PdfCache pdfCache = twikeyClient.getPdfCache();
+        if (pdfCache != null) {
+            try (InputStream in = pdf.get()) {
+                pdfCache.put(pdfRequest.mndtId(), null, in);
+            }
+        }
+    }
+
+    /**
+     * Upload a mandate pdf generated in memory, without going through a file
+     *
+     * @param pdfRequest mandate and bank signature of the upload, the pdfPath is ignored
+     * @param pdf publisher of the document, eg. one of {@link HttpRequest.BodyPublishers}
+     */
+    public void uploadPdf(DocumentRequests.UploadPdfRequest pdfRequest, Flow.Publisher<ByteBuffer> pdf) throws IOException, TwikeyClient.UserException, InterruptedException {
         URL myurl = twikeyClient.getUrl("/mandate/pdf?mndtId=%s&bankSignature=%s".formatted(pdfRequest.mndtId(), pdfRequest.bankSignature()));
         HttpClient client = HttpClient.newHttpClient();
         HttpRequest request = HttpRequest.newBuilder()
@@ -442,7 +733,7 @@ public class DocumentGateway {
                 .headers("Content-Type", "application/pdf")
                 .headers("User-Agent", twikeyClient.getUserAgent())
                 .headers("Authorization", twikeyClient.getSessionToken())
-                .POST(HttpRequest.BodyPublishers.ofFile(Path.of(pdfRequest.pdfPath())))
+                .POST(pdf instanceof HttpRequest.BodyPublisher body ? body : HttpRequest.BodyPublishers.fromPublisher(pdf))
                 .build();
         HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
         if (response.statusCode() != 200) {
@@ -461,6 +752,17 @@ public class DocumentGateway {
      * @throws TwikeyClient.UserException When there was an issue while retrieving the mandates (eg. invalid apikey)
      */
     public void feed(DocumentCallback mandateCallback) throws Exception, TwikeyClient.UserException {
+        feedMessages(mandateCallback::message);
+    }
+
+    /**
+     * Get updates about all mandates as the raw messages of the feed, eg. to pass them on undecoded
+     *
+     * @param messageCallback Callback for every entry of the "Messages" array
+     * @throws IOException                When a network issue happened
+     * @throws TwikeyClient.UserException When there was an issue while retrieving the mandates (eg. invalid apikey)
+     */
+    public void feedMessages(Consumer<JSONObject> messageCallback) throws Exception, TwikeyClient.UserException {
         URL myurl = twikeyClient.getUrl("/mandate");
         boolean isEmpty;
         do{
@@ -472,34 +774,16 @@ public class DocumentGateway {
                     .headers("Authorization", twikeyClient.getSessionToken())
                     .GET()
                     .build();
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            HttpURLConnection con = (HttpURLConnection) myurl.openConnection();
-            con.setRequestProperty("Content-Type", FORM_URLENCODED);
-            con.setRequestProperty("User-Agent", twikeyClient.getUserAgent());
-            con.setRequestProperty("Authorization", twikeyClient.getSessionToken());
-            int responseCode = response.statusCode();
-
-            if (responseCode == 200) {
-                JSONObject json = new JSONObject(new JSONTokener(response.body()));
-
-                JSONArray messagesArr = json.getJSONArray("Messages");
-                isEmpty = messagesArr.isEmpty();
-                if (!isEmpty) {
-                    for (int i = 0; i < messagesArr.length(); i++) {
-                        JSONObject obj = messagesArr.getJSONObject(i);
-                        if (obj.has("CxlRsn")) {
-                            mandateCallback.cancelledDocument(obj.getString("OrgnlMndtId"), obj.getJSONObject("CxlRsn").getString("Rsn"), obj.getJSONObject("CxlRsn").getJSONObject("Orgtr").getJSONObject("CtctDtls").getString("EmailAdr"), obj.getString("EvtTime"));
-                        } else if (obj.has("AmdmntRsn")) {
-                            DocumentResponse.Document document = DocumentResponse.Document.fromJson(obj, null);
-                            mandateCallback.updatedDocument(document, obj.getString("OrgnlMndtId"), obj.getJSONObject("AmdmntRsn").getString("Rsn"), obj.getJSONObject("AmdmntRsn").getJSONObject("Orgtr").getJSONObject("CtctDtls").getString("EmailAdr"), obj.getString("EvtTime"));
-                        } else {
-                            DocumentResponse.Document document = DocumentResponse.Document.fromJson(obj, null);
-                            mandateCallback.newDocument(document, obj.getString("EvtTime"));
-                        }
-                    }
-                }
+            HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() == 200) {
+                byte[] page = response.body();
+                twikeyClient.archive(FeedType.MANDATE, page);
+                int messages = FeedProjection.forEachEntry(page, FeedType.MANDATE.getEntries(), null, entry -> twikeyClient.deliver(FeedType.MANDATE, entry, messageCallback));
+                isEmpty = messages == 0;
             } else {
-                String apiError = con.getHeaderField("ApiError");
+                String apiError = response.headers()
+                        .firstValue("apierror")
+                        .orElse(null);
                 throw new TwikeyClient.UserException(apiError);
             }
         } while (!isEmpty);
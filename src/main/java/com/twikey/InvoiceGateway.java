@@ -1,23 +1,30 @@
 package com.twikey;
 
+import com.twikey.cache.InvoiceStateCache;
+import com.twikey.cache.NegativeCache;
+import com.twikey.cache.ValidatorCache;
 import com.twikey.callback.InvoiceCallback;
+import com.twikey.codec.FormEncoder;
+import com.twikey.codec.JsonWriter;
+import com.twikey.feed.FeedProjection;
+import com.twikey.feed.FeedType;
 import com.twikey.modal.InvoiceRequests;
 import com.twikey.modal.InvoiceResponse;
-import org.json.JSONArray;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.function.Supplier;
 
 import static com.twikey.TwikeyClient.getPostDataString;
 
@@ -47,7 +54,8 @@ public class InvoiceGateway {
      * @throws com.twikey.TwikeyClient.UserException When Twikey returns a user error (400)
      */
     public InvoiceResponse.Invoice create(InvoiceRequests.CreateInvoiceRequest create) throws IOException, TwikeyClient.UserException, InterruptedException {
-        JSONObject requestMap = create.toRequest();
+        JsonWriter body = new JsonWriter();
+        create.writeJson(body);
 
         HttpClient client = HttpClient.newHttpClient();
         URL myurl = twikeyClient.getUrl("/invoice");
@@ -56,13 +64,12 @@ public class InvoiceGateway {
                 .header("Content-Type", "application/json")
                 .header("User-Agent", twikeyClient.getUserAgent())
                 .header("Authorization", twikeyClient.getSessionToken())
-                .POST(HttpRequest.BodyPublishers.ofString(String.valueOf(requestMap)))
+                .POST(body.toBodyPublisher())
                 .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
 
         if (response.statusCode() == 200) {
-            JSONObject json = new JSONObject(new JSONTokener(response.body()));
-            return InvoiceResponse.Invoice.fromJson(json);
+            return created(twikeyClient.getJsonCodec().decodeInvoice(response.body()));
         } else {
             String apiError = response.headers()
                     .firstValue("ApiError")
@@ -86,11 +93,15 @@ public class InvoiceGateway {
                 .header("Authorization", twikeyClient.getSessionToken())
                 .PUT(HttpRequest.BodyPublishers.ofString(String.valueOf(requestMap)))
                 .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
 
         if (response.statusCode() == 200) {
-            JSONObject json = new JSONObject(new JSONTokener(response.body()));
-            return InvoiceResponse.Invoice.fromJson(json);
+            InvoiceResponse.Invoice invoice = twikeyClient.getJsonCodec().decodeInvoice(response.body());
+            InvoiceStateCache states = twikeyClient.getInvoiceStateCache();
+            if (states != null) {
+                states.put(invoice);
+            }
+            return invoice;
         } else {
             String apiError = response.headers()
                     .firstValue("ApiError")
@@ -120,32 +131,63 @@ public class InvoiceGateway {
                     .orElse(null);
             throw new TwikeyClient.UserException(apiError);
         }
+        InvoiceStateCache states = twikeyClient.getInvoiceStateCache();
+        if (states != null) {
+            states.invalidate(delete);
+        }
     }
 
     /**
      * TODO
      */
     public InvoiceResponse.Invoice details(InvoiceRequests.InvoiceDetailRequest details) throws IOException, TwikeyClient.UserException, InterruptedException {
+        NegativeCache missing = twikeyClient.getNegativeCache();
+        if (missing != null) {
+            missing.check(FeedType.INVOICE, details.getInvoice());
+        }
+        InvoiceStateCache states = twikeyClient.getInvoiceStateCache();
+        if (states != null && details.isCacheFirst() && !details.isIncludeMeta() && !details.isIncludeCustomer()) {
+            InvoiceStateCache.InvoiceState cached = states.get(details.getInvoice());
+            if (cached != null && (!details.isIncludeLastPayment() || cached.lastPayment() != null)) {
+                return cached.toInvoice();
+            }
+        }
         Map<String, String> params = details.toRequest();
 
         HttpClient client = HttpClient.newHttpClient();
         URL myurl = twikeyClient.getUrl("/invoice/%s?%s".formatted(params.get("invoice"), params.get("include")));
-        HttpRequest request = HttpRequest.newBuilder()
+        ValidatorCache validators = twikeyClient.getValidatorCache();
+        ValidatorCache.Validated<InvoiceResponse.Invoice> cached = validators != null ? validators.get(myurl.toString(), InvoiceResponse.Invoice.class) : null;
+        HttpRequest.Builder request = HttpRequest.newBuilder()
                 .uri(URI.create(myurl.toString()))
                 .header("Content-Type", "application/json")
                 .header("User-Agent", twikeyClient.getUserAgent())
                 .header("Authorization", twikeyClient.getSessionToken())
-                .GET()
-                .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-        if (response.statusCode() == 200) {
-            JSONObject json = new JSONObject(new JSONTokener(response.body()));
-            return InvoiceResponse.Invoice.fromJson(json);
+                .GET();
+        if (cached != null) {
+            cached.applyTo(request);
+        }
+        HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        if (response.statusCode() == 304 && cached != null) {
+            validators.notModified();
+            return cached.value();
+        } else if (response.statusCode() == 200) {
+            InvoiceResponse.Invoice invoice = twikeyClient.getJsonCodec().decodeInvoice(response.body());
+            if (validators != null) {
+                validators.store(myurl.toString(), response.headers(), invoice);
+            }
+            if (states != null) {
+                states.put(invoice);
+            }
+            return invoice;
         } else {
             String apiError = response.headers()
                     .firstValue("ApiError")
                     .orElse(null);
+            if (missing != null && NegativeCache.isNotFound(response.statusCode(), apiError)) {
+                missing.missing(FeedType.INVOICE, details.getInvoice(), apiError);
+            }
             throw new TwikeyClient.UserException(apiError);
         }
     }
@@ -154,18 +196,20 @@ public class InvoiceGateway {
      * TODO
      */
     public void action(InvoiceRequests.InvoiceActionRequest action) throws IOException, TwikeyClient.UserException, InterruptedException {
-        Map<String, String> params = action.toRequest();
-
         HttpClient client = HttpClient.newHttpClient();
-        URL myurl = twikeyClient.getUrl("/invoice/%s/action".formatted(params.get("id")));
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(myurl.toString()))
-                .header("Content-Type", "application/x-www-form-urlencoded")
-                .header("User-Agent", twikeyClient.getUserAgent())
-                .header("Authorization", twikeyClient.getSessionToken())
-                .POST(HttpRequest.BodyPublishers.ofString(getPostDataString(params)))
-                .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        URL myurl = twikeyClient.getUrl("/invoice/%s/action".formatted(action.getId()));
+        HttpResponse<String> response;
+        try (FormEncoder form = FormEncoder.acquire()) {
+            action.writeForm(form);
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(myurl.toString()))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .header("User-Agent", twikeyClient.getUserAgent())
+                    .header("Authorization", twikeyClient.getSessionToken())
+                    .POST(form.toBodyPublisher())
+                    .build();
+            response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        }
 
         if (response.statusCode() != 204) {
             String apiError = response.headers()
@@ -173,12 +217,52 @@ public class InvoiceGateway {
                     .orElse(null);
             throw new TwikeyClient.UserException(apiError);
         }
+        // the new state is only known from the details or the feed
+        InvoiceStateCache states = twikeyClient.getInvoiceStateCache();
+        if (states != null) {
+            states.invalidate(action.getId());
+        }
     }
 
     /**
      * TODO
      */
     public InvoiceResponse.Invoice UBL(InvoiceRequests.UblUploadRequest Ubl) throws IOException, TwikeyClient.UserException, InterruptedException {
+        if (Ubl.getXmlPath() == null) {
+            throw new IllegalArgumentException("xmlPath is required");
+        }
+        return UBL(Ubl, HttpRequest.BodyPublishers.ofFile(Path.of(Ubl.getXmlPath())));
+    }
+
+    /**
+     * Upload a UBL invoice generated in memory, without going through a file
+     *
+     * @param Ubl headers of the upload, the xmlPath is ignored
+     * @param xml the UBL document, read once (so the upload can not be resent) and closed afterwards
+     */
+    public InvoiceResponse.Invoice UBL(InvoiceRequests.UblUploadRequest Ubl, InputStream xml) throws IOException, TwikeyClient.UserException, InterruptedException {
+        try (xml) {
+            return UBL(Ubl, HttpRequest.BodyPublishers.ofInputStream(() -> xml));
+        }
+    }
+
+    /**
+     * Upload a UBL invoice generated in memory, without going through a file
+     *
+     * @param Ubl headers of the upload, the xmlPath is ignored
+     * @param xml opens a new stream over the UBL document every time the body is (re)sent
+     */
+    public InvoiceResponse.Invoice UBL(InvoiceRequests.UblUploadRequest Ubl, Supplier<InputStream> xml) throws IOException, TwikeyClient.UserException, InterruptedException {
+        return UBL(Ubl, HttpRequest.BodyPublishers.ofInputStream(xml));
+    }
+
+    /**
+     * Upload a UBL invoice generated in memory, without going through a file
+     *
+     * @param Ubl headers of the upload, the xmlPath is ignored
+     * @param xml publisher of the UBL document, eg. one of {@link HttpRequest.BodyPublishers}
+     */
+    public InvoiceResponse.Invoice UBL(InvoiceRequests.UblUploadRequest Ubl, Flow.Publisher<ByteBuffer> xml) throws IOException, TwikeyClient.UserException, InterruptedException {
         Map<String, String> headers = Ubl.toHeaders();
 
         HttpClient client = HttpClient.newHttpClient();
@@ -187,17 +271,16 @@ public class InvoiceGateway {
                 .uri(URI.create(myurl.toString()))
                 .header("User-Agent", twikeyClient.getUserAgent())
                 .header("Authorization", twikeyClient.getSessionToken())
-                .POST(HttpRequest.BodyPublishers.ofFile(Path.of(Ubl.getXmlPath())));
+                .POST(xml instanceof HttpRequest.BodyPublisher body ? body : HttpRequest.BodyPublishers.fromPublisher(xml));
                 for (Map.Entry<String, String> entry : headers.entrySet()) {
                             builder.header(entry.getKey(), entry.getValue());
                         }
 
         HttpRequest request = builder.build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
 
         if (response.statusCode() == 200) {
-            JSONObject json = new JSONObject(new JSONTokener(response.body()));
-            return InvoiceResponse.Invoice.fromJson(json);
+            return created(twikeyClient.getJsonCodec().decodeInvoice(response.body()));
         } else {
             String apiError = response.headers()
                     .firstValue("ApiError")
@@ -207,7 +290,6 @@ public class InvoiceGateway {
     }
 
     public JSONObject createBatch(InvoiceRequests.BulkInvoiceRequest batch) throws IOException, TwikeyClient.UserException, InterruptedException {
-        JSONArray jsonArray = batch.toRequest();
         HttpClient client = HttpClient.newHttpClient();
         URL myurl = twikeyClient.getUrl("/invoice/bulk");
         HttpRequest request = HttpRequest.newBuilder()
@@ -215,12 +297,13 @@ public class InvoiceGateway {
                 .header("Content-Type", "application/json")
                 .header("User-Agent", twikeyClient.getUserAgent())
                 .header("Authorization", twikeyClient.getSessionToken())
-                .POST(HttpRequest.BodyPublishers.ofString(String.valueOf(jsonArray)))
+                // encoded while it is sent, one invoice at a time
+                .POST(HttpRequest.BodyPublishers.ofInputStream(batch::openJsonStream))
                 .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
 
         if (response.statusCode() == 200) {
-            return new JSONObject(new JSONTokener(response.body()));
+            return twikeyClient.getJsonCodec().decodeObject(response.body());
         }  else {
             String apiError = response.headers()
                     .firstValue("ApiError")
@@ -239,10 +322,10 @@ public class InvoiceGateway {
                 .header("Authorization", twikeyClient.getSessionToken())
                 .GET()
                 .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
 
         if (response.statusCode() == 200) {
-            return new JSONObject(new JSONTokener(response.body()));
+            return twikeyClient.getJsonCodec().decodeObject(response.body());
         }  else {
             String apiError = response.headers()
                     .firstValue("ApiError")
@@ -261,6 +344,19 @@ public class InvoiceGateway {
      * @throws TwikeyClient.UserException When there was an issue while retrieving the mandates (eg. invalid apikey)
      */
     public void feed(InvoiceCallback invoiceCallback,String... sideloads) throws IOException, TwikeyClient.UserException {
+        feed(invoiceCallback, null, sideloads);
+    }
+
+    /**
+     * Get updates about all invoices, decoding only the fields of the projection
+     *
+     * @param invoiceCallback Callback for every change
+     * @param projection Fields to decode, all others (including sideloads) are skipped. Null to decode everything.
+     * @param sideloads items to include in the sideloading @link <a href="https://www.twikey.com/api/#invoice-feed">www.twikey.com/api/#invoice-feed</a>
+     * @throws IOException                When a network issue happened
+     * @throws TwikeyClient.UserException When there was an issue while retrieving the invoices (eg. invalid apikey)
+     */
+    public void feed(InvoiceCallback invoiceCallback, FeedProjection projection, String... sideloads) throws IOException, TwikeyClient.UserException {
 
         URL myurl = twikeyClient.getUrl("/invoice",sideloads);
         boolean isEmpty;
@@ -272,17 +368,11 @@ public class InvoiceGateway {
 
             int responseCode = con.getResponseCode();
             if (responseCode == 200) {
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(con.getInputStream()))) {
-                    JSONObject json = new JSONObject(new JSONTokener(br));
-
-                    JSONArray invoicesArr = json.getJSONArray("Invoices");
-                    isEmpty = invoicesArr.isEmpty();
-                    if (!invoicesArr.isEmpty()) {
-                        for (int i = 0; i < invoicesArr.length(); i++) {
-                            JSONObject obj = invoicesArr.getJSONObject(i);
-                            invoiceCallback.invoice(obj);
-                        }
-                    }
+                try (InputStream in = con.getInputStream()) {
+                    byte[] page = in.readAllBytes();
+                    twikeyClient.archive(FeedType.INVOICE, page);
+                    int invoices = FeedProjection.forEachEntry(page, FeedType.INVOICE.getEntries(), projection, entry -> twikeyClient.deliver(FeedType.INVOICE, entry, invoiceCallback::invoice));
+                    isEmpty = invoices == 0;
                 }
             } else {
                 String apiError = con.getHeaderField("ApiError");
@@ -290,4 +380,16 @@ public class InvoiceGateway {
             }
         } while (!isEmpty);
     }
+
+    /**
+     * Forget that a new invoice was not found before
+     */
+    private InvoiceResponse.Invoice created(InvoiceResponse.Invoice invoice) {
+        NegativeCache missing = twikeyClient.getNegativeCache();
+        if (missing != null) {
+            missing.invalidate(FeedType.INVOICE, invoice.getId());
+            missing.invalidate(FeedType.INVOICE, invoice.getNumber());
+        }
+        return invoice;
+    }
 }
@@ -1,22 +1,20 @@
 package com.twikey;
 
 import com.twikey.callback.PaylinkCallback;
+import com.twikey.codec.FormEncoder;
+import com.twikey.feed.FeedProjection;
+import com.twikey.feed.FeedType;
 import com.twikey.modal.DocumentRequests;
-import org.json.JSONArray;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 
-import static com.twikey.TwikeyClient.getPostDataString;
-
 public class PaylinkGateway {
 
     private final TwikeyClient twikeyClient;
@@ -74,15 +72,14 @@ public class PaylinkGateway {
         con.setDoOutput(true);
         con.setDoInput(true);
 
-        try (DataOutputStream output = new DataOutputStream(con.getOutputStream())) {
-            output.writeBytes(getPostDataString(params));
-            output.flush();
+        try (FormEncoder form = FormEncoder.acquire(); OutputStream output = con.getOutputStream()) {
+            form.addAll(params).writeTo(output);
         }
 
         int responseCode = con.getResponseCode();
         if (responseCode == 200) {
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(con.getInputStream()))) {
-                return new JSONObject(new JSONTokener(br));
+            try (InputStream in = con.getInputStream()) {
+                return twikeyClient.getJsonCodec().decodeObject(in.readAllBytes());
             }
         } else {
             String apiError = con.getHeaderField("ApiError");
@@ -109,17 +106,11 @@ public class PaylinkGateway {
 
             int responseCode = con.getResponseCode();
             if (responseCode == 200) {
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(con.getInputStream()))) {
-                    JSONObject json = new JSONObject(new JSONTokener(br));
-
-                    JSONArray messagesArr = json.getJSONArray("Links");
-                    isEmpty = messagesArr.isEmpty();
-                    if (!isEmpty) {
-                        for (int i = 0; i < messagesArr.length(); i++) {
-                            JSONObject obj = messagesArr.getJSONObject(i);
-                            callback.paylink(obj);
-                        }
-                    }
+                try (InputStream in = con.getInputStream()) {
+                    byte[] page = in.readAllBytes();
+                    twikeyClient.archive(FeedType.PAYLINK, page);
+                    int entries = FeedProjection.forEachEntry(page, FeedType.PAYLINK.getEntries(), null, entry -> twikeyClient.deliver(FeedType.PAYLINK, entry, callback::paylink));
+                    isEmpty = entries == 0;
                 }
             } else {
                 String apiError = con.getHeaderField("ApiError");
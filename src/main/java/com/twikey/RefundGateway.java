@@ -1,21 +1,19 @@
 package com.twikey;
 
 import com.twikey.callback.RefundCallback;
+import com.twikey.codec.FormEncoder;
+import com.twikey.feed.FeedProjection;
+import com.twikey.feed.FeedType;
 import com.twikey.modal.DocumentRequests;
-import org.json.JSONArray;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
-
-import static com.twikey.TwikeyClient.getPostDataString;
 public class RefundGateway {
 
     private final TwikeyClient twikeyClient;
@@ -63,15 +61,14 @@ public class RefundGateway {
         con.setDoOutput(true);
         con.setDoInput(true);
 
-        try (DataOutputStream output = new DataOutputStream(con.getOutputStream())) {
-            output.writeBytes(getPostDataString(params));
-            output.flush();
+        try (FormEncoder form = FormEncoder.acquire(); OutputStream output = con.getOutputStream()) {
+            form.addAll(params).writeTo(output);
         }
 
         int responseCode = con.getResponseCode();
         if (responseCode == 200) {
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(con.getInputStream()))) {
-                return new JSONObject(new JSONTokener(br)).getJSONArray("Entries").optJSONObject(0);
+            try (InputStream in = con.getInputStream()) {
+                return twikeyClient.getJsonCodec().decodeFirstEntry(in.readAllBytes(), "Entries");
             }
         } else {
             String apiError = con.getHeaderField("ApiError");
@@ -113,15 +110,14 @@ public class RefundGateway {
         con.setDoOutput(true);
         con.setDoInput(true);
 
-        try (DataOutputStream output = new DataOutputStream(con.getOutputStream())) {
-            output.writeBytes(getPostDataString(params));
-            output.flush();
+        try (FormEncoder form = FormEncoder.acquire(); OutputStream output = con.getOutputStream()) {
+            form.addAll(params).writeTo(output);
         }
 
         int responseCode = con.getResponseCode();
         if (responseCode == 200) {
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(con.getInputStream()))) {
-                return new JSONObject(new JSONTokener(br));
+            try (InputStream in = con.getInputStream()) {
+                return twikeyClient.getJsonCodec().decodeObject(in.readAllBytes());
             }
         } else {
             String apiError = con.getHeaderField("ApiError");
@@ -148,17 +144,11 @@ public class RefundGateway {
 
             int responseCode = con.getResponseCode();
             if (responseCode == 200) {
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(con.getInputStream()))) {
-                    JSONObject json = new JSONObject(new JSONTokener(br));
-
-                    JSONArray messagesArr = json.getJSONArray("Entries");
-                    isEmpty = messagesArr.isEmpty();
-                    if (!isEmpty) {
-                        for (int i = 0; i < messagesArr.length(); i++) {
-                            JSONObject obj = messagesArr.getJSONObject(i);
-                            callback.refund(obj);
-                        }
-                    }
+                try (InputStream in = con.getInputStream()) {
+                    byte[] page = in.readAllBytes();
+                    twikeyClient.archive(FeedType.REFUND, page);
+                    int entries = FeedProjection.forEachEntry(page, FeedType.REFUND.getEntries(), null, entry -> twikeyClient.deliver(FeedType.REFUND, entry, callback::refund));
+                    isEmpty = entries == 0;
                 }
             } else {
                 String apiError = con.getHeaderField("ApiError");
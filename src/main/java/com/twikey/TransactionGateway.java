@@ -1,21 +1,19 @@
 package com.twikey;
 
 import com.twikey.callback.TransactionCallback;
-import org.json.JSONArray;
+import com.twikey.codec.FormEncoder;
+import com.twikey.feed.FeedProjection;
+import com.twikey.feed.FeedType;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 
-import static com.twikey.TwikeyClient.getPostDataString;
-
 public class TransactionGateway {
 
     private final TwikeyClient twikeyClient;
@@ -54,15 +52,14 @@ public class TransactionGateway {
         con.setDoOutput(true);
         con.setDoInput(true);
 
-        try (DataOutputStream output = new DataOutputStream(con.getOutputStream())) {
-            output.writeBytes(getPostDataString(params));
-            output.flush();
+        try (FormEncoder form = FormEncoder.acquire(); OutputStream output = con.getOutputStream()) {
+            form.addAll(params).writeTo(output);
         }
 
         int responseCode = con.getResponseCode();
         if (responseCode == 200) {
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(con.getInputStream()))) {
-                return new JSONObject(new JSONTokener(br)).getJSONArray("Entries").optJSONObject(0);
+            try (InputStream in = con.getInputStream()) {
+                return twikeyClient.getJsonCodec().decodeFirstEntry(in.readAllBytes(), "Entries");
             }
         } else {
             String apiError = con.getHeaderField("ApiError");
@@ -79,6 +76,19 @@ public class TransactionGateway {
      * @throws TwikeyClient.UserException When there was an issue while retrieving the mandates (eg. invalid apikey)
      */
     public void feed(TransactionCallback callback,String... sideloads) throws IOException, TwikeyClient.UserException {
+        feed(callback, null, sideloads);
+    }
+
+    /**
+     * Get updates about all transactions, decoding only the fields of the projection
+     *
+     * @param callback Callback for every change
+     * @param projection Fields to decode, all others (including sideloads) are skipped. Null to decode everything.
+     * @param sideloads items to include in the sideloading @link <a href="https://www.twikey.com/api/#transaction-feed">www.twikey.com/api/#transaction-feed</a>
+     * @throws IOException                When a network issue happened
+     * @throws TwikeyClient.UserException When there was an issue while retrieving the transactions (eg. invalid apikey)
+     */
+    public void feed(TransactionCallback callback, FeedProjection projection, String... sideloads) throws IOException, TwikeyClient.UserException {
         URL myurl = twikeyClient.getUrl("/transaction",sideloads);
         boolean isEmpty;
         do{
@@ -89,17 +99,11 @@ public class TransactionGateway {
 
             int responseCode = con.getResponseCode();
             if (responseCode == 200) {
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(con.getInputStream()))) {
-                    JSONObject json = new JSONObject(new JSONTokener(br));
-
-                    JSONArray messagesArr = json.getJSONArray("Entries");
-                    isEmpty = messagesArr.isEmpty();
-                    if (!isEmpty) {
-                        for (int i = 0; i < messagesArr.length(); i++) {
-                            JSONObject obj = messagesArr.getJSONObject(i);
-                            callback.transaction(obj);
-                        }
-                    }
+                try (InputStream in = con.getInputStream()) {
+                    byte[] page = in.readAllBytes();
+                    twikeyClient.archive(FeedType.TRANSACTION, page);
+                    int entries = FeedProjection.forEachEntry(page, FeedType.TRANSACTION.getEntries(), projection, entry -> twikeyClient.deliver(FeedType.TRANSACTION, entry, callback::transaction));
+                    isEmpty = entries == 0;
                 }
             } else {
                 String apiError = con.getHeaderField("ApiError");
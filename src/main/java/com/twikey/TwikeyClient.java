@@ -1,18 +1,36 @@
 package com.twikey;
 
+import com.twikey.cache.InvoiceStateCache;
+import com.twikey.cache.MandateCache;
+import com.twikey.cache.MandateIndex;
+import com.twikey.cache.MappedMandateStore;
+import com.twikey.cache.NegativeCache;
+import com.twikey.cache.PdfCache;
+import com.twikey.cache.ValidatorCache;
+import com.twikey.codec.FormEncoder;
+import com.twikey.codec.TwikeyJsonCodec;
+import com.twikey.feed.DeadLetterStore;
+import com.twikey.feed.FeedArchive;
+import com.twikey.feed.FeedDeduplicator;
+import com.twikey.feed.FeedType;
+import org.json.JSONObject;
+
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLEncoder;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -43,6 +61,19 @@ public class TwikeyClient {
     private long lastLogin;
     private String sessionToken;
     private String userAgent = DEFAULT_USER_HEADER;
+    private FeedDeduplicator deduplicator;
+    private FeedArchive feedArchive;
+    private DeadLetterStore deadLetters;
+    private BiConsumer<FeedType, Exception> feedErrorHandler;
+    private final AtomicLong feedErrors = new AtomicLong();
+    private TwikeyJsonCodec jsonCodec = TwikeyJsonCodec.streaming();
+    private MandateCache mandateCache;
+    private ValidatorCache validatorCache;
+    private MandateIndex mandateIndex;
+    private InvoiceStateCache invoiceStateCache;
+    private MappedMandateStore mandateStore;
+    private PdfCache pdfCache;
+    private NegativeCache negativeCache;
 
     private final DocumentGateway documentGateway;
     private final InvoiceGateway invoiceGateway;
@@ -83,6 +114,111 @@ public class TwikeyClient {
         return this;
     }
 
+    /**
+     * @param deduplicator Drops events that were already delivered before they reach the feed callbacks
+     */
+    public TwikeyClient withDeduplicator(FeedDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+        return this;
+    }
+
+    /**
+     * @param feedArchive Stores a copy of every raw feed page before it is handed to the callbacks, a page that
+     *                    could not be archived is reported to the {@link #withFeedErrorHandler feed error handler}
+     */
+    public TwikeyClient withFeedArchive(FeedArchive feedArchive) {
+        this.feedArchive = feedArchive;
+        return this;
+    }
+
+    /**
+     * @param deadLetters Isolates failing feed callbacks, storing the entries that keep failing instead of aborting the feed
+     */
+    public TwikeyClient withDeadLetters(DeadLetterStore deadLetters) {
+        this.deadLetters = deadLetters;
+        return this;
+    }
+
+    /**
+     * @param feedErrorHandler Receives the failures of the local work done for a feed (eg. archiving a page), which
+     *                         never abort the feed as Twikey already considers the page delivered
+     */
+    public TwikeyClient withFeedErrorHandler(BiConsumer<FeedType, Exception> feedErrorHandler) {
+        this.feedErrorHandler = feedErrorHandler;
+        return this;
+    }
+
+    /**
+     * @return number of failures of the local work done for the feeds, see {@link #withFeedErrorHandler}
+     */
+    public long getFeedErrorCount() {
+        return feedErrors.get();
+    }
+
+    /**
+     * @param jsonCodec Decodes the responses into the models, defaults to {@link TwikeyJsonCodec#streaming()}
+     */
+    public TwikeyClient withJsonCodec(TwikeyJsonCodec jsonCodec) {
+        this.jsonCodec = jsonCodec;
+        return this;
+    }
+
+    /**
+     * @param mandateCache Serves {@link DocumentGateway#fetch} from memory, kept up to date by the mandate feed
+     */
+    public TwikeyClient withMandateCache(MandateCache mandateCache) {
+        this.mandateCache = mandateCache;
+        return this;
+    }
+
+    /**
+     * @param validatorCache Sends repeated detail and pdf requests conditionally, answering a 304 from memory
+     */
+    public TwikeyClient withValidatorCache(ValidatorCache validatorCache) {
+        this.validatorCache = validatorCache;
+        return this;
+    }
+
+    /**
+     * @param mandateIndex Answers {@link DocumentGateway#query} locally, kept up to date by the mandate feed
+     */
+    public TwikeyClient withMandateIndex(MandateIndex mandateIndex) {
+        this.mandateIndex = mandateIndex;
+        return this;
+    }
+
+    /**
+     * @param invoiceStateCache Keeps the state of every invoice seen in the feed or details, see {@link InvoiceStateCache}
+     */
+    public TwikeyClient withInvoiceStateCache(InvoiceStateCache invoiceStateCache) {
+        this.invoiceStateCache = invoiceStateCache;
+        return this;
+    }
+
+    /**
+     * @param mandateStore Keeps every mandate of the feed and of {@link DocumentGateway#fetch} off-heap
+     */
+    public TwikeyClient withMandateStore(MappedMandateStore mandateStore) {
+        this.mandateStore = mandateStore;
+        return this;
+    }
+
+    /**
+     * @param pdfCache Keeps the mandate pdfs on disk so they are downloaded only once
+     */
+    public TwikeyClient withPdfCache(PdfCache pdfCache) {
+        this.pdfCache = pdfCache;
+        return this;
+    }
+
+    /**
+     * @param negativeCache Remembers the mandates and invoices that were not found, so they are not looked up again
+     */
+    public TwikeyClient withNegativeCache(NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+        return this;
+    }
+
     protected String getSessionToken() throws IOException, UnauthenticatedException {
         if ((System.currentTimeMillis() - lastLogin) > MAX_SESSION_AGE) {
             URL myurl = new URL(endpoint);
@@ -93,14 +229,12 @@ public class TwikeyClient {
             con.setDoOutput(true);
             con.setDoInput(true);
 
-            try (DataOutputStream output = new DataOutputStream(con.getOutputStream())) {
+            try (FormEncoder form = FormEncoder.acquire(); OutputStream output = con.getOutputStream()) {
+                form.add("apiToken", apiKey);
                 if (privateKey != null) {
-                    long otp = generateOtp(SALT_OWN, privateKey);
-                    output.writeBytes(String.format("apiToken=%s&otp=%d", apiKey, otp));
-                } else {
-                    output.writeBytes(String.format("apiToken=%s", apiKey));
+                    form.add("otp", generateOtp(SALT_OWN, privateKey));
                 }
-                output.flush();
+                form.writeTo(output);
             } catch (GeneralSecurityException e) {
                 throw new IOException(e);
             }
@@ -119,24 +253,9 @@ public class TwikeyClient {
     }
 
     protected static String getPostDataString(Map<String, String> params) {
-        StringBuilder result = new StringBuilder();
-        boolean first = true;
-        for (Map.Entry<String, String> entry : params.entrySet()) {
-            String value = entry.getValue();
-            if (value == null || value.isBlank()) {
-                continue;
-            }
-
-            if (first)
-                first = false;
-            else
-                result.append("&");
-
-            result.append(URLEncoder.encode(entry.getKey(), UTF_8));
-            result.append("=");
-            result.append(URLEncoder.encode(entry.getValue(), UTF_8));
+        try (FormEncoder form = FormEncoder.acquire()) {
+            return form.addAll(params).toString();
         }
-        return result.toString();
     }
 
     public URL getUrl(String path) throws MalformedURLException {
@@ -161,6 +280,127 @@ public class TwikeyClient {
         return userAgent;
     }
 
+    public TwikeyJsonCodec getJsonCodec() {
+        return jsonCodec;
+    }
+
+    MandateCache getMandateCache() {
+        return mandateCache;
+    }
+
+    ValidatorCache getValidatorCache() {
+        return validatorCache;
+    }
+
+    MandateIndex getMandateIndex() {
+        return mandateIndex;
+    }
+
+    InvoiceStateCache getInvoiceStateCache() {
+        return invoiceStateCache;
+    }
+
+    MappedMandateStore getMandateStore() {
+        return mandateStore;
+    }
+
+    PdfCache getPdfCache() {
+        return pdfCache;
+    }
+
+    NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    /**
+     * Drop the cached copy of a mandate that was changed
+     */
+    void invalidateMandate(String mandateNumber) {
+        if (mandateCache != null && mandateNumber != null) {
+            mandateCache.invalidate(mandateNumber);
+        }
+    }
+
+    /**
+     * Drop the cached pdf of a mandate that appeared in the feed or was changed or cancelled
+     */
+    void invalidatePdf(String mandateNumber) {
+        if (pdfCache != null && mandateNumber != null) {
+            try {
+                pdfCache.invalidate(mandateNumber);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Hand a feed entry to the callback, skipping duplicates and isolating failures when configured
+     */
+    void deliver(FeedType type, JSONObject entry, Consumer<JSONObject> callback) {
+        if (deduplicator != null && !deduplicator.firstSeen(type, entry)) {
+            return;
+        }
+        if (negativeCache != null && (type == FeedType.MANDATE || type == FeedType.INVOICE)) {
+            negativeCache.invalidate(type, type.idOf(entry));
+            if (type == FeedType.INVOICE) {
+                negativeCache.invalidate(type, entry.optString("number", null));
+            }
+        }
+        if (type == FeedType.MANDATE) {
+            invalidateMandate(type.idOf(entry));
+            // any entry (signature, update, cancellation) may change the signed pdf
+            if (pdfCache != null) {
+                applyLocally(type, () -> invalidatePdf(type.idOf(entry)));
+            }
+            if (mandateIndex != null) {
+                mandateIndex.message(entry);
+            }
+            if (mandateStore != null) {
+                applyLocally(type, () -> mandateStore.message(entry));
+            }
+        }
+        if (type == FeedType.INVOICE && invoiceStateCache != null) {
+            applyLocally(type, () -> invoiceStateCache.invoice(entry));
+        }
+        if (deadLetters != null) {
+            deadLetters.deliver(type, entry, callback);
+        } else {
+            callback.accept(entry);
+        }
+    }
+
+    /**
+     * Archive the raw page of a feed if an archive is configured, a failure is reported but the page still delivered
+     */
+    void archive(FeedType type, byte[] page) {
+        if (feedArchive != null) {
+            try {
+                feedArchive.append(type, page);
+            } catch (IOException | RuntimeException e) {
+                reportFeedError(type, e);
+            }
+        }
+    }
+
+    /**
+     * Updates a local cache with a feed entry, a failure is reported but never keeps the entry from its callback
+     */
+    private void applyLocally(FeedType type, Runnable update) {
+        try {
+            update.run();
+        } catch (RuntimeException e) {
+            reportFeedError(type, e);
+        }
+    }
+
+    void reportFeedError(FeedType type, Exception e) {
+        feedErrors.incrementAndGet();
+        if (feedErrorHandler != null) {
+            feedErrorHandler.accept(type, e);
+        }
+    }
+
     public DocumentGateway document() {
         return documentGateway;
     }
@@ -0,0 +1,235 @@
+package com.twikey.bulk;
+
+import com.twikey.TwikeyClient;
+import com.twikey.modal.InvoiceResponse;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+/**
+ * Follows up on bulk batches until Twikey finished processing them, without a thread per batch.
+ * <p>
+ * Every batch is polled on a shared scheduler: first after <code>initialDelay</code>, then with a delay that grows
+ * by <code>factor</code> for every poll that finds the batch still pending (up to <code>maxDelay</code>). Network
+ * failures are retried the same way, an error reported by Twikey fails the batch. Tracking a batch that is already
+ * tracked returns the existing future, so it is never polled twice.
+ * <p>
+ * A batch is done once its <code>status</code> is <code>COMPLETED</code>, a response without a status counts as
+ * pending. Other end states and the name of the array holding the invoices are set with {@link #withCompletion}
+ * and {@link #withInvoicesField}.
+ *
+ * <pre>
+ * try (BatchTracker tracker = new BatchTracker(api)) {
+ *     tracker.track(submission).thenAccept(batches -&gt; ...);
+ * }
+ * </pre>
+ */
+public class BatchTracker implements Closeable {
+
+    /**
+     * Default completion, only a batch reported as <code>COMPLETED</code> is done
+     */
+    public static final Predicate<InvoiceResponse.BatchDetails> COMPLETED =
+            details -> "COMPLETED".equalsIgnoreCase(details.getStatus());
+
+    /**
+     * Retrieves the details of a batch, typically {@link com.twikey.InvoiceGateway#batchDetails(String)}
+     */
+    @FunctionalInterface
+    public interface Poller {
+        JSONObject poll(String batchId) throws Exception, TwikeyClient.UserException;
+    }
+
+    private final Poller poller;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, CompletableFuture<InvoiceResponse.BatchDetails>> tracked = new ConcurrentHashMap<>();
+
+    private long initialDelayMillis = 1_000;
+    private long maxDelayMillis = 60_000;
+    private double factor = 2;
+    private long timeoutMillis = TimeUnit.HOURS.toMillis(1);
+    private int maxFailures = 5;
+    private Predicate<InvoiceResponse.BatchDetails> completed = COMPLETED;
+    private String invoicesField = "Invoices";
+
+    public BatchTracker(TwikeyClient twikeyClient) {
+        this(batchId -> twikeyClient.invoice().batchDetails(batchId), Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "twikey-batch-tracker");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public BatchTracker(Poller poller, ScheduledExecutorService scheduler) {
+        this.poller = poller;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param initialDelay wait before the first poll of a batch
+     * @param maxDelay     upper bound of the wait between two polls of the same batch
+     * @param factor       growth of the wait after each poll that finds the batch pending
+     */
+    public BatchTracker withBackoff(Duration initialDelay, Duration maxDelay, double factor) {
+        if (factor < 1 || maxDelay.compareTo(initialDelay) < 0) {
+            throw new IllegalArgumentException("factor should be at least 1 and maxDelay not smaller than initialDelay");
+        }
+        this.initialDelayMillis = initialDelay.toMillis();
+        this.maxDelayMillis = maxDelay.toMillis();
+        this.factor = factor;
+        return this;
+    }
+
+    /**
+     * @param timeout time after which a batch that is still pending fails with a {@link TimeoutException}
+     */
+    public BatchTracker withTimeout(Duration timeout) {
+        this.timeoutMillis = timeout.toMillis();
+        return this;
+    }
+
+    /**
+     * @param maxFailures consecutive failed polls (eg. network issues) after which a batch fails
+     */
+    public BatchTracker withMaxFailures(int maxFailures) {
+        this.maxFailures = maxFailures;
+        return this;
+    }
+
+    /**
+     * @param completed whether the polled details mean Twikey is done with the batch, eg. to also end on a failed batch
+     */
+    public BatchTracker withCompletion(Predicate<InvoiceResponse.BatchDetails> completed) {
+        this.completed = completed;
+        return this;
+    }
+
+    /**
+     * @param invoicesField name of the array holding the invoices in the batch details
+     */
+    public BatchTracker withInvoicesField(String invoicesField) {
+        this.invoicesField = invoicesField;
+        return this;
+    }
+
+    /**
+     * @return completes with the details once the batch is processed
+     */
+    public CompletableFuture<InvoiceResponse.BatchDetails> track(String batchId) {
+        CompletableFuture<InvoiceResponse.BatchDetails> result = new CompletableFuture<>();
+        CompletableFuture<InvoiceResponse.BatchDetails> existing = tracked.putIfAbsent(batchId, result);
+        if (existing != null) {
+            return existing;
+        }
+        // tracking ends before the result completes, whatever the outcome (a failed batch can be tracked again)
+        CompletableFuture<InvoiceResponse.BatchDetails> polled = new CompletableFuture<>();
+        polled.whenComplete((details, e) -> {
+            tracked.remove(batchId, result);
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(details);
+            }
+        });
+        result.whenComplete((details, e) -> polled.cancel(false));
+        new Poll(batchId, polled, System.currentTimeMillis() + timeoutMillis).schedule(initialDelayMillis);
+        return result;
+    }
+
+    /**
+     * Track all batches of a bulk submission once all of its chunks were sent
+     *
+     * @return completes with the details of every submitted chunk, in order
+     */
+    public CompletableFuture<List<InvoiceResponse.BatchDetails>> track(BulkSubmission submission) {
+        return submission.completion().thenCompose(done -> {
+            List<CompletableFuture<InvoiceResponse.BatchDetails>> batches = done.getBatchIds().stream().map(this::track).toList();
+            return CompletableFuture.allOf(batches.toArray(CompletableFuture[]::new))
+                    .thenApply(ignore -> batches.stream().map(CompletableFuture::join).toList());
+        });
+    }
+
+    /**
+     * @return number of batches that are still being polled
+     */
+    public int getTrackedCount() {
+        return tracked.size();
+    }
+
+    /**
+     * Stops polling, pending futures are cancelled
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (CompletableFuture<InvoiceResponse.BatchDetails> future : tracked.values()) {
+            future.cancel(false);
+        }
+    }
+
+    private class Poll implements Runnable {
+        private final String batchId;
+        private final CompletableFuture<InvoiceResponse.BatchDetails> future;
+        private final long deadline;
+        private long delayMillis = initialDelayMillis;
+        private int failures;
+
+        Poll(String batchId, CompletableFuture<InvoiceResponse.BatchDetails> future, long deadline) {
+            this.batchId = batchId;
+            this.future = future;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                InvoiceResponse.BatchDetails details = InvoiceResponse.BatchDetails.fromJson(batchId, poller.poll(batchId), invoicesField);
+                failures = 0;
+                if (completed.test(details)) {
+                    future.complete(details);
+                    return;
+                }
+            } catch (TwikeyClient.UserException e) {
+                future.completeExceptionally(e);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return;
+            } catch (Exception e) {
+                if (++failures >= maxFailures) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                future.completeExceptionally(new TimeoutException("Batch " + batchId + " still pending"));
+                return;
+            }
+            delayMillis = Math.min(maxDelayMillis, (long) (delayMillis * factor));
+            schedule(delayMillis);
+        }
+
+        void schedule(long delay) {
+            try {
+                scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.twikey.bulk;
+
+import com.twikey.TwikeyClient;
+import com.twikey.modal.InvoiceRequests;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * Creates any number of invoices through the bulk endpoint, splitting them in batches Twikey accepts.
+ * <p>
+ * The invoices are consumed as they are chunked, at most <code>parallelism</code> chunks are being sent at the same
+ * time and the next chunk is only collected once one of those completed. A stream of invoices is therefore never
+ * held in memory as a whole.
+ *
+ * <pre>
+ * try (BulkInvoiceSubmitter submitter = new BulkInvoiceSubmitter(api, 4)) {
+ *     BulkSubmission submission = submitter.submit(invoiceStream).await();
+ *     for (BulkSubmission.Chunk failed : submission.getFailed()) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class BulkInvoiceSubmitter implements Closeable {
+
+    /**
+     * Sends a single batch, typically {@link com.twikey.InvoiceGateway#createBatch}
+     */
+    @FunctionalInterface
+    public interface Sender {
+        JSONObject send(InvoiceRequests.BulkInvoiceRequest batch) throws Exception, TwikeyClient.UserException;
+    }
+
+    private final Sender sender;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private int chunkSize = InvoiceRequests.BulkInvoiceRequest.MAX_INVOICES;
+
+    /**
+     * @param twikeyClient client used to send the batches
+     * @param parallelism  number of batches that are sent at the same time
+     */
+    public BulkInvoiceSubmitter(TwikeyClient twikeyClient, int parallelism) {
+        this(batch -> twikeyClient.invoice().createBatch(batch), parallelism, Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "twikey-bulk-submitter");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public BulkInvoiceSubmitter(Sender sender, int parallelism, ExecutorService executor) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism should be at least 1");
+        }
+        this.sender = sender;
+        this.executor = executor;
+        this.permits = new Semaphore(parallelism);
+    }
+
+    /**
+     * @param chunkSize Number of invoices per batch, at most {@link InvoiceRequests.BulkInvoiceRequest#MAX_INVOICES}
+     */
+    public BulkInvoiceSubmitter withChunkSize(int chunkSize) {
+        if (chunkSize < 1 || chunkSize > InvoiceRequests.BulkInvoiceRequest.MAX_INVOICES) {
+            throw new IllegalArgumentException("chunkSize should be between 1 and " + InvoiceRequests.BulkInvoiceRequest.MAX_INVOICES);
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public BulkSubmission submit(Iterable<? extends InvoiceRequests.CreateInvoiceRequest> invoices) throws InterruptedException {
+        return submit(invoices.iterator());
+    }
+
+    public BulkSubmission submit(Stream<? extends InvoiceRequests.CreateInvoiceRequest> invoices) throws InterruptedException {
+        return submit(invoices.iterator());
+    }
+
+    /**
+     * Chunk and send the invoices, returns once the last chunk is handed off (not when it is sent)
+     *
+     * @throws InterruptedException when interrupted while waiting for a chunk to complete, chunks already handed
+     *                              off are still sent
+     */
+    public BulkSubmission submit(Iterator<? extends InvoiceRequests.CreateInvoiceRequest> invoices) throws InterruptedException {
+        BulkSubmission submission = new BulkSubmission();
+        List<InvoiceRequests.CreateInvoiceRequest> chunk = new ArrayList<>();
+        while (invoices.hasNext()) {
+            chunk.add(invoices.next());
+            if (chunk.size() == chunkSize) {
+                dispatch(submission, chunk);
+                chunk = new ArrayList<>();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            dispatch(submission, chunk);
+        }
+        submission.seal();
+        return submission;
+    }
+
+    private void dispatch(BulkSubmission submission, List<InvoiceRequests.CreateInvoiceRequest> invoices) throws InterruptedException {
+        permits.acquire();
+        BulkSubmission.Chunk chunk = submission.add(invoices);
+        try {
+            executor.execute(() -> {
+                try {
+                    JSONObject response = sender.send(new InvoiceRequests.BulkInvoiceRequest(invoices));
+                    String batchId = response != null ? response.optString("batchId", null) : null;
+                    if (batchId != null) {
+                        chunk.submitted(batchId);
+                    } else {
+                        // nothing to track, the invoices may not have been created
+                        chunk.failed(new IllegalStateException("No batchId in response: " + response));
+                    }
+                } catch (Throwable e) {
+                    chunk.failed(e);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            chunk.failed(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,215 @@
+package com.twikey.bulk;
+
+import com.twikey.modal.InvoiceRequests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Handle on the invoices handed to {@link BulkInvoiceSubmitter#submit(Iterable)}, one {@link Chunk} per batch
+ * that is sent to Twikey.
+ */
+public class BulkSubmission {
+
+    public enum Status {
+        /**
+         * Waiting for or being sent to Twikey
+         */
+        PENDING,
+        /**
+         * Accepted by Twikey, the batch id can be used to follow up on the invoices
+         */
+        SUBMITTED,
+        /**
+         * Not accepted, the invoices of the chunk can be submitted again
+         */
+        FAILED
+    }
+
+    private final List<Chunk> chunks = Collections.synchronizedList(new ArrayList<>());
+    private final CompletableFuture<BulkSubmission> completion = new CompletableFuture<>();
+
+    Chunk add(List<InvoiceRequests.CreateInvoiceRequest> invoices) {
+        Chunk chunk = new Chunk(chunks.size(), invoices);
+        chunks.add(chunk);
+        return chunk;
+    }
+
+    /**
+     * Called once all chunks were added
+     */
+    void seal() {
+        CompletableFuture.allOf(snapshot().stream().map(chunk -> chunk.future).toArray(CompletableFuture[]::new))
+                .whenComplete((ignore, e) -> completion.complete(this));
+    }
+
+    /**
+     * @return all chunks in the order of the invoices
+     */
+    public List<Chunk> getChunks() {
+        return snapshot();
+    }
+
+    /**
+     * @return the batch ids of the chunks that were submitted so far
+     */
+    public List<String> getBatchIds() {
+        List<String> batchIds = new ArrayList<>();
+        for (Chunk chunk : snapshot()) {
+            if (chunk.getStatus() == Status.SUBMITTED) {
+                batchIds.add(chunk.getBatchId());
+            }
+        }
+        return batchIds;
+    }
+
+    public List<Chunk> getFailed() {
+        List<Chunk> failed = new ArrayList<>();
+        for (Chunk chunk : snapshot()) {
+            if (chunk.getStatus() == Status.FAILED) {
+                failed.add(chunk);
+            }
+        }
+        return failed;
+    }
+
+    public int getInvoiceCount() {
+        int count = 0;
+        for (Chunk chunk : snapshot()) {
+            count += chunk.getSize();
+        }
+        return count;
+    }
+
+    public boolean isDone() {
+        return completion.isDone();
+    }
+
+    /**
+     * @return completes (never exceptionally) once every chunk was either submitted or failed
+     */
+    public CompletableFuture<BulkSubmission> completion() {
+        return completion;
+    }
+
+    /**
+     * Wait until every chunk was either submitted or failed
+     */
+    public BulkSubmission await() throws InterruptedException {
+        try {
+            return completion.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private List<Chunk> snapshot() {
+        synchronized (chunks) {
+            return new ArrayList<>(chunks);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BulkSubmission{" +
+                "chunks=" + getChunks().size() +
+                ", invoices=" + getInvoiceCount() +
+                ", batchIds=" + getBatchIds() +
+                ", failed=" + getFailed().size() +
+                ", done=" + isDone() +
+                '}';
+    }
+
+    /**
+     * A part of the invoices, sent as a single batch
+     */
+    public static class Chunk {
+
+        private final int index;
+        private final int size;
+        private final CompletableFuture<Chunk> future = new CompletableFuture<>();
+
+        // only kept until the chunk was accepted
+        private volatile List<InvoiceRequests.CreateInvoiceRequest> invoices;
+        private volatile Status status = Status.PENDING;
+        private volatile String batchId;
+        private volatile Throwable error;
+
+        Chunk(int index, List<InvoiceRequests.CreateInvoiceRequest> invoices) {
+            this.index = index;
+            this.size = invoices.size();
+            this.invoices = invoices;
+        }
+
+        void submitted(String batchId) {
+            this.batchId = batchId;
+            this.invoices = null;
+            this.status = Status.SUBMITTED;
+            future.complete(this);
+        }
+
+        void failed(Throwable error) {
+            this.error = error;
+            this.status = Status.FAILED;
+            future.complete(this);
+        }
+
+        /**
+         * @return position of the chunk within the submission
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return id of the batch in Twikey, null unless submitted
+         */
+        public String getBatchId() {
+            return batchId;
+        }
+
+        /**
+         * @return reason the chunk failed, null unless failed
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return the invoices of the chunk while it is not submitted, eg. to submit failed ones again
+         */
+        public List<InvoiceRequests.CreateInvoiceRequest> getInvoices() {
+            List<InvoiceRequests.CreateInvoiceRequest> invoices = this.invoices;
+            return invoices != null ? invoices : List.of();
+        }
+
+        /**
+         * @return completes with this chunk once it was submitted or failed
+         */
+        public CompletableFuture<Chunk> future() {
+            return future;
+        }
+
+        @Override
+        public String toString() {
+            return "Chunk{" +
+                    "index=" + index +
+                    ", size=" + size +
+                    ", status=" + status +
+                    ", batchId='" + batchId + '\'' +
+                    ", error=" + error +
+                    '}';
+        }
+    }
+}
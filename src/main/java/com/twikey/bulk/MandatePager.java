@@ -0,0 +1,195 @@
+package com.twikey.bulk;
+
+import com.twikey.TwikeyClient;
+import com.twikey.modal.DocumentRequests;
+import com.twikey.modal.DocumentResponse;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Walks all pages of a {@link DocumentRequests.MandateQuery}, starting from its page (or the first one).
+ * <p>
+ * While a page is consumed the next <code>lookAhead</code> pages are already being fetched, by at most
+ * <code>parallelism</code> requests at the same time. The walk ends at the first empty page, pages after it that
+ * were not requested yet are skipped. A page that fails ends the walk with a {@link PageException}.
+ * <p>
+ * The pager owns its executor, it is shut down once the last page is consumed or the pager is closed.
+ *
+ * <pre>
+ * try (Stream&lt;Document&gt; mandates = api.document().queryAll(MandateQuery.fromCustomerNumber(number), 4, 2)) {
+ *     mandates.forEach(reconciliation::check);
+ * }
+ * </pre>
+ */
+public class MandatePager implements Iterator<DocumentResponse.Document>, Closeable {
+
+    /**
+     * Fetches a single page, typically {@link com.twikey.DocumentGateway#query}
+     */
+    @FunctionalInterface
+    public interface Fetcher {
+        List<DocumentResponse.Document> fetch(DocumentRequests.MandateQuery page) throws Exception, TwikeyClient.UserException;
+    }
+
+    /**
+     * Thrown while iterating when a page could not be fetched
+     */
+    public static class PageException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int page;
+
+        public PageException(int page, Throwable cause) {
+            super("Page " + page + " failed: " + cause, cause);
+            this.page = page;
+        }
+
+        public int getPage() {
+            return page;
+        }
+    }
+
+    private final Fetcher fetcher;
+    private final DocumentRequests.MandateQuery query;
+    private final int lookAhead;
+    private final ExecutorService executor;
+    private final Deque<CompletableFuture<List<DocumentResponse.Document>>> pending = new ArrayDeque<>();
+    // first page known to be empty, no page after it is fetched
+    private final AtomicInteger lastPage = new AtomicInteger(Integer.MAX_VALUE);
+
+    private int nextPage;
+    private Iterator<DocumentResponse.Document> current = Collections.emptyIterator();
+    private boolean done;
+
+    /**
+     * @param twikeyClient client used to fetch the pages
+     * @param lookAhead    number of pages fetched ahead of the one being consumed
+     * @param parallelism  number of pages that are fetched at the same time
+     */
+    public MandatePager(TwikeyClient twikeyClient, DocumentRequests.MandateQuery query, int lookAhead, int parallelism) {
+        this(page -> twikeyClient.document().query(page), query, lookAhead, Executors.newFixedThreadPool(threads(lookAhead, parallelism), r -> {
+            Thread thread = new Thread(r, "twikey-mandate-pager");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public MandatePager(Fetcher fetcher, DocumentRequests.MandateQuery query, int lookAhead, ExecutorService executor) {
+        if (lookAhead < 1) {
+            executor.shutdown();
+            throw new IllegalArgumentException("lookAhead should be at least 1");
+        }
+        this.fetcher = fetcher;
+        this.query = query;
+        this.lookAhead = lookAhead;
+        this.executor = executor;
+        this.nextPage = query.getPage() != null ? query.getPage() : 0;
+    }
+
+    /**
+     * @return the mandates of all pages, closing the stream stops fetching
+     */
+    public Stream<DocumentResponse.Document> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (done) {
+                return false;
+            }
+            fill();
+            CompletableFuture<List<DocumentResponse.Document>> next = pending.poll();
+            if (next == null) {
+                close();
+                return false;
+            }
+            int number = nextPage - pending.size() - 1;
+            // keep the look-ahead while waiting for this page
+            fill();
+            List<DocumentResponse.Document> page;
+            try {
+                page = next.join();
+            } catch (CompletionException | CancellationException e) {
+                close();
+                throw e.getCause() instanceof PageException failed ? failed : new PageException(number, e);
+            }
+            if (page.isEmpty()) {
+                close();
+                return false;
+            }
+            current = page.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public DocumentResponse.Document next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Stops fetching, pages that were requested are discarded
+     */
+    @Override
+    public void close() {
+        done = true;
+        for (CompletableFuture<List<DocumentResponse.Document>> page : pending) {
+            page.cancel(false);
+        }
+        pending.clear();
+        executor.shutdownNow();
+    }
+
+    private static int threads(int lookAhead, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism should be at least 1");
+        }
+        // more threads than pages fetched ahead would never be used
+        return Math.max(1, Math.min(lookAhead, parallelism));
+    }
+
+    private void fill() {
+        while (!done && pending.size() < lookAhead && nextPage <= lastPage.get()) {
+            int page = nextPage++;
+            DocumentRequests.MandateQuery pageQuery = query.forPage(page);
+            pending.add(CompletableFuture.supplyAsync(() -> {
+                if (page > lastPage.get()) {
+                    return Collections.emptyList();
+                }
+                List<DocumentResponse.Document> documents;
+                try {
+                    documents = fetcher.fetch(pageQuery);
+                } catch (Exception | TwikeyClient.UserException e) {
+                    throw new PageException(page, e);
+                }
+                if (documents == null || documents.isEmpty()) {
+                    lastPage.accumulateAndGet(page, Math::min);
+                    return Collections.emptyList();
+                }
+                return documents;
+            }, executor));
+        }
+    }
+}
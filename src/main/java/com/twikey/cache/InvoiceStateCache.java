@@ -0,0 +1,284 @@
+package com.twikey.cache;
+
+import com.twikey.callback.InvoiceCallback;
+import com.twikey.codec.SnapshotReader;
+import com.twikey.codec.SnapshotWriter;
+import com.twikey.codec.StringInterner;
+import com.twikey.modal.InvoiceResponse;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Id, number, state, amount and last payment of every known invoice, kept current by the invoice feed.
+ * <p>
+ * Once configured on the client every entry of {@link com.twikey.InvoiceGateway#feed} updates the cache (fields
+ * left out by a projection keep their previous value) as does every invoice returned by
+ * {@link com.twikey.InvoiceGateway#details} or {@link com.twikey.InvoiceGateway#update}, an action or delete through
+ * the gateway drops the invoice until its new state is seen. A detail request marked
+ * {@link com.twikey.modal.InvoiceRequests.InvoiceDetailRequest#cacheFirst(boolean) cacheFirst} is then answered
+ * from the cache when the invoice is known. It can also be used as {@link InvoiceCallback} directly.
+ * <p>
+ * When created with a journal every change is appended to that file in the snapshot format and the cache is
+ * restored from it on startup, so a restart does not require replaying the feed. The journal is rewritten once it
+ * holds more than twice as many records as there are invoices.
+ *
+ * <pre>
+ * InvoiceStateCache invoices = new InvoiceStateCache(Path.of("invoices.journal"));
+ * TwikeyClient api = new TwikeyClient(apiKey).withInvoiceStateCache(invoices);
+ * api.invoice().details(new InvoiceDetailRequest(number).cacheFirst(true)).getState();
+ * </pre>
+ */
+public class InvoiceStateCache implements InvoiceCallback, Closeable {
+
+    private static final int MIN_COMPACTION = 10_000;
+
+    /**
+     * The cached part of an invoice
+     *
+     * @param lastPayment as returned by Twikey, null when not included in the feed or details
+     */
+    public record InvoiceState(String id, String number, String state, Double amount, String lastPayment) {
+
+        /**
+         * @return an invoice with only the cached fields, the others are empty
+         */
+        public InvoiceResponse.Invoice toInvoice() {
+            JSONObject json = new JSONObject()
+                    .put("id", id)
+                    .put("number", number)
+                    .put("state", state)
+                    .put("amount", amount)
+                    .put("lastpayment", lastPayment);
+            return InvoiceResponse.Invoice.fromJson(json);
+        }
+
+        private void writeSnapshot(SnapshotWriter out) {
+            out.header(SnapshotWriter.INVOICE_STATE)
+                    .string(id)
+                    .string(number)
+                    .string(state)
+                    .nullableDouble(amount)
+                    .string(lastPayment);
+        }
+
+        private static InvoiceState fromSnapshot(SnapshotReader in) {
+            in.header(SnapshotWriter.INVOICE_STATE);
+            return new InvoiceState(in.string(), in.string(), StringInterner.shared().intern(in.string()), in.nullableDouble(), in.string());
+        }
+    }
+
+    private final Map<String, InvoiceState> byId = new ConcurrentHashMap<>();
+    private final Map<String, String> idByNumber = new ConcurrentHashMap<>();
+
+    private final Path journal;
+    private final SnapshotWriter writer = new SnapshotWriter();
+    private FileChannel channel;
+    private long journalRecords;
+
+    /**
+     * Cache that only lives in memory
+     */
+    public InvoiceStateCache() {
+        this.journal = null;
+    }
+
+    /**
+     * @param journal file the states are restored from and changes are appended to, created if missing
+     */
+    public InvoiceStateCache(Path journal) throws IOException {
+        this.journal = journal;
+        this.channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        restore();
+    }
+
+    public InvoiceState getById(String id) {
+        return byId.get(id);
+    }
+
+    public InvoiceState getByNumber(String number) {
+        String id = idByNumber.get(number);
+        return id != null ? byId.get(id) : null;
+    }
+
+    /**
+     * @param idOrNumber either the id or the number of the invoice, as accepted by the details of an invoice
+     */
+    public InvoiceState get(String idOrNumber) {
+        InvoiceState state = byId.get(idOrNumber);
+        return state != null ? state : getByNumber(idOrNumber);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public void put(InvoiceResponse.Invoice invoice) {
+        update(invoice.getId(), invoice.getNumber(), invoice.getState(), invoice.getAmount(), invoice.getLastpayment());
+    }
+
+    /**
+     * Forgets an invoice that was changed without the new state being known, eg. by an action through the gateway
+     *
+     * @param idOrNumber either the id or the number of the invoice
+     */
+    public void invalidate(String idOrNumber) {
+        InvoiceState cached = get(idOrNumber);
+        if (cached == null) {
+            return;
+        }
+        byId.computeIfPresent(cached.id, (id, previous) -> {
+            if (previous.number != null) {
+                idByNumber.remove(previous.number, id);
+            }
+            // journaled as a state without any field
+            append(new InvoiceState(id, null, null, null, null));
+            return null;
+        });
+    }
+
+    /**
+     * Applies an entry of the invoice feed
+     */
+    @Override
+    public void invoice(JSONObject updatedInvoice) {
+        Object lastPayment = updatedInvoice.opt("lastpayment");
+        update(updatedInvoice.optString("id", null),
+                updatedInvoice.optString("number", null),
+                updatedInvoice.optString("state", null),
+                updatedInvoice.has("amount") ? updatedInvoice.optDouble("amount") : null,
+                lastPayment != null && lastPayment != JSONObject.NULL ? lastPayment.toString() : null);
+    }
+
+    /**
+     * Rewrites the journal with only the current state of every invoice
+     */
+    public void compact() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        synchronized (writer) {
+            Path tmp = journal.resolveSibling(journal.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (InvoiceState state : byId.values()) {
+                    state.writeSnapshot(writer.reset());
+                    write(out, writer.toByteBuffer());
+                }
+                out.force(false);
+            }
+            channel.close();
+            Files.move(tmp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            journalRecords = byId.size();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (journal != null) {
+            synchronized (writer) {
+                channel.close();
+            }
+        }
+    }
+
+    private void update(String id, String number, String state, Double amount, String lastPayment) {
+        if (id == null || id.isEmpty()) {
+            return;
+        }
+        byId.compute(id, (key, previous) -> {
+            InvoiceState next = new InvoiceState(id,
+                    number != null || previous == null ? number : previous.number,
+                    state != null || previous == null ? StringInterner.shared().intern(state) : previous.state,
+                    amount != null || previous == null ? amount : previous.amount,
+                    lastPayment != null || previous == null ? lastPayment : previous.lastPayment);
+            if (next.equals(previous)) {
+                return previous;
+            }
+            if (previous != null && previous.number != null && !previous.number.equals(next.number)) {
+                idByNumber.remove(previous.number, id);
+            }
+            if (next.number != null && !next.number.isEmpty()) {
+                idByNumber.put(next.number, id);
+            }
+            // appended while holding the entry so the journal has the changes of an invoice in order
+            append(next);
+            return next;
+        });
+        maybeCompact();
+    }
+
+    private void append(InvoiceState state) {
+        if (journal == null) {
+            return;
+        }
+        synchronized (writer) {
+            state.writeSnapshot(writer.reset());
+            try {
+                write(channel, writer.toByteBuffer());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            journalRecords++;
+        }
+    }
+
+    private void maybeCompact() {
+        if (journal == null) {
+            return;
+        }
+        synchronized (writer) {
+            if (journalRecords < MIN_COMPACTION || journalRecords <= 2L * byId.size()) {
+                return;
+            }
+            try {
+                compact();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void restore() throws IOException {
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(journal));
+        SnapshotReader reader = new SnapshotReader(content);
+        int complete = 0;
+        while (reader.hasRemaining()) {
+            try {
+                InvoiceState state = InvoiceState.fromSnapshot(reader);
+                boolean removed = state.number == null && state.state == null && state.amount == null && state.lastPayment == null;
+                InvoiceState previous = removed ? byId.remove(state.id) : byId.put(state.id, state);
+                if (previous != null && previous.number != null) {
+                    idByNumber.remove(previous.number, state.id);
+                }
+                if (!removed && state.number != null && !state.number.isEmpty()) {
+                    idByNumber.put(state.number, state.id);
+                }
+                complete = content.position();
+                journalRecords++;
+            } catch (RuntimeException e) {
+                // torn write of the last record, eg. after a crash
+                break;
+            }
+        }
+        channel.truncate(complete);
+        channel.position(complete);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.twikey.cache;
+
+import com.twikey.TwikeyClient;
+import com.twikey.modal.DocumentResponse;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Bounded read-through cache in front of {@link com.twikey.DocumentGateway#fetch}.
+ * <p>
+ * Mandates rarely change and the mandate feed reports every change, so once configured on the client every
+ * new, updated or cancelled mandate coming through {@link com.twikey.DocumentGateway#feed} drops the cached copy,
+ * as do the updates and cancellations done through the gateway itself. The time to live bounds how stale an entry
+ * can get when the feed is not read.
+ * <p>
+ * Entries are evicted least recently used first once the total weight exceeds the maximum, by default every
+ * mandate weighs 1 so the maximum is a number of mandates. A fetch that was in flight while that same mandate got
+ * invalidated is returned but not cached, as it may predate the change.
+ *
+ * <pre>
+ * TwikeyClient api = new TwikeyClient(apiKey)
+ *         .withMandateCache(new MandateCache(10_000, Duration.ofMinutes(15)));
+ * </pre>
+ */
+public class MandateCache {
+
+    /**
+     * Fetches the mandate when it is not cached
+     */
+    @FunctionalInterface
+    public interface Loader {
+        DocumentResponse.Document load() throws Exception, TwikeyClient.UserException;
+    }
+
+    private record Entry(DocumentResponse.Document document, long weight, long expiresAt) {
+    }
+
+    private final long maxWeight;
+    private final ToLongFunction<DocumentResponse.Document> weigher;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // the latest load of every mandate being fetched, dropped by an invalidation so a load that raced with it is not stored
+    private final Map<String, Object> loading = new HashMap<>();
+
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxEntries number of mandates kept
+     * @param ttl        time after which a cached mandate is fetched again
+     */
+    public MandateCache(int maxEntries, Duration ttl) {
+        this(maxEntries, document -> 1, ttl, Clock.systemUTC());
+    }
+
+    /**
+     * @param maxWeight maximum total weight of the cached mandates
+     * @param weigher   weight of a single mandate, eg. an estimate of its size in bytes
+     * @param ttl       time after which a cached mandate is fetched again
+     * @param clock     source of time for expiring entries
+     */
+    public MandateCache(long maxWeight, ToLongFunction<DocumentResponse.Document> weigher, Duration ttl, Clock clock) {
+        if (maxWeight <= 0 || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("maxWeight and ttl must be positive");
+        }
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * @return the cached mandate or else the one returned by the loader, which is then cached
+     */
+    public DocumentResponse.Document get(String mandateNumber, Loader loader) throws Exception, TwikeyClient.UserException {
+        Object load = new Object();
+        synchronized (this) {
+            DocumentResponse.Document cached = lookup(mandateNumber);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+            loading.put(mandateNumber, load);
+        }
+        DocumentResponse.Document document = null;
+        try {
+            document = loader.load();
+            return document;
+        } finally {
+            synchronized (this) {
+                if (loading.remove(mandateNumber, load) && document != null) {
+                    store(mandateNumber, document);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the cached mandate, null when not cached or expired
+     */
+    public synchronized DocumentResponse.Document getIfPresent(String mandateNumber) {
+        return lookup(mandateNumber);
+    }
+
+    public synchronized void put(String mandateNumber, DocumentResponse.Document document) {
+        store(mandateNumber, document);
+    }
+
+    public synchronized void invalidate(String mandateNumber) {
+        loading.remove(mandateNumber);
+        Entry removed = entries.remove(mandateNumber);
+        if (removed != null) {
+            weight -= removed.weight;
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        loading.clear();
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    private DocumentResponse.Document lookup(String mandateNumber) {
+        Entry entry = entries.get(mandateNumber);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= clock.millis()) {
+            entries.remove(mandateNumber);
+            weight -= entry.weight;
+            return null;
+        }
+        return entry.document;
+    }
+
+    private void store(String mandateNumber, DocumentResponse.Document document) {
+        long entryWeight = weigher.applyAsLong(document);
+        Entry previous = entries.put(mandateNumber, new Entry(document, entryWeight, clock.millis() + ttlMillis));
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += entryWeight;
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            weight -= evicted.weight;
+            evictions++;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.twikey.cache;
+
+import com.twikey.callback.DocumentCallback;
+import com.twikey.modal.DocumentRequests;
+import com.twikey.modal.DocumentResponse;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Local index of the active mandates answering {@link DocumentRequests.MandateQuery} without calling Twikey.
+ * <p>
+ * The index is bootstrapped once (eg. from the mandates kept in a database) using {@link #putAll(Iterable)} and
+ * then follows the mandate feed: once configured on the client every new or updated mandate of
+ * {@link com.twikey.DocumentGateway#feed} is (re)indexed and every cancelled one removed. It can also be used as
+ * {@link DocumentCallback} directly.
+ * <p>
+ * Mandates are looked up by iban (without spaces and in upper case), email (in lower case) and customer number,
+ * a query combining several of these returns the mandates matching all of them. Mandates that come from the feed
+ * have no state, so a query that filters on a state only matches those fetched or bootstrapped with one.
+ *
+ * <pre>
+ * MandateIndex index = new MandateIndex();
+ * index.putAll(mandatesFromDatabase);
+ * TwikeyClient api = new TwikeyClient(apiKey).withMandateIndex(index);
+ * api.document().query(MandateQuery.fromEmail(email)); // local, calls Twikey only when nothing matches
+ * </pre>
+ */
+public class MandateIndex implements DocumentCallback {
+
+    private final Map<String, DocumentResponse.Document> byMandateNumber = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byIban = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byEmail = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byCustomerNumber = new ConcurrentHashMap<>();
+    private final boolean fallback;
+
+    public MandateIndex() {
+        this(true);
+    }
+
+    /**
+     * @param fallback whether {@link com.twikey.DocumentGateway#query} asks Twikey when nothing matches locally
+     */
+    public MandateIndex(boolean fallback) {
+        this.fallback = fallback;
+    }
+
+    public boolean isFallback() {
+        return fallback;
+    }
+
+    /**
+     * Index or replace a mandate
+     */
+    public void put(DocumentResponse.Document document) {
+        byMandateNumber.compute(document.getMandateNumber(), (mandateNumber, previous) -> {
+            if (previous != null) {
+                unindex(previous);
+            }
+            index(byIban, normalizeIban(document.getIban()), mandateNumber);
+            index(byEmail, normalizeEmail(document.getDebtorEmail()), mandateNumber);
+            index(byCustomerNumber, normalizeCustomerNumber(document.getCustomerNumber()), mandateNumber);
+            return document;
+        });
+    }
+
+    public void putAll(Iterable<? extends DocumentResponse.Document> documents) {
+        for (DocumentResponse.Document document : documents) {
+            put(document);
+        }
+    }
+
+    public void remove(String mandateNumber) {
+        byMandateNumber.computeIfPresent(mandateNumber, (key, previous) -> {
+            unindex(previous);
+            return null;
+        });
+    }
+
+    public DocumentResponse.Document get(String mandateNumber) {
+        return byMandateNumber.get(mandateNumber);
+    }
+
+    public int size() {
+        return byMandateNumber.size();
+    }
+
+    /**
+     * @return the indexed mandates matching the query, empty when the query has no iban, email or customer number
+     */
+    public List<DocumentResponse.Document> query(DocumentRequests.MandateQuery query) {
+        Set<String> candidates = null;
+        candidates = narrow(candidates, byIban, normalizeIban(query.getIban()));
+        candidates = narrow(candidates, byEmail, normalizeEmail(query.getEmail()));
+        candidates = narrow(candidates, byCustomerNumber, normalizeCustomerNumber(query.getCustomerNumber()));
+        if (candidates == null || candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<DocumentResponse.Document> result = new ArrayList<>(candidates.size());
+        for (String mandateNumber : candidates) {
+            DocumentResponse.Document document = byMandateNumber.get(mandateNumber);
+            // the mandate may have changed since the key lookup
+            if (document != null && matches(document, query)) {
+                result.add(document);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void newDocument(DocumentResponse.Document newDocument, String evt_time) {
+        put(newDocument);
+    }
+
+    @Override
+    public void updatedDocument(DocumentResponse.Document updatedDocument, String updatedDocumentId, String reason, String author, String evt_time) {
+        if (!updatedDocumentId.equals(updatedDocument.getMandateNumber())) {
+            remove(updatedDocumentId);
+        }
+        put(updatedDocument);
+    }
+
+    @Override
+    public void cancelledDocument(String cancelledDocumentNumber, String reason, String author, String evt_time) {
+        remove(cancelledDocumentNumber);
+    }
+
+    /**
+     * Applies an entry of the mandate feed, without requiring the reason and author the callbacks are given
+     */
+    @Override
+    public void message(JSONObject message) {
+        MandateMessages.apply(message, this::put, this::remove);
+    }
+
+    public static String normalizeIban(String iban) {
+        if (iban == null) {
+            return null;
+        }
+        StringBuilder normalized = new StringBuilder(iban.length());
+        for (int i = 0; i < iban.length(); i++) {
+            char c = iban.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toUpperCase(c));
+            }
+        }
+        return normalized.isEmpty() ? null : normalized.toString();
+    }
+
+    public static String normalizeEmail(String email) {
+        return normalizeCustomerNumber(email != null ? email.toLowerCase(Locale.ROOT) : null);
+    }
+
+    private static String normalizeCustomerNumber(String customerNumber) {
+        if (customerNumber == null) {
+            return null;
+        }
+        String trimmed = customerNumber.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+
+    private static boolean matches(DocumentResponse.Document document, DocumentRequests.MandateQuery query) {
+        return matches(query.getIban(), document.getIban(), MandateIndex::normalizeIban)
+                && matches(query.getEmail(), document.getDebtorEmail(), MandateIndex::normalizeEmail)
+                && matches(query.getCustomerNumber(), document.getCustomerNumber(), MandateIndex::normalizeCustomerNumber)
+                && (query.getState() == null || query.getState().equalsIgnoreCase(document.getState()));
+    }
+
+    private static boolean matches(String expected, String actual, Function<String, String> normalizer) {
+        String key = normalizer.apply(expected);
+        return key == null || key.equals(normalizer.apply(actual));
+    }
+
+    private static Set<String> narrow(Set<String> candidates, Map<String, Set<String>> index, String key) {
+        if (key == null) {
+            return candidates;
+        }
+        Set<String> matching = index.getOrDefault(key, Collections.emptySet());
+        if (candidates == null) {
+            return matching;
+        }
+        Set<String> both = ConcurrentHashMap.newKeySet();
+        for (String mandateNumber : candidates) {
+            if (matching.contains(mandateNumber)) {
+                both.add(mandateNumber);
+            }
+        }
+        return both;
+    }
+
+    private void index(Map<String, Set<String>> index, String key, String mandateNumber) {
+        if (key != null) {
+            index.compute(key, (k, mandates) -> {
+                Set<String> set = mandates != null ? mandates : ConcurrentHashMap.newKeySet();
+                set.add(mandateNumber);
+                return set;
+            });
+        }
+    }
+
+    private void unindex(DocumentResponse.Document document) {
+        unindex(byIban, normalizeIban(document.getIban()), document.getMandateNumber());
+        unindex(byEmail, normalizeEmail(document.getDebtorEmail()), document.getMandateNumber());
+        unindex(byCustomerNumber, normalizeCustomerNumber(document.getCustomerNumber()), document.getMandateNumber());
+    }
+
+    private static void unindex(Map<String, Set<String>> index, String key, String mandateNumber) {
+        if (key != null) {
+            index.computeIfPresent(key, (k, mandates) -> {
+                mandates.remove(mandateNumber);
+                return mandates.isEmpty() ? null : mandates;
+            });
+        }
+    }
+}
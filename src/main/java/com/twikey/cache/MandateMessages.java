@@ -0,0 +1,40 @@
+package com.twikey.cache;
+
+import com.twikey.feed.FeedType;
+import com.twikey.modal.DocumentResponse;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.function.Consumer;
+
+/**
+ * Applies the entries of the mandate feed to a local copy of the mandates, without requiring the reason and
+ * author {@link com.twikey.callback.DocumentCallback} is given
+ */
+final class MandateMessages {
+
+    private MandateMessages() {
+    }
+
+    static void apply(JSONObject message, Consumer<DocumentResponse.Document> put, Consumer<String> remove) {
+        String mandateNumber = FeedType.MANDATE.idOf(message);
+        if (message.has("CxlRsn")) {
+            if (mandateNumber != null) {
+                remove.accept(mandateNumber);
+            }
+            return;
+        }
+        try {
+            DocumentResponse.Document document = DocumentResponse.Document.fromJson(message, null);
+            if (mandateNumber != null && !mandateNumber.equals(document.getMandateNumber())) {
+                remove.accept(mandateNumber);
+            }
+            put.accept(document);
+        } catch (JSONException e) {
+            // better to ask Twikey than to answer with the previous version
+            if (mandateNumber != null) {
+                remove.accept(mandateNumber);
+            }
+        }
+    }
+}
@@ -0,0 +1,562 @@
+package com.twikey.cache;
+
+import com.twikey.callback.DocumentCallback;
+import com.twikey.codec.SnapshotReader;
+import com.twikey.codec.SnapshotWriter;
+import com.twikey.modal.DocumentResponse;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Local copy of millions of mandates held in memory mapped files instead of on the heap.
+ * <p>
+ * The mandates are appended in their snapshot form ({@link DocumentResponse.Document#writeSnapshot}) to a data file
+ * that is mapped in segments, an open addressing hash table in a second mapped file points from the mandate number
+ * to the latest version. Only the entry that is read is decoded into a {@link DocumentResponse.Document}, so the
+ * heap holds no more than what the caller is working with and the operating system pages the rest in and out.
+ * <p>
+ * The data file doubles as log: a cancelled mandate is recorded as removal and the table can always be rebuilt
+ * from it, which happens when the process died while the table was being resized. Records appended after the
+ * last update of the table (eg. when the process was killed) are replayed on open. Replaced versions stay in the
+ * data file until {@link #compact()} rewrites it with only the current mandates. The data file starts with the
+ * segment size it was written with, so it is read back the same whatever size a later process asks for.
+ * <p>
+ * The store is filled through {@link #put}, or follows the mandate feed as {@link DocumentCallback}. Once
+ * configured on the client the mandates of {@link com.twikey.DocumentGateway#fetch} and the feed are stored.
+ *
+ * <pre>
+ * try (MappedMandateStore mandates = new MappedMandateStore(Path.of("/var/lib/twikey/mandates"))) {
+ *     TwikeyClient api = new TwikeyClient(apiKey).withMandateStore(mandates);
+ *     api.document().feed(callback);
+ *     mandates.get("CORE123").getIban();
+ * }
+ * </pre>
+ */
+public class MappedMandateStore implements DocumentCallback, Closeable {
+
+    private static final int MAGIC = 0x54574D53;
+    private static final int DEFAULT_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    // data file: magic, segment size, then the segments
+    private static final int DATA_HEADER = 16;
+
+    // index file: magic, capacity, count, tombstones, end of data, resizing (rebuild from the data on open)
+    private static final int HEADER = 32;
+    private static final int CAPACITY = 4;
+    private static final int COUNT = 8;
+    private static final int TOMBSTONES = 12;
+    private static final int DATA_END = 16;
+    private static final int RESIZING = 24;
+
+    // slot: hash of the mandate number, offset of the record + 1 (0 for empty, -1 for removed)
+    private static final int SLOT = 12;
+    private static final long EMPTY = 0;
+    private static final long REMOVED = -1;
+    private static final double MAX_LOAD = 0.7;
+
+    private final int segmentSize;
+    private final Path data;
+    private final FileChannel indexChannel;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final SnapshotWriter writer = new SnapshotWriter();
+
+    private FileChannel dataChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+    private int tombstones;
+    private long dataEnd;
+
+    public MappedMandateStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, 1 << 16);
+    }
+
+    /**
+     * @param directory         holds mandates.dat and mandates.idx, created if missing
+     * @param segmentSize       size of the parts the data file is mapped in, an existing store keeps the size it was
+     *                          created with
+     * @param expectedMandates  used to size the table of a new store, avoiding resizes while it is filled
+     * @throws IOException when mandates.dat is not the data file of a store
+     */
+    public MappedMandateStore(Path directory, int segmentSize, int expectedMandates) throws IOException {
+        Files.createDirectories(directory);
+        this.data = directory.resolve("mandates.dat");
+        this.dataChannel = FileChannel.open(data, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexChannel = FileChannel.open(directory.resolve("mandates.idx"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.segmentSize = segmentSize(dataChannel, segmentSize);
+        if (indexChannel.size() >= HEADER) {
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+        }
+        open(expectedMandates);
+    }
+
+    /**
+     * @return the latest version of the mandate, null when it is not stored or was cancelled
+     */
+    public DocumentResponse.Document get(String mandateNumber) {
+        lock.readLock().lock();
+        try {
+            int slot = find(mandateNumber, hash(mandateNumber));
+            return slot < 0 ? null : DocumentResponse.Document.fromSnapshot(new SnapshotReader(record(index.getLong(slotOffset(slot) + 4) - 1)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String mandateNumber) {
+        lock.readLock().lock();
+        try {
+            return find(mandateNumber, hash(mandateNumber)) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores or replaces a mandate
+     */
+    public void put(DocumentResponse.Document document) {
+        lock.writeLock().lock();
+        try {
+            document.writeSnapshot(writer.reset());
+            long offset = append(writer.toByteBuffer(), false);
+            indexPut(document.getMandateNumber(), offset);
+            index.putLong(DATA_END, dataEnd);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String mandateNumber) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(mandateNumber, hash(mandateNumber));
+            if (slot >= 0) {
+                writer.reset().header(SnapshotWriter.DOCUMENT).string(mandateNumber);
+                append(writer.toByteBuffer(), true);
+                indexRemove(slot);
+                index.putLong(DATA_END, dataEnd);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void newDocument(DocumentResponse.Document newDocument, String evt_time) {
+        put(newDocument);
+    }
+
+    @Override
+    public void updatedDocument(DocumentResponse.Document updatedDocument, String updatedDocumentId, String reason, String author, String evt_time) {
+        if (!updatedDocumentId.equals(updatedDocument.getMandateNumber())) {
+            remove(updatedDocumentId);
+        }
+        put(updatedDocument);
+    }
+
+    @Override
+    public void cancelledDocument(String cancelledDocumentNumber, String reason, String author, String evt_time) {
+        remove(cancelledDocumentNumber);
+    }
+
+    /**
+     * Applies an entry of the mandate feed, without requiring the reason and author the callbacks are given
+     */
+    @Override
+    public void message(JSONObject message) {
+        MandateMessages.apply(message, this::put, this::remove);
+    }
+
+    /**
+     * Rewrites the data file with only the current version of every mandate and rebuilds the table from it.
+     * An interrupted compaction leaves either the old or the new data file, the table is rebuilt on open.
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            Path tmp = data.resolveSibling(data.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(out, ByteBuffer.allocate(DATA_HEADER).putInt(0, MAGIC).putInt(4, segmentSize), 0);
+                ByteBuffer length = ByteBuffer.allocate(4);
+                long end = 0;
+                for (int slot = 0; slot < capacity; slot++) {
+                    long offset = index.getLong(slotOffset(slot) + 4);
+                    if (offset == EMPTY || offset == REMOVED) {
+                        continue;
+                    }
+                    ByteBuffer record = record(offset - 1);
+                    int size = record.remaining();
+                    int position = (int) (end % segmentSize);
+                    if (position + 4 + size > segmentSize) {
+                        end += segmentSize - position;
+                    }
+                    write(out, length.clear().putInt(0, size), DATA_HEADER + end);
+                    write(out, record, DATA_HEADER + end + 4);
+                    end += 4 + size;
+                }
+                out.force(false);
+            }
+            index.putInt(RESIZING, 1);
+            index.force();
+            segments.clear();
+            dataChannel.close();
+            Files.move(tmp, data, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dataChannel = FileChannel.open(data, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            newTable(count);
+            load();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the changes to disk, without it they are only guaranteed to survive the process and not the machine
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            index.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        dataChannel.close();
+        indexChannel.close();
+    }
+
+    private void open(int expectedMandates) throws IOException {
+        if (index != null && index.getInt(0) == MAGIC && index.getInt(RESIZING) == 0) {
+            capacity = index.getInt(CAPACITY);
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * SLOT);
+            count = index.getInt(COUNT);
+            tombstones = index.getInt(TOMBSTONES);
+            dataEnd = index.getLong(DATA_END);
+        } else {
+            newTable(expectedMandates);
+        }
+        load();
+    }
+
+    /**
+     * Empties the table, it is filled again by replaying the data
+     */
+    private void newTable(int expectedMandates) throws IOException {
+        capacity = tableSize(expectedMandates);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * SLOT);
+        clearSlots(index, 0, HEADER + (long) capacity * SLOT);
+        index.putInt(0, MAGIC);
+        index.putInt(CAPACITY, capacity);
+        count = tombstones = 0;
+        dataEnd = 0;
+    }
+
+    private void load() {
+        // mapped upfront so reads never have to
+        for (int segment = 0, segments = segmentCount(); segment < segments; segment++) {
+            segment(segment);
+        }
+        replay();
+        writeHeader();
+    }
+
+    /**
+     * Applies the records appended after the last update of the table
+     */
+    private void replay() {
+        while (true) {
+            int segment = (int) (dataEnd / segmentSize);
+            int position = (int) (dataEnd % segmentSize);
+            if (segment >= segmentCount()) {
+                return;
+            }
+            MappedByteBuffer buffer = segment(segment);
+            int length = position + 4 <= segmentSize ? buffer.getInt(position) : 0;
+            if (length == 0) {
+                // either the end of the data or a record that did not fit the rest of the segment
+                if (position == 0 || segment + 1 >= segmentCount() || segment(segment + 1).getInt(0) == 0) {
+                    return;
+                }
+                dataEnd = (long) (segment + 1) * segmentSize;
+                continue;
+            }
+            int size = Math.abs(length);
+            if (length == Integer.MIN_VALUE || position + 4 + size > segmentSize) {
+                truncate(buffer, position, segmentSize - position);
+                return;
+            }
+            try {
+                SnapshotReader reader = new SnapshotReader(buffer.slice(position + 4, size));
+                reader.header(SnapshotWriter.DOCUMENT);
+                String mandateNumber = reader.string();
+                if (length > 0) {
+                    indexPut(mandateNumber, dataEnd);
+                } else {
+                    int slot = find(mandateNumber, hash(mandateNumber));
+                    if (slot >= 0) {
+                        indexRemove(slot);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // torn write of the last record
+                truncate(buffer, position, 4 + size);
+                return;
+            }
+            dataEnd += 4 + size;
+        }
+    }
+
+    private int segmentCount() {
+        try {
+            return (int) ((dataChannel.size() - DATA_HEADER + segmentSize - 1) / segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void truncate(MappedByteBuffer buffer, int position, int length) {
+        for (int i = 0; i < length; i++) {
+            buffer.put(position + i, (byte) 0);
+        }
+    }
+
+    /**
+     * @param removal whether the record marks the removal of the mandate, stored as negative length
+     * @return offset of the record in the data file
+     */
+    private long append(ByteBuffer record, boolean removal) {
+        int length = record.remaining();
+        if (length + 4 > segmentSize) {
+            throw new IllegalArgumentException("Mandate of " + length + " bytes does not fit a segment");
+        }
+        int position = (int) (dataEnd % segmentSize);
+        if (position + 4 + length > segmentSize) {
+            dataEnd += segmentSize - position;
+            position = 0;
+        }
+        MappedByteBuffer buffer = segment((int) (dataEnd / segmentSize));
+        buffer.put(position + 4, record, record.position(), length);
+        // length last, a record is only seen once it is complete
+        buffer.putInt(position, removal ? -length : length);
+        long offset = dataEnd;
+        dataEnd += 4 + length;
+        return offset;
+    }
+
+    private ByteBuffer record(long offset) {
+        MappedByteBuffer buffer = segment((int) (offset / segmentSize));
+        int position = (int) (offset % segmentSize);
+        return buffer.slice(position + 4, buffer.getInt(position));
+    }
+
+    private MappedByteBuffer segment(int segment) {
+        while (segments.size() <= segment) {
+            try {
+                segments.add(dataChannel.map(FileChannel.MapMode.READ_WRITE, DATA_HEADER + (long) segments.size() * segmentSize, segmentSize));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return segments.get(segment);
+    }
+
+    private String keyAt(long offset) {
+        SnapshotReader reader = new SnapshotReader(record(offset));
+        reader.header(SnapshotWriter.DOCUMENT);
+        return reader.string();
+    }
+
+    /**
+     * @return the slot of the mandate, -1 when not stored
+     */
+    private int find(String mandateNumber, int hash) {
+        int mask = capacity - 1;
+        for (int slot = hash & mask; ; slot = slot + 1 & mask) {
+            int position = slotOffset(slot);
+            long offset = index.getLong(position + 4);
+            if (offset == EMPTY) {
+                return -1;
+            }
+            if (offset != REMOVED && index.getInt(position) == hash && mandateNumber.equals(keyAt(offset - 1))) {
+                return slot;
+            }
+        }
+    }
+
+    private void indexPut(String mandateNumber, long recordOffset) {
+        if (count + tombstones + 1 > capacity * MAX_LOAD) {
+            resize();
+        }
+        int hash = hash(mandateNumber);
+        int mask = capacity - 1;
+        int free = -1;
+        for (int slot = hash & mask; ; slot = slot + 1 & mask) {
+            int position = slotOffset(slot);
+            long offset = index.getLong(position + 4);
+            if (offset == EMPTY) {
+                if (free < 0) {
+                    free = slot;
+                } else {
+                    tombstones--;
+                }
+                count++;
+                break;
+            }
+            if (offset == REMOVED) {
+                if (free < 0) {
+                    free = slot;
+                }
+            } else if (index.getInt(position) == hash && mandateNumber.equals(keyAt(offset - 1))) {
+                free = slot;
+                break;
+            }
+        }
+        int position = slotOffset(free);
+        index.putInt(position, hash);
+        index.putLong(position + 4, recordOffset + 1);
+        index.putInt(COUNT, count);
+        index.putInt(TOMBSTONES, tombstones);
+    }
+
+    private void indexRemove(int slot) {
+        index.putLong(slotOffset(slot) + 4, REMOVED);
+        count--;
+        tombstones++;
+        index.putInt(COUNT, count);
+        index.putInt(TOMBSTONES, tombstones);
+    }
+
+    /**
+     * Grows the table in place, or only drops the tombstones when they are what fills it. Marked as resizing so an
+     * interrupted resize is redone from the data on open
+     */
+    private void resize() {
+        int[] hashes = new int[count];
+        long[] offsets = new long[count];
+        int live = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int position = slotOffset(slot);
+            long offset = index.getLong(position + 4);
+            if (offset != EMPTY && offset != REMOVED) {
+                hashes[live] = index.getInt(position);
+                offsets[live++] = offset;
+            }
+        }
+        index.putInt(RESIZING, 1);
+        int newCapacity = live + 1 <= capacity * MAX_LOAD / 2 ? capacity : tableSize(Math.max(live + 1, capacity));
+        try {
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) newCapacity * SLOT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // the file may still hold slots of a larger table from before a compaction
+        clearSlots(index, HEADER, (long) newCapacity * SLOT);
+        capacity = newCapacity;
+        int mask = capacity - 1;
+        for (int i = 0; i < live; i++) {
+            int slot = hashes[i] & mask;
+            while (index.getLong(slotOffset(slot) + 4) != EMPTY) {
+                slot = slot + 1 & mask;
+            }
+            index.putInt(slotOffset(slot), hashes[i]);
+            index.putLong(slotOffset(slot) + 4, offsets[i]);
+        }
+        tombstones = 0;
+        writeHeader();
+        index.putInt(RESIZING, 0);
+    }
+
+    private void writeHeader() {
+        index.putInt(CAPACITY, capacity);
+        index.putInt(COUNT, count);
+        index.putInt(TOMBSTONES, tombstones);
+        index.putLong(DATA_END, dataEnd);
+    }
+
+    /**
+     * @return the segment size of the data file, written to a new one
+     */
+    private static int segmentSize(FileChannel channel, int segmentSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+        if (channel.size() < DATA_HEADER) {
+            // new store, or one that died before its header was written
+            write(channel, header.putInt(0, MAGIC).putInt(4, segmentSize), 0);
+            return segmentSize;
+        }
+        while (header.hasRemaining()) {
+            channel.read(header, header.position());
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) <= 0) {
+            throw new IOException("Not a mandate store");
+        }
+        return header.getInt(4);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER + slot * SLOT;
+    }
+
+    /**
+     * @return power of 2 keeping the load below the maximum
+     */
+    private static int tableSize(int mandates) {
+        long needed = (long) Math.ceil(Math.max(16, mandates) / MAX_LOAD);
+        long size = Long.highestOneBit(needed);
+        if (size < needed) {
+            size <<= 1;
+        }
+        if (HEADER + size * SLOT > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many mandates for a single table");
+        }
+        return (int) size;
+    }
+
+    private static void clearSlots(MappedByteBuffer buffer, int from, long length) {
+        for (long i = 0; i < length; i += 4) {
+            buffer.putInt((int) (from + i), 0);
+        }
+    }
+
+    private static int hash(String mandateNumber) {
+        int hash = mandateNumber.hashCode();
+        hash ^= hash >>> 16;
+        return hash != 0 ? hash : 1;
+    }
+}
@@ -0,0 +1,125 @@
+package com.twikey.cache;
+
+import com.twikey.TwikeyClient;
+import com.twikey.feed.FeedType;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Remembers for a short while which mandates and invoices Twikey reported as not found, so repeated lookups of an
+ * unknown reference (eg. from fraud checks or webhooks) fail without calling Twikey again.
+ * <p>
+ * Once configured on the client {@link com.twikey.DocumentGateway#fetch} and {@link com.twikey.InvoiceGateway#details}
+ * throw the remembered {@link TwikeyClient.UserException} for a reference that was not found before. A mandate or
+ * invoice created through the gateways or appearing in the feed is forgotten right away, otherwise the time to live
+ * bounds how long a new reference can be reported missing.
+ *
+ * <pre>
+ * TwikeyClient api = new TwikeyClient(apiKey)
+ *         .withNegativeCache(new NegativeCache(10_000, Duration.ofSeconds(30)));
+ * </pre>
+ */
+public class NegativeCache {
+
+    private record Key(FeedType type, String reference) {
+    }
+
+    private record Miss(String apiError, long expiresAt) {
+    }
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final LinkedHashMap<Key, Miss> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits;
+
+    /**
+     * @param maxEntries number of missing references kept
+     * @param ttl        time after which a missing reference is looked up again
+     */
+    public NegativeCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, Clock.systemUTC());
+    }
+
+    /**
+     * @param clock source of time for expiring entries
+     */
+    public NegativeCache(int maxEntries, Duration ttl, Clock clock) {
+        if (maxEntries <= 0 || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("maxEntries and ttl must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * @return whether a failed lookup means the reference does not exist (rather than eg. an invalid request)
+     */
+    public static boolean isNotFound(int statusCode, String apiError) {
+        return statusCode == 404 || apiError != null && (apiError.contains("not_found") || apiError.contains("no_such"));
+    }
+
+    /**
+     * @throws TwikeyClient.UserException with the error Twikey returned when the reference was recently not found
+     */
+    public void check(FeedType type, String reference) throws TwikeyClient.UserException {
+        Miss miss;
+        synchronized (this) {
+            Key key = new Key(type, reference);
+            miss = entries.get(key);
+            if (miss == null) {
+                return;
+            }
+            if (miss.expiresAt <= clock.millis()) {
+                entries.remove(key);
+                return;
+            }
+            hits++;
+        }
+        throw new TwikeyClient.UserException(miss.apiError);
+    }
+
+    /**
+     * Remembers that Twikey did not find the reference
+     */
+    public synchronized void missing(FeedType type, String reference, String apiError) {
+        if (reference == null) {
+            return;
+        }
+        entries.put(new Key(type, reference), new Miss(apiError, clock.millis() + ttlMillis));
+        Iterator<Miss> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Forgets a reference that was created in the meantime
+     */
+    public synchronized void invalidate(FeedType type, String reference) {
+        if (reference != null) {
+            entries.remove(new Key(type, reference));
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of lookups answered without calling Twikey
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+}
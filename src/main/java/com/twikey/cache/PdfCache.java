@@ -0,0 +1,289 @@
+package com.twikey.cache;
+
+import com.twikey.modal.DocumentResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Disk cache of mandate pdfs, so a signed mandate is downloaded only once.
+ * <p>
+ * The content is stored once per sha-256 hash (<code>blobs/&lt;hash&gt;.pdf</code>) and every mandate refers to
+ * the content it was cached with (<code>refs/&lt;mandate number&gt;</code>), both written to a temporary file first
+ * and moved in place so a crash never leaves a partial pdf behind. Mandates are evicted least recently used first
+ * once the content exceeds <code>maxBytes</code>, content no longer referred to is removed.
+ * <p>
+ * Once configured on the client {@link com.twikey.DocumentGateway#retrievePdf} and its variants are served from the
+ * cache (the stream variant as a {@link FileChannel#transferTo} straight from the file), the pdfs uploaded from a
+ * file or supplier are cached and every entry of a mandate in the feed evicts its pdf.
+ *
+ * <pre>
+ * TwikeyClient api = new TwikeyClient(apiKey)
+ *         .withPdfCache(new PdfCache(Path.of("/var/cache/twikey/pdf"), 10L * 1024 * 1024 * 1024));
+ * </pre>
+ */
+public class PdfCache {
+
+    /**
+     * @param hash     sha-256 of the content, in hex
+     * @param filename name of the pdf as provided by Twikey (or uploaded)
+     * @param size     number of bytes of the content
+     */
+    public record Entry(String hash, String filename, long size) {
+    }
+
+    private final Path blobs;
+    private final Path refs;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Integer> references = new HashMap<>();
+
+    private long bytes;
+
+    /**
+     * Opens the cache in the directory, removing what a crash may have left behind
+     *
+     * @param maxBytes maximum total size of the cached pdfs
+     */
+    public PdfCache(Path directory, long maxBytes) throws IOException {
+        this.blobs = Files.createDirectories(directory.resolve("blobs"));
+        this.refs = Files.createDirectories(directory.resolve("refs"));
+        this.maxBytes = maxBytes;
+        load();
+    }
+
+    public synchronized Entry getEntry(String mandateNumber) {
+        return entries.get(mandateNumber);
+    }
+
+    public synchronized boolean contains(String mandateNumber) {
+        return entries.containsKey(mandateNumber);
+    }
+
+    /**
+     * @return the cached pdf, null when not cached
+     */
+    public DocumentResponse.PdfResponse get(String mandateNumber) throws IOException {
+        Entry entry = getEntry(mandateNumber);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return new DocumentResponse.PdfResponse(Files.readAllBytes(blob(entry.hash)), entry.filename);
+        } catch (NoSuchFileException e) {
+            // evicted in the meantime
+            return null;
+        }
+    }
+
+    /**
+     * Copies the cached pdf to the target without passing it through the heap (eg. straight to a socket or file)
+     *
+     * @return the entry that was copied, null when not cached
+     */
+    public Entry transferTo(String mandateNumber, WritableByteChannel target) throws IOException {
+        Entry entry = getEntry(mandateNumber);
+        if (entry == null) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(blob(entry.hash), StandardOpenOption.READ)) {
+            long position = 0;
+            long size = channel.size();
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return entry;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    public Entry put(String mandateNumber, String filename, byte[] content) throws IOException {
+        try (InputStream in = new ByteArrayInputStream(content)) {
+            return put(mandateNumber, filename, in);
+        }
+    }
+
+    /**
+     * Caches the content read from the stream (which is not closed) for the mandate
+     */
+    public Entry put(String mandateNumber, String filename, InputStream content) throws IOException {
+        return put(mandateNumber, filename, content, null);
+    }
+
+    /**
+     * Caches the content read from the stream (which is not closed) for the mandate, writing it to the copy as it
+     * is read so a download can be cached and passed on at once
+     */
+    public Entry put(String mandateNumber, String filename, InputStream content, OutputStream copy) throws IOException {
+        Path tmp = Files.createTempFile(blobs, "pdf", ".tmp");
+        try {
+            MessageDigest sha256 = sha256();
+            long size = 0;
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(tmp), sha256)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    if (copy != null) {
+                        copy.write(buffer, 0, read);
+                    }
+                    size += read;
+                }
+            }
+            String hash = HexFormat.of().formatHex(sha256.digest());
+            Entry entry = new Entry(hash, filename != null ? filename : "mandate.pdf", size);
+            synchronized (this) {
+                Path blob = blob(hash);
+                if (!Files.exists(blob)) {
+                    moveInPlace(tmp, blob);
+                }
+                Path ref = Files.createTempFile(refs, "ref", ".tmp");
+                Files.writeString(ref, hash + "\n" + entry.filename + "\n" + size + "\n");
+                moveInPlace(ref, refs.resolve(refName(mandateNumber)));
+                remember(mandateNumber, entry);
+                evict();
+            }
+            return entry;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public synchronized void invalidate(String mandateNumber) throws IOException {
+        if (entries.containsKey(mandateNumber)) {
+            Files.deleteIfExists(refs.resolve(refName(mandateNumber)));
+            forget(mandateNumber);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return total size of the cached content, counting a pdf cached for several mandates once
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private void load() throws IOException {
+        List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(refs)) {
+            for (Path ref : stream) {
+                found.add(ref);
+            }
+        }
+        // least recently cached first, the order of eviction
+        found.sort((a, b) -> lastModified(a).compareTo(lastModified(b)));
+        for (Path ref : found) {
+            String name = ref.getFileName().toString();
+            List<String> lines = name.endsWith(".tmp") ? List.of() : Files.readAllLines(ref, UTF_8);
+            if (lines.size() < 3 || !Files.exists(blob(lines.get(0)))) {
+                Files.deleteIfExists(ref);
+                continue;
+            }
+            remember(URLDecoder.decode(name, UTF_8), new Entry(lines.get(0), lines.get(1), Long.parseLong(lines.get(2))));
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(blobs)) {
+            for (Path blob : stream) {
+                String name = blob.getFileName().toString();
+                if (!name.endsWith(".pdf") || !references.containsKey(name.substring(0, name.length() - 4))) {
+                    Files.deleteIfExists(blob);
+                }
+            }
+        }
+        evict();
+    }
+
+    private void remember(String mandateNumber, Entry entry) throws IOException {
+        Entry previous = entries.get(mandateNumber);
+        if (previous != null && !previous.hash.equals(entry.hash)) {
+            forget(mandateNumber);
+        } else if (previous != null) {
+            // same content, only refresh the access order
+            entries.put(mandateNumber, entry);
+            return;
+        }
+        entries.put(mandateNumber, entry);
+        if (references.merge(entry.hash, 1, Integer::sum) == 1) {
+            bytes += entry.size;
+        }
+    }
+
+    private void forget(String mandateNumber) throws IOException {
+        Entry entry = entries.remove(mandateNumber);
+        if (entry != null && references.merge(entry.hash, -1, Integer::sum) == 0) {
+            references.remove(entry.hash);
+            bytes -= entry.size;
+            Files.deleteIfExists(blob(entry.hash));
+        }
+    }
+
+    private void evict() throws IOException {
+        Iterator<String> eldest = new ArrayList<>(entries.keySet()).iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            String mandateNumber = eldest.next();
+            Files.deleteIfExists(refs.resolve(refName(mandateNumber)));
+            forget(mandateNumber);
+        }
+    }
+
+    private Path blob(String hash) {
+        return blobs.resolve(hash + ".pdf");
+    }
+
+    private static String refName(String mandateNumber) {
+        // mandate numbers are chosen by the creditor, keep them from being interpreted as path
+        return URLEncoder.encode(mandateNumber, UTF_8).replace("*", "%2A").replace(".", "%2E");
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void moveInPlace(Path source, Path target) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.twikey.cache;
+
+import com.twikey.modal.DocumentResponse;
+
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Remembers the validators (ETag and Last-Modified) of responses together with their decoded body, so the same
+ * resource is requested conditionally next time and a <code>304 Not Modified</code> is answered from memory.
+ * <p>
+ * Used by {@link com.twikey.DocumentGateway#fetch}, {@link com.twikey.InvoiceGateway#details} and
+ * {@link com.twikey.DocumentGateway#retrievePdf} once configured on the client. Unlike {@link MandateCache} every
+ * call still reaches Twikey, so the result is never stale, but an unchanged pdf is not downloaded again.
+ * Responses without validators are not kept.
+ * <p>
+ * Entries are keyed by url and evicted least recently used first, either when there are more than
+ * <code>maxEntries</code> or when the content of the cached pdfs exceeds <code>maxBytes</code>. A cache belongs to a
+ * single client, as the url does not identify the creditor.
+ *
+ * <pre>
+ * TwikeyClient api = new TwikeyClient(apiKey)
+ *         .withValidatorCache(new ValidatorCache(10_000, 256 * 1024 * 1024));
+ * </pre>
+ */
+public class ValidatorCache {
+
+    /**
+     * A decoded body with the validators it was returned with
+     */
+    public record Validated<T>(String etag, String lastModified, T value) {
+
+        /**
+         * Makes the request conditional on the resource having changed since
+         */
+        public HttpRequest.Builder applyTo(HttpRequest.Builder request) {
+            if (etag != null) {
+                request.header("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                request.header("If-Modified-Since", lastModified);
+            }
+            return request;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Validated<?>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+    private long notModified;
+
+    /**
+     * @param maxEntries number of responses kept
+     * @param maxBytes   maximum total size of the cached pdfs
+     */
+    public ValidatorCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("maxEntries must be positive and maxBytes not negative");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cached response for the url, null when there is none or it is of another type
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> Validated<T> get(String url, Class<T> type) {
+        Validated<?> validated = entries.get(url);
+        return validated != null && type.isInstance(validated.value) ? (Validated<T>) validated : null;
+    }
+
+    /**
+     * Keeps the decoded body of a <code>200 OK</code> if the response carries validators, otherwise the url is
+     * dropped as the previous validators no longer apply.
+     */
+    public synchronized void store(String url, HttpHeaders headers, Object value) {
+        String etag = headers.firstValue("ETag").orElse(null);
+        String lastModified = headers.firstValue("Last-Modified").orElse(null);
+        Validated<?> previous = etag == null && lastModified == null
+                ? entries.remove(url)
+                : entries.put(url, new Validated<>(etag, lastModified, value));
+        if (previous != null) {
+            bytes -= sizeOf(previous.value);
+        }
+        if (etag == null && lastModified == null) {
+            return;
+        }
+        bytes += sizeOf(value);
+        Iterator<Validated<?>> eldest = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            long size = sizeOf(eldest.next().value);
+            // decoded json hardly takes space, only pdfs make room when too many bytes are held
+            if (entries.size() > maxEntries || size > 0) {
+                bytes -= size;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Records that a cached response was served after a <code>304 Not Modified</code>
+     */
+    public synchronized void notModified() {
+        notModified++;
+    }
+
+    public synchronized void invalidate(String url) {
+        Validated<?> removed = entries.remove(url);
+        if (removed != null) {
+            bytes -= sizeOf(removed.value);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return total size of the cached pdfs
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of responses served from the cache
+     */
+    public synchronized long getNotModifiedCount() {
+        return notModified;
+    }
+
+    private static long sizeOf(Object value) {
+        return value instanceof DocumentResponse.PdfResponse pdf ? pdf.getContent().length : 0;
+    }
+}
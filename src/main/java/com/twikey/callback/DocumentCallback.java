@@ -1,6 +1,7 @@
 package com.twikey.callback;
 
 import com.twikey.modal.DocumentResponse;
+import org.json.JSONObject;
 
 public interface DocumentCallback {
     void newDocument(DocumentResponse.Document newDocument, String evt_time);
@@ -8,4 +9,23 @@ public interface DocumentCallback {
     void updatedDocument(DocumentResponse.Document updatedDocument, String updatedDocumentId, String reason, String author, String evt_time);
 
     void cancelledDocument(String cancelledDocumentNumber, String reason, String author,String evt_time);
+
+    /**
+     * Dispatches a raw message of the mandate feed to the matching callback method
+     *
+     * @param message Entry of the "Messages" array of the mandate feed
+     */
+    default void message(JSONObject message) {
+        if (message.has("CxlRsn")) {
+            JSONObject rsn = message.getJSONObject("CxlRsn");
+            cancelledDocument(message.getString("OrgnlMndtId"), rsn.getString("Rsn"), rsn.getJSONObject("Orgtr").getJSONObject("CtctDtls").getString("EmailAdr"), message.getString("EvtTime"));
+        } else if (message.has("AmdmntRsn")) {
+            JSONObject rsn = message.getJSONObject("AmdmntRsn");
+            DocumentResponse.Document document = DocumentResponse.Document.fromJson(message, null);
+            updatedDocument(document, message.getString("OrgnlMndtId"), rsn.getString("Rsn"), rsn.getJSONObject("Orgtr").getJSONObject("CtctDtls").getString("EmailAdr"), message.getString("EvtTime"));
+        } else {
+            DocumentResponse.Document document = DocumentResponse.Document.fromJson(message, null);
+            newDocument(document, message.getString("EvtTime"));
+        }
+    }
 }
@@ -0,0 +1,296 @@
+package com.twikey.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.util.Arrays;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes an application/x-www-form-urlencoded body (or query string) as bytes.
+ * <p>
+ * Values are percent-encoded straight from their chars into the buffer (the same output as
+ * {@link java.net.URLEncoder} with UTF-8), values that need no escaping are copied as is. Parameters with a null or
+ * blank value are skipped, the same way {@link com.twikey.TwikeyClient} always did.
+ * <p>
+ * {@link #acquire()} hands out a buffer that is reused by the same thread once closed, so encoding does not allocate
+ * in steady state:
+ *
+ * <pre>
+ * try (FormEncoder form = FormEncoder.acquire()) {
+ *     invite.writeForm(form);
+ *     HttpResponse&lt;byte[]&gt; response = client.send(builder.POST(form.toBodyPublisher()).build(), ...);
+ * }
+ * </pre>
+ */
+public final class FormEncoder implements AutoCloseable {
+
+    private static final int DEFAULT_CAPACITY = 512;
+    // don't keep huge buffers (eg. of an invite with a document) around in the pool
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+    private static final boolean[] SAFE = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) SAFE[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) SAFE[c] = true;
+        for (char c = '0'; c <= '9'; c++) SAFE[c] = true;
+        SAFE['.'] = SAFE['-'] = SAFE['*'] = SAFE['_'] = true;
+    }
+
+    private static final ThreadLocal<FormEncoder> POOL = ThreadLocal.withInitial(() -> new FormEncoder(DEFAULT_CAPACITY, true));
+
+    private final boolean pooled;
+    private boolean inUse;
+    private byte[] buf;
+    private int size;
+
+    public FormEncoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FormEncoder(int initialCapacity) {
+        this(initialCapacity, false);
+    }
+
+    private FormEncoder(int initialCapacity, boolean pooled) {
+        this.buf = new byte[Math.max(16, initialCapacity)];
+        this.pooled = pooled;
+    }
+
+    /**
+     * @return an empty encoder, reusing the one of the current thread if that is not in use; close it when the
+     * body has been sent
+     */
+    public static FormEncoder acquire() {
+        FormEncoder encoder = POOL.get();
+        if (encoder.inUse) {
+            return new FormEncoder();
+        }
+        encoder.inUse = true;
+        return encoder.reset();
+    }
+
+    /**
+     * Adds the parameter unless the value is null or blank
+     */
+    public FormEncoder add(String name, String value) {
+        if (value == null || value.isBlank()) {
+            return this;
+        }
+        separator();
+        writeEncoded(name);
+        write('=');
+        writeEncoded(value);
+        return this;
+    }
+
+    public FormEncoder add(String name, long value) {
+        separator();
+        writeEncoded(name);
+        write('=');
+        writeLong(value);
+        return this;
+    }
+
+    public FormEncoder add(String name, boolean value) {
+        separator();
+        writeEncoded(name);
+        writeAscii(value ? "=true" : "=false");
+        return this;
+    }
+
+    /**
+     * Adds the parameter unless the value is null or blank, booleans are written as true/false
+     */
+    public FormEncoder add(String name, Object value) {
+        if (value == null) {
+            return this;
+        } else if (value instanceof Boolean) {
+            return add(name, (boolean) (Boolean) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return add(name, ((Number) value).longValue());
+        }
+        return add(name, value.toString());
+    }
+
+    public FormEncoder addAll(Map<String, String> params) {
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public FormEncoder reset() {
+        size = 0;
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, size);
+    }
+
+    /**
+     * @return publisher over the current content, the encoder should not be modified or closed before the request
+     * is sent
+     */
+    public HttpRequest.BodyPublisher toBodyPublisher() {
+        return HttpRequest.BodyPublishers.ofByteArray(buf, 0, size);
+    }
+
+    /**
+     * @return the encoded form, eg. to append to an url
+     */
+    @Override
+    public String toString() {
+        return new String(buf, 0, size, UTF_8);
+    }
+
+    /**
+     * Hands a pooled encoder back to its thread, no-op for encoders that were created directly
+     */
+    @Override
+    public void close() {
+        if (pooled) {
+            if (buf.length > MAX_POOLED_CAPACITY) {
+                buf = new byte[DEFAULT_CAPACITY];
+            }
+            size = 0;
+            inUse = false;
+        }
+    }
+
+    private void separator() {
+        if (size > 0) {
+            write('&');
+        }
+    }
+
+    private void writeEncoded(String value) {
+        int length = value.length();
+        int encodedLength = encodedLength(value);
+        ensure(encodedLength);
+        byte[] b = buf;
+        int pos = size;
+        if (encodedLength == length) {
+            // only safe chars and spaces
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                b[pos++] = c == ' ' ? (byte) '+' : (byte) c;
+            }
+            size = pos;
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (SAFE[c]) {
+                    b[pos++] = (byte) c;
+                } else if (c == ' ') {
+                    b[pos++] = '+';
+                } else {
+                    pos = percent(b, pos, c);
+                }
+            } else if (c < 0x800) {
+                pos = percent(b, pos, 0xC0 | c >> 6);
+                pos = percent(b, pos, 0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                pos = percent(b, pos, 0xF0 | cp >> 18);
+                pos = percent(b, pos, 0x80 | cp >> 12 & 0x3F);
+                pos = percent(b, pos, 0x80 | cp >> 6 & 0x3F);
+                pos = percent(b, pos, 0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                pos = percent(b, pos, '?');
+            } else {
+                pos = percent(b, pos, 0xE0 | c >> 12);
+                pos = percent(b, pos, 0x80 | c >> 6 & 0x3F);
+                pos = percent(b, pos, 0x80 | c & 0x3F);
+            }
+        }
+        size = pos;
+    }
+
+    private static int encodedLength(String value) {
+        int length = value.length();
+        int encoded = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                encoded += SAFE[c] || c == ' ' ? 1 : 3;
+            } else if (c < 0x800) {
+                encoded += 6;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                encoded += 12;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                encoded += 3;
+            } else {
+                encoded += 9;
+            }
+        }
+        return encoded;
+    }
+
+    private static int percent(byte[] b, int pos, int value) {
+        b[pos] = '%';
+        b[pos + 1] = HEX[value >> 4 & 0xF];
+        b[pos + 2] = HEX[value & 0xF];
+        return pos + 3;
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buf[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        for (int i = size + digits - 1; i >= size; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+    private void writeAscii(String ascii) {
+        int length = ascii.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            buf[size++] = (byte) ascii.charAt(i);
+        }
+    }
+
+    private void write(char c) {
+        ensure(1);
+        buf[size++] = (byte) c;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+        }
+    }
+}
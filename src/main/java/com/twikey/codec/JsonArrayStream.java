@@ -0,0 +1,93 @@
+package com.twikey.codec;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+
+/**
+ * Json array produced while it is read: every element is only encoded when the previous one has been consumed, so
+ * a large request body never has to be held in memory as a whole.
+ *
+ * <pre>
+ * HttpRequest.BodyPublishers.ofInputStream(() -&gt; new JsonArrayStream&lt;&gt;(invoices, CreateInvoiceRequest::writeJson))
+ * </pre>
+ *
+ * @param <T> type of the elements
+ */
+public final class JsonArrayStream<T> extends InputStream {
+
+    private final Iterator<? extends T> elements;
+    private final BiConsumer<? super T, JsonWriter> encoder;
+    private final JsonWriter writer = new JsonWriter(1024);
+
+    private byte[] chunk;
+    private int position;
+    private int limit;
+    private boolean first = true;
+    private boolean done;
+
+    /**
+     * @param elements iterated once, while the stream is read
+     * @param encoder  writes a single element as json value
+     */
+    public JsonArrayStream(Iterable<? extends T> elements, BiConsumer<? super T, JsonWriter> encoder) {
+        this.elements = elements.iterator();
+        this.encoder = encoder;
+    }
+
+    @Override
+    public int read() {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return chunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < len && (position < limit || fill())) {
+            int n = Math.min(len - read, limit - position);
+            System.arraycopy(chunk, position, b, off + read, n);
+            position += n;
+            read += n;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    /**
+     * Encode the next element (preceded by the opening bracket or a comma) or the closing bracket
+     *
+     * @return false when everything was read
+     */
+    private boolean fill() {
+        if (done) {
+            return false;
+        }
+        writer.reset();
+        if (elements.hasNext()) {
+            // the separator is written as part of the chunk, the writer only sees a single top level value
+            writer.rawByte(first ? '[' : ',');
+            first = false;
+            encoder.accept(elements.next(), writer);
+        } else {
+            if (first) {
+                writer.rawByte('[');
+            }
+            writer.rawByte(']');
+            done = true;
+        }
+        chunk = writer.buffer();
+        position = 0;
+        limit = writer.size();
+        return true;
+    }
+}
@@ -0,0 +1,601 @@
+package com.twikey.codec;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Pull parser reading JSON straight from UTF-8 bytes.
+ * <p>
+ * Unlike {@link org.json.JSONTokener} nothing is materialized unless asked for: values that are not needed
+ * can be passed over with {@link #skipValue()} which only scans the underlying bytes.
+ *
+ * <pre>
+ * JsonReader reader = new JsonReader(body);
+ * reader.beginObject();
+ * while (reader.hasNext()) {
+ *     if ("id".equals(reader.nextName())) {
+ *         id = reader.nextString();
+ *     } else {
+ *         reader.skipValue();
+ *     }
+ * }
+ * reader.endObject();
+ * </pre>
+ */
+public final class JsonReader {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int EMPTY_DOCUMENT = 6;
+    private static final int NONEMPTY_DOCUMENT = 7;
+
+    private static final int NAME_CACHE_SIZE = 128; // power of 2
+
+    private final byte[] buf;
+    private final int limit;
+    private int pos;
+
+    private int[] stack = new int[16];
+    private int stackSize = 0;
+
+    private Token peeked;
+    private int peekedStart;
+
+    // field names repeat on every entry of a page, keep them around instead of allocating them over and over
+    // (created on the first name, readers for a single value don't need it)
+    private String[] nameCache;
+
+    public JsonReader(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    public JsonReader(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+        push(EMPTY_DOCUMENT);
+    }
+
+    public static JsonReader of(InputStream in) throws IOException {
+        return new JsonReader(in.readAllBytes());
+    }
+
+    public static JsonReader of(String json) {
+        return new JsonReader(json.getBytes(UTF_8));
+    }
+
+    /**
+     * @return the bytes this reader operates on
+     */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * @return offset in {@link #buffer()} where the next value (as returned by {@link #peek()}) starts
+     */
+    public int valueStart() {
+        peek();
+        return peekedStart;
+    }
+
+    /**
+     * @return offset in {@link #buffer()} directly after the last consumed token
+     */
+    public int position() {
+        return pos;
+    }
+
+    public Token peek() {
+        if (peeked == null) {
+            peeked = doPeek();
+        }
+        return peeked;
+    }
+
+    public boolean hasNext() {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+        peeked = null;
+    }
+
+    public void endObject() {
+        expect(Token.END_OBJECT);
+        stackSize--;
+        peeked = null;
+    }
+
+    public void beginArray() {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+        peeked = null;
+    }
+
+    public void endArray() {
+        expect(Token.END_ARRAY);
+        stackSize--;
+        peeked = null;
+    }
+
+    public String nextName() {
+        expect(Token.NAME);
+        peeked = null;
+        int start = pos;
+        int hash = 0;
+        while (pos < limit) {
+            byte b = buf[pos];
+            if (b == '"') {
+                String name = cachedName(start, pos - start, hash);
+                pos++;
+                return name;
+            }
+            if (b == '\\' || b < 0) {
+                pos = start;
+                return readQuoted();
+            }
+            hash = 31 * hash + b;
+            pos++;
+        }
+        throw syntaxError("Unterminated name");
+    }
+
+    /**
+     * Reads the next string, numbers and booleans are returned in their literal form.
+     *
+     * @return the value or null when the value is a json null
+     */
+    public String nextString() {
+        Token token = peek();
+        peeked = null;
+        switch (token) {
+            case STRING:
+                return readQuoted();
+            case NUMBER:
+            case BOOLEAN: {
+                int start = pos;
+                skipLiteral();
+                return new String(buf, start, pos - start, ISO_8859_1);
+            }
+            case NULL:
+                skipLiteral();
+                return null;
+            default:
+                peeked = token;
+                throw syntaxError("Expected a string but was " + token);
+        }
+    }
+
+    /**
+     * Same as {@link #nextString()} but returns the canonical instance from the interner, for values that repeat a
+     * lot. Plain ascii strings that are already known are looked up without being decoded.
+     */
+    public String nextString(StringInterner interner) {
+        if (peek() != Token.STRING) {
+            return interner.intern(nextString());
+        }
+        peeked = null;
+        int start = pos;
+        int hash = 0;
+        while (pos < limit) {
+            byte b = buf[pos];
+            if (b == '"') {
+                String value = interner.intern(buf, start, pos - start, hash);
+                pos++;
+                return value;
+            }
+            if (b == '\\' || b < 0) {
+                pos = start;
+                return interner.intern(readQuoted());
+            }
+            hash = 31 * hash + b;
+            pos++;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    public boolean nextBoolean() {
+        Token token = peek();
+        if (token != Token.BOOLEAN) {
+            throw syntaxError("Expected a boolean but was " + token);
+        }
+        peeked = null;
+        boolean value = buf[pos] == 't';
+        skipLiteral();
+        return value;
+    }
+
+    public void nextNull() {
+        expect(Token.NULL);
+        peeked = null;
+        skipLiteral();
+    }
+
+    public long nextLong() {
+        String literal = nextNumberLiteral();
+        return Long.parseLong(literal);
+    }
+
+    public int nextInt() {
+        String literal = nextNumberLiteral();
+        return Integer.parseInt(literal);
+    }
+
+    public double nextDouble() {
+        String literal = nextNumberLiteral();
+        return Double.parseDouble(literal);
+    }
+
+    public BigDecimal nextBigDecimal() {
+        return new BigDecimal(nextNumberLiteral());
+    }
+
+    /**
+     * Skips the next value without decoding it, including nested objects and arrays.
+     */
+    public void skipValue() {
+        Token token = peek();
+        peeked = null;
+        switch (token) {
+            case BEGIN_OBJECT:
+            case BEGIN_ARRAY:
+                skipContainer();
+                break;
+            case STRING:
+            case NAME:
+                skipQuoted();
+                break;
+            case NUMBER:
+            case BOOLEAN:
+            case NULL:
+                skipLiteral();
+                break;
+            default:
+                peeked = token;
+                throw syntaxError("Expected a value but was " + token);
+        }
+    }
+
+    /**
+     * Materializes the next value using org.json types so it can be handed to the existing callbacks.
+     *
+     * @return JSONObject, JSONArray, String, Number, Boolean or {@link JSONObject#NULL}
+     */
+    public Object readValue() {
+        Token token = peek();
+        switch (token) {
+            case BEGIN_OBJECT:
+                return readObject();
+            case BEGIN_ARRAY: {
+                JSONArray array = new JSONArray();
+                beginArray();
+                while (hasNext()) {
+                    array.put(readValue());
+                }
+                endArray();
+                return array;
+            }
+            case STRING:
+                return nextString();
+            case NUMBER: {
+                String literal = nextNumberLiteral();
+                if (literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0) {
+                    try {
+                        long value = Long.parseLong(literal);
+                        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                            return (int) value;
+                        }
+                        return value;
+                    } catch (NumberFormatException e) {
+                        return new BigDecimal(literal);
+                    }
+                }
+                return new BigDecimal(literal);
+            }
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return JSONObject.NULL;
+            default:
+                throw syntaxError("Expected a value but was " + token);
+        }
+    }
+
+    public JSONObject readObject() {
+        JSONObject object = new JSONObject();
+        beginObject();
+        while (hasNext()) {
+            String name = nextName();
+            object.put(name, readValue());
+        }
+        endObject();
+        return object;
+    }
+
+    private String nextNumberLiteral() {
+        Token token = peek();
+        peeked = null;
+        if (token == Token.NUMBER) {
+            int start = pos;
+            skipLiteral();
+            return new String(buf, start, pos - start, ISO_8859_1);
+        }
+        if (token == Token.STRING) {
+            // amounts are sometimes sent as "10.00"
+            return readQuoted().trim();
+        }
+        peeked = token;
+        throw syntaxError("Expected a number but was " + token);
+    }
+
+    private Token doPeek() {
+        int top = stack[stackSize - 1];
+        if (top == EMPTY_ARRAY) {
+            stack[stackSize - 1] = NONEMPTY_ARRAY;
+        } else if (top == NONEMPTY_ARRAY) {
+            int c = nextNonWhitespace();
+            if (c == ']') {
+                return token(Token.END_ARRAY, pos - 1);
+            }
+            if (c != ',') {
+                throw syntaxError("Unterminated array");
+            }
+        } else if (top == EMPTY_OBJECT || top == NONEMPTY_OBJECT) {
+            stack[stackSize - 1] = DANGLING_NAME;
+            if (top == NONEMPTY_OBJECT) {
+                int c = nextNonWhitespace();
+                if (c == '}') {
+                    return token(Token.END_OBJECT, pos - 1);
+                }
+                if (c != ',') {
+                    throw syntaxError("Unterminated object");
+                }
+            }
+            int c = nextNonWhitespace();
+            if (c == '"') {
+                return token(Token.NAME, pos - 1);
+            }
+            if (c == '}' && top == EMPTY_OBJECT) {
+                return token(Token.END_OBJECT, pos - 1);
+            }
+            throw syntaxError("Expected name");
+        } else if (top == DANGLING_NAME) {
+            stack[stackSize - 1] = NONEMPTY_OBJECT;
+            if (nextNonWhitespace() != ':') {
+                throw syntaxError("Expected ':'");
+            }
+        } else if (top == EMPTY_DOCUMENT) {
+            stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+        } else if (top == NONEMPTY_DOCUMENT) {
+            skipWhitespace();
+            if (pos == limit) {
+                return token(Token.END_DOCUMENT, pos);
+            }
+            throw syntaxError("Expected end of document");
+        }
+
+        int c = nextNonWhitespace();
+        int start = pos - 1;
+        switch (c) {
+            case '{':
+                return token(Token.BEGIN_OBJECT, start);
+            case '[':
+                return token(Token.BEGIN_ARRAY, start);
+            case ']':
+                if (top == EMPTY_ARRAY) {
+                    return token(Token.END_ARRAY, start);
+                }
+                throw syntaxError("Unexpected ']'");
+            case '"':
+                return token(Token.STRING, start);
+            case 't':
+            case 'f':
+                pos--;
+                return token(Token.BOOLEAN, start);
+            case 'n':
+                pos--;
+                return token(Token.NULL, start);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    pos--;
+                    return token(Token.NUMBER, start);
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private Token token(Token token, int start) {
+        peekedStart = start;
+        return token;
+    }
+
+    private void expect(Token expected) {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private void skipWhitespace() {
+        while (pos < limit) {
+            byte b = buf[pos];
+            if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                pos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private int nextNonWhitespace() {
+        skipWhitespace();
+        if (pos == limit) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return buf[pos++];
+    }
+
+    private void skipLiteral() {
+        while (pos < limit) {
+            byte b = buf[pos];
+            if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Expects pos to be right after the opening quote and leaves it right after the closing quote
+     */
+    private void skipQuoted() {
+        while (pos < limit) {
+            byte b = buf[pos++];
+            if (b == '\\') {
+                pos++;
+            } else if (b == '"') {
+                return;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * Expects pos to be right after the opening bracket and leaves it right after the matching closing bracket
+     */
+    private void skipContainer() {
+        int depth = 1;
+        while (pos < limit) {
+            byte b = buf[pos++];
+            if (b == '"') {
+                skipQuoted();
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (--depth == 0) {
+                    return;
+                }
+            }
+        }
+        throw syntaxError("Unterminated container");
+    }
+
+    /**
+     * Expects pos to be right after the opening quote and leaves it right after the closing quote
+     */
+    private String readQuoted() {
+        int start = pos;
+        boolean ascii = true;
+        while (pos < limit) {
+            byte b = buf[pos];
+            if (b == '"') {
+                String value = new String(buf, start, pos - start, ascii ? ISO_8859_1 : UTF_8);
+                pos++;
+                return value;
+            }
+            if (b == '\\') {
+                return readEscaped(start);
+            }
+            if (b < 0) {
+                ascii = false;
+            }
+            pos++;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private String readEscaped(int start) {
+        StringBuilder sb = new StringBuilder(pos - start + 16);
+        int segment = start;
+        while (pos < limit) {
+            byte b = buf[pos];
+            if (b == '"') {
+                sb.append(new String(buf, segment, pos - segment, UTF_8));
+                pos++;
+                return sb.toString();
+            }
+            if (b == '\\') {
+                sb.append(new String(buf, segment, pos - segment, UTF_8));
+                if (pos + 1 >= limit) {
+                    break;
+                }
+                byte escaped = buf[pos + 1];
+                pos += 2;
+                switch (escaped) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > limit) {
+                            throw syntaxError("Invalid unicode escape");
+                        }
+                        sb.append((char) Integer.parseInt(new String(buf, pos, 4, ISO_8859_1), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append((char) escaped);
+                }
+                segment = pos;
+            } else {
+                pos++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private String cachedName(int start, int length, int hash) {
+        if (nameCache == null) {
+            nameCache = new String[NAME_CACHE_SIZE];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+        String cached = nameCache[slot];
+        if (cached != null && cached.length() == length) {
+            boolean same = true;
+            for (int i = 0; i < length; i++) {
+                if (cached.charAt(i) != buf[start + i]) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same) {
+                return cached;
+            }
+        }
+        String name = new String(buf, start, length, ISO_8859_1);
+        nameCache[slot] = name;
+        return name;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at offset " + pos);
+    }
+}
@@ -0,0 +1,336 @@
+package com.twikey.codec;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes JSON as UTF-8 bytes into a growing buffer, the counterpart of {@link JsonReader}.
+ * <p>
+ * Meant for request bodies: the models write their fields directly so no {@link org.json.JSONObject} has to be
+ * built (and walked again) before sending.
+ *
+ * <pre>
+ * JsonWriter writer = new JsonWriter();
+ * writer.beginObject()
+ *         .putIfNotNull("number", number)
+ *         .putIfNotNull("amount", amount)
+ *         .endObject();
+ * HttpRequest.BodyPublisher body = writer.toBodyPublisher();
+ * </pre>
+ */
+public final class JsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(ISO_8859_1);
+
+    private byte[] buf;
+    private int size;
+
+    // per nesting level whether a value was already written, to know when a comma is needed
+    private boolean[] nonEmpty = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter() {
+        this(256);
+    }
+
+    public JsonWriter(int initialCapacity) {
+        this.buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        write('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        pop();
+        write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        write('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        pop();
+        write(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        if (afterName || depth == 0) {
+            throw new JSONException("Unexpected name " + name);
+        }
+        separator();
+        writeQuoted(name);
+        write(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * @param value written as string or null
+     */
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeQuoted(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        writeAscii(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Doubles are written like org.json does, without trailing zeros (100.0 becomes 100)
+     */
+    public JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new JSONException("JSON does not allow non-finite numbers");
+        }
+        beforeValue();
+        String literal = Double.toString(value);
+        if (literal.indexOf('.') > 0 && literal.indexOf('E') < 0) {
+            int end = literal.length();
+            while (literal.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (literal.charAt(end - 1) == '.') {
+                end--;
+            }
+            literal = literal.substring(0, end);
+        }
+        writeAscii(literal);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * @param value String, Number, Boolean or null
+     */
+    public JsonWriter value(Object value) {
+        if (value == null) {
+            return nullValue();
+        } else if (value instanceof Boolean) {
+            return value((boolean) (Boolean) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            return value(((Number) value).doubleValue());
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            beforeValue();
+            writeAscii(value.toString());
+            return this;
+        }
+        return value(value.toString());
+    }
+
+    public JsonWriter nullValue() {
+        beforeValue();
+        writeAscii("null");
+        return this;
+    }
+
+    /**
+     * Write the complete json of another writer as a string value (for fields that embed json as text)
+     */
+    public JsonWriter valueAsString(JsonWriter json) {
+        beforeValue();
+        write('"');
+        ensure(json.size * 2);
+        for (int i = 0; i < json.size; i++) {
+            byte b = json.buf[i];
+            if (b == '"' || b == '\\') {
+                buf[size++] = '\\';
+            }
+            buf[size++] = b;
+        }
+        write('"');
+        return this;
+    }
+
+    /**
+     * Writes the field unless the value is null
+     */
+    public JsonWriter putIfNotNull(String name, Object value) {
+        if (value != null) {
+            name(name).value(value);
+        }
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Clears the content so the writer can be reused
+     */
+    public JsonWriter reset() {
+        size = 0;
+        depth = 0;
+        afterName = false;
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    /**
+     * Appends a byte outside of the json structure (eg. a separator between values written by separate calls)
+     */
+    void rawByte(char c) {
+        write(c);
+    }
+
+    /**
+     * @return the internal buffer, valid up to {@link #size()}
+     */
+    byte[] buffer() {
+        return buf;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, size);
+    }
+
+    /**
+     * @return publisher over the current content, the writer should not be modified while the request is sent
+     */
+    public HttpRequest.BodyPublisher toBodyPublisher() {
+        return HttpRequest.BodyPublishers.ofByteArray(buf, 0, size);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, size, UTF_8);
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            separator();
+        }
+    }
+
+    private void separator() {
+        if (nonEmpty[depth - 1]) {
+            write(',');
+        } else {
+            nonEmpty[depth - 1] = true;
+        }
+    }
+
+    private void push() {
+        if (depth == nonEmpty.length) {
+            nonEmpty = Arrays.copyOf(nonEmpty, depth * 2);
+        }
+        nonEmpty[depth++] = false;
+    }
+
+    private void pop() {
+        if (depth == 0 || afterName) {
+            throw new JSONException("Nothing to close");
+        }
+        depth--;
+    }
+
+    private void writeQuoted(String value) {
+        int length = value.length();
+        // worst case every char takes 6 bytes (\\u0000)
+        ensure(length * 6 + 2);
+        byte[] b = buf;
+        int pos = size;
+        b[pos++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    b[pos++] = (byte) c;
+                    continue;
+                }
+                b[pos++] = '\\';
+                switch (c) {
+                    case '"' -> b[pos++] = '"';
+                    case '\\' -> b[pos++] = '\\';
+                    case '\n' -> b[pos++] = 'n';
+                    case '\r' -> b[pos++] = 'r';
+                    case '\t' -> b[pos++] = 't';
+                    case '\b' -> b[pos++] = 'b';
+                    case '\f' -> b[pos++] = 'f';
+                    default -> {
+                        b[pos++] = 'u';
+                        b[pos++] = '0';
+                        b[pos++] = '0';
+                        b[pos++] = HEX[c >> 4];
+                        b[pos++] = HEX[c & 0xF];
+                    }
+                }
+            } else if (c < 0x800) {
+                b[pos++] = (byte) (0xC0 | c >> 6);
+                b[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                b[pos++] = (byte) (0xF0 | cp >> 18);
+                b[pos++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                b[pos++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                b[pos++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                b[pos++] = '?';
+            } else {
+                b[pos++] = (byte) (0xE0 | c >> 12);
+                b[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                b[pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        b[pos++] = '"';
+        size = pos;
+    }
+
+    private void writeAscii(String literal) {
+        int length = literal.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            buf[size++] = (byte) literal.charAt(i);
+        }
+    }
+
+    private void write(char c) {
+        ensure(1);
+        buf[size++] = (byte) c;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.twikey.codec;
+
+import com.twikey.modal.DocumentResponse;
+import com.twikey.modal.InvoiceResponse;
+
+import java.util.List;
+
+/**
+ * Codec returning views on the bytes of the response for the mandates and invoices, which only decode a field
+ * when it is read. Useful when only a few fields of every model are of interest.
+ */
+public class LazyJsonCodec extends StreamingJsonCodec {
+
+    static final LazyJsonCodec INSTANCE = new LazyJsonCodec();
+
+    @Override
+    public DocumentResponse.Document decodeDocument(byte[] body, String state) {
+        return DocumentResponse.LazyDocument.fromJson(new JsonReader(body), state);
+    }
+
+    @Override
+    public List<DocumentResponse.Document> decodeDocuments(byte[] body) {
+        return DocumentResponse.LazyDocument.fromQuery(new JsonReader(body));
+    }
+
+    @Override
+    public InvoiceResponse.Invoice decodeInvoice(byte[] body) {
+        return InvoiceResponse.LazyInvoice.fromJson(new JsonReader(body));
+    }
+}
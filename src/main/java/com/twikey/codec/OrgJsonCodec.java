@@ -0,0 +1,55 @@
+package com.twikey.codec;
+
+import com.twikey.modal.DocumentResponse;
+import com.twikey.modal.InvoiceResponse;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Codec parsing every body into a {@link JSONObject} before mapping it, as done before the streaming codec existed.
+ */
+public class OrgJsonCodec implements TwikeyJsonCodec {
+
+    static final OrgJsonCodec INSTANCE = new OrgJsonCodec();
+
+    @Override
+    public DocumentResponse.Document decodeDocument(byte[] body, String state) {
+        return DocumentResponse.Document.fromJson(decodeObject(body), state);
+    }
+
+    @Override
+    public List<DocumentResponse.Document> decodeDocuments(byte[] body) {
+        return DocumentResponse.Document.fromQuery(decodeObject(body));
+    }
+
+    @Override
+    public DocumentResponse.MandateCreationResponse decodeMandateCreation(byte[] body) {
+        return DocumentResponse.MandateCreationResponse.fromJson(new String(body, UTF_8));
+    }
+
+    @Override
+    public DocumentResponse.CustomerAccessResponse decodeCustomerAccess(byte[] body) {
+        return DocumentResponse.CustomerAccessResponse.fromJson(decodeObject(body));
+    }
+
+    @Override
+    public InvoiceResponse.Invoice decodeInvoice(byte[] body) {
+        return InvoiceResponse.Invoice.fromJson(decodeObject(body));
+    }
+
+    @Override
+    public JSONObject decodeObject(byte[] body) {
+        return new JSONObject(new JSONTokener(new String(body, UTF_8)));
+    }
+
+    @Override
+    public JSONObject decodeFirstEntry(byte[] body, String arrayName) {
+        JSONArray entries = decodeObject(body).optJSONArray(arrayName);
+        return entries != null ? entries.optJSONObject(0) : null;
+    }
+}
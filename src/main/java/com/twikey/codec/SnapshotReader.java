@@ -0,0 +1,127 @@
+package com.twikey.codec;
+
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads the records written by {@link SnapshotWriter} from a {@link ByteBuffer}, eg. one wrapping a value fetched
+ * from a cache or a memory mapped file.
+ * <p>
+ * Values are decoded straight from the buffer without copying it first, the position of the buffer is moved past
+ * every value read. Several records can follow each other in the same buffer.
+ */
+public final class SnapshotReader {
+
+    private final ByteBuffer buffer;
+    private int version;
+
+    public SnapshotReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public SnapshotReader(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Reads the start of a record
+     *
+     * @throws IllegalArgumentException when the record is of another kind or written by a newer version
+     */
+    public SnapshotReader header(int kind) {
+        int version = buffer.get();
+        int actual = buffer.get();
+        if (version < 1 || version > SnapshotWriter.VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version " + version);
+        }
+        if (actual != kind) {
+            throw new IllegalArgumentException("Expected a snapshot of kind " + kind + " but was " + actual);
+        }
+        this.version = version;
+        return this;
+    }
+
+    /**
+     * @return version of the format of the current record, fields added in later versions should only be read
+     * when the record is recent enough
+     */
+    public int version() {
+        return version;
+    }
+
+    public boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+
+    public long varint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint at " + buffer.position());
+    }
+
+    public long signedVarint() {
+        long zigzag = varint();
+        return zigzag >>> 1 ^ -(zigzag & 1);
+    }
+
+    public Integer nullableInt() {
+        long value = varint();
+        if (value == 0) {
+            return null;
+        }
+        int zigzag = (int) (value - 1);
+        return zigzag >>> 1 ^ -(zigzag & 1);
+    }
+
+    public Double nullableDouble() {
+        return varint() == 0 ? null : buffer.getDouble();
+    }
+
+    public String string() {
+        int length = (int) varint() - 1;
+        if (length < 0) {
+            return null;
+        }
+        int position = buffer.position();
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + position, length, UTF_8);
+        } else {
+            value = UTF_8.decode(buffer.slice(position, length)).toString();
+        }
+        buffer.position(position + length);
+        return value;
+    }
+
+    /**
+     * Counterpart of {@link SnapshotWriter#dictionary(String[], String)}, values that were not in the dictionary
+     * are interned so they end up shared as well
+     */
+    public String dictionary(String[] dictionary, StringInterner interner) {
+        int code = (int) varint();
+        if (code == 0) {
+            return null;
+        }
+        if (code <= dictionary.length) {
+            return dictionary[code - 1];
+        }
+        if (code != dictionary.length + 1) {
+            throw new IllegalArgumentException("Unknown dictionary code " + code);
+        }
+        return interner.intern(string());
+    }
+
+    public JSONObject json() {
+        String json = string();
+        return json != null ? new JSONObject(json) : null;
+    }
+}
@@ -0,0 +1,212 @@
+package com.twikey.codec;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes the compact binary snapshot of the models, read back using {@link SnapshotReader}.
+ * <p>
+ * Every record starts with the format version and the kind of record, followed by the fields in a fixed order:
+ * <ul>
+ *     <li>lengths and counts as unsigned varints</li>
+ *     <li>strings as varint of (utf-8 length + 1) followed by the bytes, 0 meaning null</li>
+ *     <li>values with few distinct values (states, types, ...) as their index in a dictionary that is part of the
+ *     format, anything not in there is written as string after an escape code</li>
+ * </ul>
+ * Later versions only append fields to a record so older snapshots stay readable. Dictionaries are append only
+ * for the same reason, adding an entry to one requires a new version.
+ *
+ * <pre>
+ * SnapshotWriter writer = new SnapshotWriter();
+ * document.writeSnapshot(writer);
+ * redis.set(key, writer.toByteArray());
+ * </pre>
+ */
+public final class SnapshotWriter {
+
+    public static final int VERSION = 1;
+
+    public static final int DOCUMENT = 1;
+    public static final int INVOICE = 2;
+    public static final int FEED_EVENT = 3;
+    public static final int INVOICE_STATE = 4;
+
+    private byte[] buf;
+    private int size;
+
+    public SnapshotWriter() {
+        this(256);
+    }
+
+    public SnapshotWriter(int initialCapacity) {
+        this.buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Starts a record of the given kind
+     */
+    public SnapshotWriter header(int kind) {
+        ensure(2);
+        buf[size++] = VERSION;
+        buf[size++] = (byte) kind;
+        return this;
+    }
+
+    /**
+     * @param value unsigned value, written in 1 (below 128) to 10 bytes
+     */
+    public SnapshotWriter varint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buf[size++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        buf[size++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * Zigzag encoded so small negative values stay small
+     */
+    public SnapshotWriter signedVarint(long value) {
+        return varint(value << 1 ^ value >> 63);
+    }
+
+    public SnapshotWriter nullableInt(Integer value) {
+        if (value == null) {
+            return varint(0);
+        }
+        int zigzag = value << 1 ^ value >> 31;
+        return varint((zigzag & 0xFFFFFFFFL) + 1);
+    }
+
+    public SnapshotWriter nullableDouble(Double value) {
+        if (value == null) {
+            return varint(0);
+        }
+        varint(1);
+        ensure(8);
+        long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buf[size++] = (byte) (bits >>> shift);
+        }
+        return this;
+    }
+
+    public SnapshotWriter string(String value) {
+        if (value == null) {
+            return varint(0);
+        }
+        int length = value.length();
+        int encodedLength = utf8Length(value);
+        varint(encodedLength + 1L);
+        ensure(encodedLength);
+        byte[] b = buf;
+        int pos = size;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                b[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                b[pos++] = (byte) (0xC0 | c >> 6);
+                b[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                b[pos++] = (byte) (0xF0 | cp >> 18);
+                b[pos++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                b[pos++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                b[pos++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                b[pos++] = '?';
+            } else {
+                b[pos++] = (byte) (0xE0 | c >> 12);
+                b[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                b[pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        size = pos;
+        return this;
+    }
+
+    /**
+     * Writes 0 for null, the position in the dictionary + 1 when the value is in there or else the length of the
+     * dictionary + 1 followed by the value as string
+     */
+    public SnapshotWriter dictionary(String[] dictionary, String value) {
+        if (value == null) {
+            return varint(0);
+        }
+        for (int i = 0; i < dictionary.length; i++) {
+            if (dictionary[i].equals(value)) {
+                return varint(i + 1);
+            }
+        }
+        varint(dictionary.length + 1L);
+        return string(value);
+    }
+
+    /**
+     * Free form json (eg. the raw entry of a feed or the meta of an invoice) is kept as its text
+     */
+    public SnapshotWriter json(JSONObject value) {
+        return string(value != null ? value.toString() : null);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Clears the content so the writer can be reused
+     */
+    public SnapshotWriter reset() {
+        size = 0;
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    /**
+     * @return view on the current content (not a copy), only valid until the writer is modified
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, size);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, size);
+    }
+
+    private static int utf8Length(String value) {
+        int length = value.length();
+        int encoded = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                encoded++;
+            } else if (c < 0x800) {
+                encoded += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                encoded += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                encoded++;
+            } else {
+                encoded += 3;
+            }
+        }
+        return encoded;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+        }
+    }
+}
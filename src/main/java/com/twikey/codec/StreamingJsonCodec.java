@@ -0,0 +1,63 @@
+package com.twikey.codec;
+
+import com.twikey.modal.DocumentResponse;
+import com.twikey.modal.InvoiceResponse;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Codec decoding the bytes of a response directly into the models using {@link JsonReader}.
+ */
+public class StreamingJsonCodec implements TwikeyJsonCodec {
+
+    static final StreamingJsonCodec INSTANCE = new StreamingJsonCodec();
+
+    @Override
+    public DocumentResponse.Document decodeDocument(byte[] body, String state) {
+        return DocumentResponse.Document.fromJson(new JsonReader(body), state);
+    }
+
+    @Override
+    public List<DocumentResponse.Document> decodeDocuments(byte[] body) {
+        return DocumentResponse.Document.fromQuery(new JsonReader(body));
+    }
+
+    @Override
+    public DocumentResponse.MandateCreationResponse decodeMandateCreation(byte[] body) {
+        return DocumentResponse.MandateCreationResponse.fromJson(new JsonReader(body));
+    }
+
+    @Override
+    public DocumentResponse.CustomerAccessResponse decodeCustomerAccess(byte[] body) {
+        return DocumentResponse.CustomerAccessResponse.fromJson(new JsonReader(body));
+    }
+
+    @Override
+    public InvoiceResponse.Invoice decodeInvoice(byte[] body) {
+        return InvoiceResponse.Invoice.fromJson(new JsonReader(body));
+    }
+
+    @Override
+    public JSONObject decodeObject(byte[] body) {
+        return new JsonReader(body).readObject();
+    }
+
+    @Override
+    public JSONObject decodeFirstEntry(byte[] body, String arrayName) {
+        JsonReader reader = new JsonReader(body);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (arrayName.equals(reader.nextName()) && reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                    // the remainder of the body is of no interest
+                    return reader.readObject();
+                }
+                return null;
+            }
+            reader.skipValue();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,102 @@
+package com.twikey.codec;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Bounded table of canonical instances for strings with few distinct values (states, types, bic codes, countries).
+ * <p>
+ * Unlike {@link String#intern()} the table never grows: every value maps to two slots and a value that finds both
+ * taken by others simply replaces one of them. Frequent values therefore stay canonical while rare ones fall out,
+ * which keeps the decoded models from each holding their own copy of eg. "signed" or "GEBABEBB".
+ * <p>
+ * Safe for concurrent use without locking: strings are immutable so a racing reader sees either the old or the new
+ * instance, both of which are valid.
+ */
+public final class StringInterner {
+
+    private static final StringInterner SHARED = new StringInterner(4096, 64);
+
+    private final String[] table;
+    private final int mask;
+    private final int maxLength;
+
+    /**
+     * @param size      number of slots, rounded up to a power of 2
+     * @param maxLength longer values are returned as is, these are unlikely to repeat
+     */
+    public StringInterner(int size, int maxLength) {
+        int capacity = Integer.highestOneBit(Math.max(2, size));
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        this.table = new String[capacity];
+        this.mask = capacity - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return the interner used by the decoders of the models
+     */
+    public static StringInterner shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return the canonical instance equal to the value (or the value itself when not yet known), null for null
+     */
+    public String intern(String value) {
+        if (value == null || value.length() > maxLength) {
+            return value;
+        }
+        int slot = slot(value.hashCode());
+        String cached = table[slot];
+        if (value.equals(cached)) {
+            return cached;
+        }
+        String other = table[slot ^ 1];
+        if (value.equals(other)) {
+            return other;
+        }
+        table[cached == null || other != null ? slot : slot ^ 1] = value;
+        return value;
+    }
+
+    /**
+     * Looks up ascii bytes without creating a string when the value is known.
+     *
+     * @param hash {@link String#hashCode()} of the value
+     */
+    String intern(byte[] buf, int start, int length, int hash) {
+        if (length > maxLength) {
+            return new String(buf, start, length, ISO_8859_1);
+        }
+        int slot = slot(hash);
+        String cached = table[slot];
+        if (matches(cached, buf, start, length)) {
+            return cached;
+        }
+        String other = table[slot ^ 1];
+        if (matches(other, buf, start, length)) {
+            return other;
+        }
+        String value = new String(buf, start, length, ISO_8859_1);
+        table[cached == null || other != null ? slot : slot ^ 1] = value;
+        return value;
+    }
+
+    private int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static boolean matches(String cached, byte[] buf, int start, int length) {
+        if (cached == null || cached.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (cached.charAt(i) != buf[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
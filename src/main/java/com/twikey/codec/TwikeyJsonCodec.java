@@ -0,0 +1,63 @@
+package com.twikey.codec;
+
+import com.twikey.modal.DocumentResponse;
+import com.twikey.modal.InvoiceResponse;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Turns the response bodies of the Twikey API into the model classes.
+ * <p>
+ * The default {@link #streaming()} codec decodes the bytes straight into the models without building a json tree
+ * first, {@link #orgJson()} keeps the behaviour of previous versions (parse to a {@link JSONObject}, then map) and
+ * {@link #lazy()} only decodes the fields of mandates and invoices that are actually read.
+ * A custom codec can be set using {@link com.twikey.TwikeyClient#withJsonCodec(TwikeyJsonCodec)}.
+ */
+public interface TwikeyJsonCodec {
+
+    static TwikeyJsonCodec streaming() {
+        return StreamingJsonCodec.INSTANCE;
+    }
+
+    static TwikeyJsonCodec orgJson() {
+        return OrgJsonCodec.INSTANCE;
+    }
+
+    static TwikeyJsonCodec lazy() {
+        return LazyJsonCodec.INSTANCE;
+    }
+
+    /**
+     * @param body  response of /mandate/detail
+     * @param state value of the x-state header, if any
+     */
+    DocumentResponse.Document decodeDocument(byte[] body, String state);
+
+    /**
+     * @param body response of /mandate/query
+     */
+    List<DocumentResponse.Document> decodeDocuments(byte[] body);
+
+    /**
+     * @param body response of /invite or /sign
+     */
+    DocumentResponse.MandateCreationResponse decodeMandateCreation(byte[] body);
+
+    /**
+     * @param body response of /customeraccess
+     */
+    DocumentResponse.CustomerAccessResponse decodeCustomerAccess(byte[] body);
+
+    InvoiceResponse.Invoice decodeInvoice(byte[] body);
+
+    /**
+     * For the endpoints that still expose the raw json
+     */
+    JSONObject decodeObject(byte[] body);
+
+    /**
+     * @return the first element of the given array of the response or null when the array is empty or missing
+     */
+    JSONObject decodeFirstEntry(byte[] body, String arrayName);
+}
@@ -0,0 +1,183 @@
+package com.twikey.feed;
+
+import com.twikey.callback.DocumentCallback;
+import com.twikey.callback.InvoiceCallback;
+import com.twikey.callback.PaylinkCallback;
+import com.twikey.callback.RefundCallback;
+import com.twikey.callback.TransactionCallback;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Isolates failing feed callbacks so a single poison entry does not abort the rest of a page.
+ * <p>
+ * Every entry is handed to the callback up to <code>retries + 1</code> times. When it keeps failing the raw entry is
+ * written to a file in the store together with the error, and the feed continues with the next entry. Stored entries
+ * can be inspected with {@link #list(FeedType)} and re-driven with one of the replay methods once the bug is fixed.
+ *
+ * <pre>
+ * DeadLetterStore deadLetters = new DeadLetterStore(Path.of("/var/lib/twikey/dead-letters")).withRetries(2);
+ * TwikeyClient api = new TwikeyClient(apiKey).withDeadLetters(deadLetters);
+ * ...
+ * deadLetters.replayInvoices(invoiceCallback);
+ * </pre>
+ */
+public class DeadLetterStore {
+
+    private static final String SUFFIX = ".json";
+
+    private final Path directory;
+    private final AtomicLong sequence = new AtomicLong();
+    private int retries = 0;
+
+    public DeadLetterStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * @param retries Number of extra attempts before an entry is stored as dead letter
+     */
+    public DeadLetterStore withRetries(int retries) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("retries can't be negative");
+        }
+        this.retries = retries;
+        return this;
+    }
+
+    /**
+     * A feed entry that could not be processed
+     */
+    public record DeadLetter(Path file, FeedType type, JSONObject entry, String error, Instant failedAt, int attempts) {
+    }
+
+    /**
+     * Hand the entry to the callback, storing it as dead letter when all attempts fail.
+     *
+     * @return true if the callback processed the entry
+     */
+    public boolean deliver(FeedType type, JSONObject entry, Consumer<JSONObject> callback) {
+        RuntimeException failure = null;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            try {
+                callback.accept(entry);
+                return true;
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        store(type, entry, failure, retries + 1);
+        return false;
+    }
+
+    /**
+     * @return the dead letters of a feed, oldest first
+     */
+    public List<DeadLetter> list(FeedType type) throws IOException {
+        Path dir = directory.resolve(type.name().toLowerCase(Locale.ROOT));
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(dir)) {
+            files = stream.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+        List<DeadLetter> letters = new ArrayList<>(files.size());
+        for (Path file : files) {
+            JSONObject json = new JSONObject(new JSONTokener(Files.readString(file, UTF_8)));
+            letters.add(new DeadLetter(file, type, json.getJSONObject("entry"), json.optString("error"),
+                    Instant.parse(json.getString("failedAt")), json.optInt("attempts")));
+        }
+        return letters;
+    }
+
+    /**
+     * Offer all dead letters of a feed to the callback again (once each). Those that succeed are removed,
+     * the others are kept with the new error.
+     *
+     * @return number of dead letters that were processed successfully
+     */
+    public int replay(FeedType type, Consumer<JSONObject> callback) throws IOException {
+        int replayed = 0;
+        for (DeadLetter letter : list(type)) {
+            try {
+                callback.accept(letter.entry());
+                Files.deleteIfExists(letter.file());
+                replayed++;
+            } catch (RuntimeException e) {
+                write(letter.file(), type, letter.entry(), e, letter.attempts() + 1);
+            }
+        }
+        return replayed;
+    }
+
+    public int replayDocuments(DocumentCallback callback) throws IOException {
+        return replay(FeedType.MANDATE, callback::message);
+    }
+
+    public int replayInvoices(InvoiceCallback callback) throws IOException {
+        return replay(FeedType.INVOICE, callback::invoice);
+    }
+
+    public int replayTransactions(TransactionCallback callback) throws IOException {
+        return replay(FeedType.TRANSACTION, callback::transaction);
+    }
+
+    public int replayPaylinks(PaylinkCallback callback) throws IOException {
+        return replay(FeedType.PAYLINK, callback::paylink);
+    }
+
+    public int replayRefunds(RefundCallback callback) throws IOException {
+        return replay(FeedType.REFUND, callback::refund);
+    }
+
+    public void delete(DeadLetter letter) throws IOException {
+        Files.deleteIfExists(letter.file());
+    }
+
+    private void store(FeedType type, JSONObject entry, RuntimeException error, int attempts) {
+        try {
+            Path dir = Files.createDirectories(directory.resolve(type.name().toLowerCase(Locale.ROOT)));
+            String name = String.format("%020d-%06d%s", System.currentTimeMillis(), sequence.incrementAndGet() % 1_000_000, SUFFIX);
+            write(dir.resolve(name), type, entry, error, attempts);
+        } catch (IOException e) {
+            // not being able to store the dead letter means the entry would be lost, so bubble up
+            UncheckedIOException failure = new UncheckedIOException("Unable to store dead letter for " + type, e);
+            failure.addSuppressed(error);
+            throw failure;
+        }
+    }
+
+    private static void write(Path file, FeedType type, JSONObject entry, RuntimeException error, int attempts) throws IOException {
+        StringWriter trace = new StringWriter();
+        error.printStackTrace(new PrintWriter(trace));
+        JSONObject letter = new JSONObject()
+                .put("type", type.name())
+                .put("entry", entry)
+                .put("error", String.valueOf(error))
+                .put("stacktrace", trace.toString())
+                .put("failedAt", Instant.now().toString())
+                .put("attempts", attempts);
+        // write and move so a crash never leaves a half written letter behind
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(tmp, letter.toString(), UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
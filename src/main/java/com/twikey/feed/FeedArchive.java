@@ -0,0 +1,279 @@
+package com.twikey.feed;
+
+import com.twikey.callback.DocumentCallback;
+import com.twikey.callback.InvoiceCallback;
+import com.twikey.callback.PaylinkCallback;
+import com.twikey.callback.RefundCallback;
+import com.twikey.callback.TransactionCallback;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps a local copy of every raw feed page so history can be reprocessed without calling Twikey.
+ * <p>
+ * Pages are appended to rolling segment files per feed type, each page being its own gzip member so a segment
+ * stays readable up to the last complete page after a crash. Next to every segment an index file holds one line per
+ * entry: <code>archivedAt offset length id</code>, allowing replay by time or lookup by id without scanning segments.
+ *
+ * <pre>
+ * FeedArchive archive = new FeedArchive(Path.of("/var/lib/twikey/archive"));
+ * TwikeyClient api = new TwikeyClient(apiKey).withFeedArchive(archive);
+ * ...
+ * archive.replayInvoices(invoiceCallback, Instant.parse("2024-01-01T00:00:00Z"), Instant.now());
+ * </pre>
+ */
+public class FeedArchive implements Closeable {
+
+    private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final String SEGMENT = ".seg";
+    private static final String INDEX = ".idx";
+
+    private final Path directory;
+    private final Clock clock;
+    private final Map<FeedType, Segment> segments = new EnumMap<>(FeedType.class);
+    private long maxSegmentSize = DEFAULT_SEGMENT_SIZE;
+
+    public FeedArchive(Path directory) throws IOException {
+        this(directory, Clock.systemUTC());
+    }
+
+    public FeedArchive(Path directory, Clock clock) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.clock = clock;
+    }
+
+    /**
+     * @param bytes Compressed size after which a new segment is started
+     */
+    public FeedArchive withMaxSegmentSize(long bytes) {
+        this.maxSegmentSize = bytes;
+        return this;
+    }
+
+    /**
+     * Archive a raw page of the given feed, pages without entries are ignored.
+     */
+    public synchronized void append(FeedType type, byte[] page) throws IOException {
+        List<String> ids = new ArrayList<>();
+        FeedProjection projection = type == FeedType.MANDATE ? FeedProjection.of("OrgnlMndtId", "Mndt") : FeedProjection.of("id");
+        FeedProjection.forEachEntry(page, type.getEntries(), projection, entry -> ids.add(String.valueOf(type.idOf(entry))));
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(page.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(page);
+        }
+        byte[] member = compressed.toByteArray();
+
+        long now = clock.millis();
+        Segment segment = segments.get(type);
+        if (segment == null) {
+            segment = new Segment(type, now);
+            segments.put(type, segment);
+        }
+        long offset = segment.data.size();
+        segment.data.write(ByteBuffer.wrap(member), offset);
+        StringBuilder lines = new StringBuilder();
+        for (String id : ids) {
+            lines.append(now).append('\t').append(offset).append('\t').append(member.length).append('\t').append(id).append('\n');
+        }
+        segment.index.write(lines.toString());
+        segment.index.flush();
+
+        if (offset + member.length >= maxSegmentSize) {
+            segment.close();
+            segments.remove(type);
+        }
+    }
+
+    /**
+     * Hand every archived entry of a feed that was archived in [from, to) to the consumer, in archive order
+     */
+    public void replay(FeedType type, Instant from, Instant to, Consumer<JSONObject> consumer) throws IOException {
+        long fromMillis = from.toEpochMilli();
+        long toMillis = to.toEpochMilli();
+        for (Path segment : segments(type)) {
+            if (startOf(segment) >= toMillis) {
+                break;
+            }
+            long lastOffset = -1;
+            for (IndexLine line : readIndex(segment)) {
+                if (line.archivedAt >= fromMillis && line.archivedAt < toMillis && line.offset != lastOffset) {
+                    lastOffset = line.offset;
+                    FeedProjection.forEachEntry(readPage(segment, line), type.getEntries(), null, consumer);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return every archived version of the entry with the given id (eg. mandate number, invoice id), oldest first
+     */
+    public List<JSONObject> find(FeedType type, String id) throws IOException {
+        List<JSONObject> found = new ArrayList<>();
+        for (Path segment : segments(type)) {
+            long lastOffset = -1;
+            for (IndexLine line : readIndex(segment)) {
+                if (line.id.equals(id) && line.offset != lastOffset) {
+                    lastOffset = line.offset;
+                    FeedProjection.forEachEntry(readPage(segment, line), type.getEntries(), null, entry -> {
+                        if (id.equals(type.idOf(entry))) {
+                            found.add(entry);
+                        }
+                    });
+                }
+            }
+        }
+        return found;
+    }
+
+    public void replayDocuments(DocumentCallback callback, Instant from, Instant to) throws IOException {
+        replay(FeedType.MANDATE, from, to, callback::message);
+    }
+
+    public void replayInvoices(InvoiceCallback callback, Instant from, Instant to) throws IOException {
+        replay(FeedType.INVOICE, from, to, callback::invoice);
+    }
+
+    public void replayTransactions(TransactionCallback callback, Instant from, Instant to) throws IOException {
+        replay(FeedType.TRANSACTION, from, to, callback::transaction);
+    }
+
+    public void replayPaylinks(PaylinkCallback callback, Instant from, Instant to) throws IOException {
+        replay(FeedType.PAYLINK, from, to, callback::paylink);
+    }
+
+    public void replayRefunds(RefundCallback callback, Instant from, Instant to) throws IOException {
+        replay(FeedType.REFUND, from, to, callback::refund);
+    }
+
+    /**
+     * Remove all closed segments that only hold pages archived before the given instant
+     */
+    public synchronized void purgeBefore(Instant before) throws IOException {
+        for (FeedType type : FeedType.values()) {
+            List<Path> all = segments(type);
+            Segment open = segments.get(type);
+            // a segment ends where the next one starts
+            for (int i = 0; i + 1 < all.size(); i++) {
+                Path segment = all.get(i);
+                if (startOf(all.get(i + 1)) <= before.toEpochMilli() && (open == null || !open.path.equals(segment))) {
+                    Files.deleteIfExists(segment);
+                    Files.deleteIfExists(indexOf(segment));
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    private List<Path> segments(FeedType type) throws IOException {
+        Path dir = directory.resolve(type.name().toLowerCase(Locale.ROOT));
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(SEGMENT)).sorted().toList();
+        }
+    }
+
+    private static long startOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT.length()));
+    }
+
+    private static Path indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - SEGMENT.length()) + INDEX);
+    }
+
+    private static List<IndexLine> readIndex(Path segment) throws IOException {
+        Path index = indexOf(segment);
+        List<IndexLine> lines = new ArrayList<>();
+        if (!Files.exists(index)) {
+            return lines;
+        }
+        long segmentSize = Files.size(segment);
+        for (String line : Files.readAllLines(index, UTF_8)) {
+            String[] parts = line.split("\t", 4);
+            if (parts.length == 4) {
+                IndexLine indexLine = new IndexLine(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Integer.parseInt(parts[2]), parts[3]);
+                // the index can be ahead of the data after a crash
+                if (indexLine.offset + indexLine.length <= segmentSize) {
+                    lines.add(indexLine);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static byte[] readPage(Path segment, IndexLine line) throws IOException {
+        ByteBuffer member = ByteBuffer.allocate(line.length);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            while (member.hasRemaining() && channel.read(member, line.offset + member.position()) >= 0) {
+                // keep reading
+            }
+        }
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(member.array()))) {
+            return gzip.readAllBytes();
+        }
+    }
+
+    private record IndexLine(long archivedAt, long offset, int length, String id) {
+    }
+
+    private class Segment implements Closeable {
+        private final Path path;
+        private final FileChannel data;
+        private final Writer index;
+
+        Segment(FeedType type, long start) throws IOException {
+            Path dir = Files.createDirectories(directory.resolve(type.name().toLowerCase(Locale.ROOT)));
+            String name = String.format("%020d", start);
+            this.path = dir.resolve(name + SEGMENT);
+            this.data = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            this.index = Files.newBufferedWriter(dir.resolve(name + INDEX), UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                data.force(true);
+                data.close();
+            } finally {
+                index.close();
+            }
+        }
+    }
+}
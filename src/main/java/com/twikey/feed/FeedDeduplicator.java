@@ -0,0 +1,160 @@
+package com.twikey.feed;
+
+import org.json.JSONObject;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Drops feed events that were already delivered, eg. after a retry or when a journal is replayed.
+ * <p>
+ * Memory is fixed: the most recent event keys are kept in an exact LRU while older ones are remembered in
+ * two rotating bloom filters covering the configured window. An event that is not in the LRU but hits the bloom
+ * filter is considered a duplicate, the false positive rate of that filter can be tuned with the constructor.
+ * <p>
+ * Events are keyed as follows:
+ * <ul>
+ * <li>mandates: mandate number + EvtTime</li>
+ * <li>transactions: transaction id + state</li>
+ * <li>invoices: invoice id + state</li>
+ * <li>paylinks and refunds: id + state</li>
+ * </ul>
+ *
+ * <pre>
+ * TwikeyClient api = new TwikeyClient(apiKey)
+ *         .withDeduplicator(new FeedDeduplicator(Duration.ofHours(24), 1_000_000, 50_000));
+ * </pre>
+ */
+public class FeedDeduplicator {
+
+    private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.000001;
+
+    private final Clock clock;
+    private final long generationMillis;
+    private final int bits;
+    private final int hashes;
+    private final Map<String, Boolean> recent;
+
+    private long[] current;
+    private long[] previous;
+    private long generationStart;
+
+    /**
+     * @param window         how long an event is remembered
+     * @param expectedEvents number of events expected within the window, used to size the bloom filters
+     * @param recentCapacity number of most recent keys kept exactly
+     */
+    public FeedDeduplicator(Duration window, int expectedEvents, int recentCapacity) {
+        this(window, expectedEvents, recentCapacity, DEFAULT_FALSE_POSITIVE_RATE, Clock.systemUTC());
+    }
+
+    /**
+     * @param window            how long an event is remembered
+     * @param expectedEvents    number of events expected within the window, used to size the bloom filters
+     * @param recentCapacity    number of most recent keys kept exactly
+     * @param falsePositiveRate chance that an unseen event older than the LRU is wrongly dropped
+     * @param clock             source of time for rotating the window
+     */
+    public FeedDeduplicator(Duration window, int expectedEvents, int recentCapacity, double falsePositiveRate, Clock clock) {
+        if (expectedEvents <= 0 || recentCapacity <= 0) {
+            throw new IllegalArgumentException("expectedEvents and recentCapacity must be positive");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+        }
+        this.clock = clock;
+        // two generations of half the window each, so an event is remembered between window/2 and window
+        this.generationMillis = Math.max(1, window.toMillis() / 2);
+        long optimalBits = (long) Math.ceil(-expectedEvents * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, optimalBits));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedEvents * Math.log(2)));
+        this.recent = new LinkedHashMap<>(Math.min(recentCapacity, 1 << 16), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > recentCapacity;
+            }
+        };
+        this.current = new long[(bits + 63) >>> 6];
+        this.previous = new long[current.length];
+        this.generationStart = clock.millis();
+    }
+
+    /**
+     * @return true when the event was not seen before (and is now remembered), false for a duplicate
+     */
+    public boolean firstSeen(FeedType type, JSONObject event) {
+        String key = keyOf(type, event);
+        return key == null || firstSeen(key);
+    }
+
+    /**
+     * @return true when the key was not seen before (and is now remembered), false for a duplicate
+     */
+    public synchronized boolean firstSeen(String key) {
+        rotate();
+        if (recent.put(key, Boolean.TRUE) != null) {
+            return false;
+        }
+        long h1 = hash(key);
+        long h2 = (h1 >>> 32) | 1;
+        boolean seen = true;
+        for (int i = 0; i < hashes; i++) {
+            int bit = (int) (((h1 + i * h2) & Long.MAX_VALUE) % bits);
+            long mask = 1L << bit;
+            int word = bit >>> 6;
+            if ((current[word] & mask) == 0 && (previous[word] & mask) == 0) {
+                seen = false;
+            }
+            current[word] |= mask;
+        }
+        return !seen;
+    }
+
+    /**
+     * @return the key identifying the event or null when it has no identity (such events are never dropped)
+     */
+    public static String keyOf(FeedType type, JSONObject event) {
+        String id = type.idOf(event);
+        if (id == null) {
+            return null;
+        }
+        if (type == FeedType.MANDATE) {
+            return type.ordinal() + ":" + id + '@' + event.optString("EvtTime");
+        }
+        return type.ordinal() + ":" + id + '/' + event.optString("state");
+    }
+
+    private void rotate() {
+        long now = clock.millis();
+        long elapsed = now - generationStart;
+        if (elapsed >= 2 * generationMillis) {
+            Arrays.fill(previous, 0);
+            Arrays.fill(current, 0);
+            generationStart = now;
+        } else if (elapsed >= generationMillis) {
+            long[] recycled = previous;
+            Arrays.fill(recycled, 0);
+            previous = current;
+            current = recycled;
+            generationStart += generationMillis;
+        }
+    }
+
+    private static long hash(String key) {
+        // 64-bit FNV-1a followed by a murmur finalizer
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
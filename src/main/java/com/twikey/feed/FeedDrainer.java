@@ -0,0 +1,265 @@
+package com.twikey.feed;
+
+import com.twikey.TwikeyClient;
+import com.twikey.callback.DocumentCallback;
+import com.twikey.callback.InvoiceCallback;
+import com.twikey.callback.PaylinkCallback;
+import com.twikey.callback.RefundCallback;
+import com.twikey.callback.TransactionCallback;
+
+import java.io.Closeable;
+import java.net.URLDecoder;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Drains the feeds when Twikey pings the webhook, coalescing bursts of pings into a single drain.
+ * <p>
+ * A drain starts once no ping arrived for <code>debounce</code>, but never later than <code>maxLatency</code> after
+ * the first pending ping. Pings arriving while a drain of the same feed is running cause exactly one extra drain
+ * afterwards, so nothing that was signalled is missed.
+ *
+ * <pre>
+ * FeedDrainer drainer = new FeedDrainer(api, Duration.ofMillis(500), Duration.ofSeconds(5))
+ *         .onInvoices(invoiceCallback)
+ *         .onTransactions(transactionCallback);
+ *
+ * // in the webhook endpoint
+ * if (!drainer.onWebhook(request.getHeader("X-SIGNATURE"), request.getQueryString())) {
+ *     response.setStatus(403);
+ * }
+ * </pre>
+ */
+public class FeedDrainer implements Closeable {
+
+    /**
+     * Work to perform when a feed needs to be drained, typically calling one of the feed methods of the client
+     */
+    @FunctionalInterface
+    public interface Drain {
+        void drain() throws Exception, TwikeyClient.UserException;
+    }
+
+    private final TwikeyClient twikeyClient;
+    private final long debounceNanos;
+    private final long maxLatencyNanos;
+    private final ScheduledExecutorService scheduler;
+    private final Map<FeedType, State> states = new EnumMap<>(FeedType.class);
+    private BiConsumer<FeedType, Throwable> errorHandler;
+
+    /**
+     * @param twikeyClient client used to verify the webhook signatures
+     * @param debounce     quiet period after the last ping before draining
+     * @param maxLatency   maximum time between the first ping and the start of the drain
+     */
+    public FeedDrainer(TwikeyClient twikeyClient, Duration debounce, Duration maxLatency) {
+        this(twikeyClient, debounce, maxLatency, Executors.newScheduledThreadPool(FeedType.values().length, r -> {
+            Thread thread = new Thread(r, "twikey-feed-drainer");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public FeedDrainer(TwikeyClient twikeyClient, Duration debounce, Duration maxLatency, ScheduledExecutorService scheduler) {
+        if (maxLatency.compareTo(debounce) < 0) {
+            throw new IllegalArgumentException("maxLatency should not be smaller than debounce");
+        }
+        this.twikeyClient = twikeyClient;
+        this.debounceNanos = debounce.toNanos();
+        this.maxLatencyNanos = maxLatency.toNanos();
+        this.scheduler = scheduler;
+    }
+
+    public FeedDrainer onDocuments(DocumentCallback callback) {
+        return register(FeedType.MANDATE, () -> twikeyClient.document().feed(callback));
+    }
+
+    public FeedDrainer onInvoices(InvoiceCallback callback, String... sideloads) {
+        return register(FeedType.INVOICE, () -> twikeyClient.invoice().feed(callback, sideloads));
+    }
+
+    public FeedDrainer onTransactions(TransactionCallback callback, String... sideloads) {
+        return register(FeedType.TRANSACTION, () -> twikeyClient.transaction().feed(callback, sideloads));
+    }
+
+    public FeedDrainer onPaylinks(PaylinkCallback callback, String... sideloads) {
+        return register(FeedType.PAYLINK, () -> twikeyClient.paylink().feed(callback, sideloads));
+    }
+
+    public FeedDrainer onRefunds(RefundCallback callback, String... sideloads) {
+        return register(FeedType.REFUND, () -> twikeyClient.refund().feed(callback, sideloads));
+    }
+
+    public synchronized FeedDrainer register(FeedType type, Drain drain) {
+        states.put(type, new State(type, drain));
+        return this;
+    }
+
+    /**
+     * @param errorHandler Receives failures of a drain, the next ping will trigger a new attempt. Without a handler
+     *                     the failure is only kept, see {@link #getLastFailure(FeedType)}
+     */
+    public FeedDrainer withErrorHandler(BiConsumer<FeedType, Throwable> errorHandler) {
+        this.errorHandler = errorHandler;
+        return this;
+    }
+
+    /**
+     * Verifies an incoming webhook and schedules a drain of the feed it refers to.
+     *
+     * @param signatureHeader request.getHeader("X-SIGNATURE")
+     * @param queryString     request.getQueryString()
+     * @return false if the signature is invalid, in which case nothing is scheduled
+     */
+    public boolean onWebhook(String signatureHeader, String queryString) {
+        if (signatureHeader == null || queryString == null || !twikeyClient.verifyWebHookSignature(signatureHeader, queryString)) {
+            return false;
+        }
+        FeedType type = typeOf(queryString);
+        if (type != null) {
+            signal(type);
+        } else {
+            for (FeedType registered : registered()) {
+                signal(registered);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Signal that the given feed has pending items (for webhooks that were verified elsewhere)
+     */
+    public void signal(FeedType type) {
+        State state;
+        synchronized (this) {
+            state = states.get(type);
+        }
+        if (state != null) {
+            state.ping();
+        }
+    }
+
+    /**
+     * @return why the last drain of the feed failed, null when it succeeded (or never ran)
+     */
+    public Throwable getLastFailure(FeedType type) {
+        State state;
+        synchronized (this) {
+            state = states.get(type);
+        }
+        return state != null ? state.lastFailure : null;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+    }
+
+    private synchronized FeedType[] registered() {
+        return states.keySet().toArray(new FeedType[0]);
+    }
+
+    /**
+     * @return the feed the webhook refers to based on its type parameter or null when unknown
+     */
+    static FeedType typeOf(String queryString) {
+        for (String param : queryString.split("&")) {
+            int eq = param.indexOf('=');
+            if (eq > 0 && "type".equals(param.substring(0, eq))) {
+                String value = URLDecoder.decode(param.substring(eq + 1), UTF_8).toLowerCase(Locale.ROOT);
+                switch (value) {
+                    case "contract":
+                    case "mandate":
+                        return FeedType.MANDATE;
+                    case "invoice":
+                        return FeedType.INVOICE;
+                    case "payment":
+                    case "transaction":
+                        return FeedType.TRANSACTION;
+                    case "paymentlink":
+                    case "link":
+                        return FeedType.PAYLINK;
+                    case "refund":
+                    case "transfer":
+                        return FeedType.REFUND;
+                    default:
+                        return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private class State {
+        private final FeedType type;
+        private final Drain drain;
+
+        private long firstPing;
+        private boolean pending;
+        private boolean running;
+        private boolean dirty;
+        private ScheduledFuture<?> scheduled;
+        private volatile Throwable lastFailure;
+
+        State(FeedType type, Drain drain) {
+            this.type = type;
+            this.drain = drain;
+        }
+
+        synchronized void ping() {
+            if (running) {
+                dirty = true;
+                return;
+            }
+            long now = System.nanoTime();
+            if (!pending) {
+                pending = true;
+                firstPing = now;
+            }
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            long delay = Math.max(0, Math.min(debounceNanos, firstPing + maxLatencyNanos - now));
+            scheduled = scheduler.schedule(this::run, delay, TimeUnit.NANOSECONDS);
+        }
+
+        private void run() {
+            synchronized (this) {
+                if (!pending || running) {
+                    return;
+                }
+                pending = false;
+                running = true;
+                scheduled = null;
+            }
+            try {
+                drain.drain();
+                lastFailure = null;
+            } catch (Exception | TwikeyClient.UserException e) {
+                lastFailure = e;
+                if (errorHandler != null) {
+                    errorHandler.accept(type, e);
+                }
+            } finally {
+                boolean again;
+                synchronized (this) {
+                    running = false;
+                    again = dirty;
+                    dirty = false;
+                }
+                if (again) {
+                    ping();
+                }
+            }
+        }
+    }
+}
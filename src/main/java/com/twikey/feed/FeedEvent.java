@@ -0,0 +1,85 @@
+package com.twikey.feed;
+
+import com.twikey.codec.SnapshotReader;
+import com.twikey.codec.SnapshotWriter;
+import com.twikey.codec.StringInterner;
+import org.json.JSONObject;
+
+/**
+ * A single entry of one of the feeds.
+ * <p>
+ * Instances handed out by {@link FeedRingBuffer} are preallocated slots that get reused once every subscriber
+ * moved past them, so subscribers should not hold on to the event itself (the entry can be kept).
+ */
+public class FeedEvent {
+
+    // dictionary of the snapshot format, append only (not the ordinals so reordering FeedType is harmless)
+    private static final String[] TYPES = {"MANDATE", "INVOICE", "TRANSACTION", "PAYLINK", "REFUND"};
+
+    private long sequence = -1;
+    private FeedType type;
+    private JSONObject entry;
+
+    public FeedEvent() {
+    }
+
+    public FeedEvent(FeedType type, JSONObject entry) {
+        this.type = type;
+        this.entry = entry;
+    }
+
+    void set(long sequence, FeedType type, JSONObject entry) {
+        this.sequence = sequence;
+        this.type = type;
+        this.entry = entry;
+    }
+
+    /**
+     * @return position of this event in the ring buffer or -1 when not published through one
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public FeedType getType() {
+        return type;
+    }
+
+    /**
+     * @return the raw entry as it appeared in the feed
+     */
+    public JSONObject getEntry() {
+        return entry;
+    }
+
+    /**
+     * Writes the compact binary form of the event, the entry itself is kept as json text as it has no fixed fields
+     */
+    public void writeSnapshot(SnapshotWriter out) {
+        out.header(SnapshotWriter.FEED_EVENT)
+                .signedVarint(sequence)
+                .dictionary(TYPES, type != null ? type.name() : null)
+                .json(entry);
+    }
+
+    /**
+     * Reads an event written by {@link #writeSnapshot(SnapshotWriter)}
+     */
+    public static FeedEvent fromSnapshot(SnapshotReader in) {
+        in.header(SnapshotWriter.FEED_EVENT);
+        FeedEvent event = new FeedEvent();
+        long sequence = in.signedVarint();
+        String type = in.dictionary(TYPES, StringInterner.shared());
+        event.set(sequence, type != null ? FeedType.valueOf(type) : null, in.json());
+        return event;
+    }
+
+    @Override
+    public String toString() {
+        return "FeedEvent{" +
+                "sequence=" + sequence +
+                ", type=" + type +
+                ", entry=" + entry +
+                '}';
+    }
+}
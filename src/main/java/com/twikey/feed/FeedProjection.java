@@ -0,0 +1,91 @@
+package com.twikey.feed;
+
+import com.twikey.codec.JsonReader;
+import org.json.JSONObject;
+
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Restricts the fields that are decoded from every entry of a feed.
+ * <p>
+ * Fields that are not part of the projection (including sideloads requested via <code>include=</code>) are
+ * skipped on the raw bytes and never turned into objects or strings.
+ *
+ * <pre>
+ * api.transaction().feed(tx -&gt; ..., FeedProjection.of("id", "state", "amount", "ref"));
+ * </pre>
+ */
+public final class FeedProjection {
+
+    private final Set<String> fields;
+
+    private FeedProjection(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * @param fields top-level fields of a feed entry to keep
+     */
+    public static FeedProjection of(String... fields) {
+        if (fields == null || fields.length == 0) {
+            throw new IllegalArgumentException("At least one field is required");
+        }
+        return new FeedProjection(Set.of(fields));
+    }
+
+    public Set<String> getFields() {
+        return fields;
+    }
+
+    public boolean includes(String field) {
+        return fields.contains(field);
+    }
+
+    /**
+     * Reads the next object from the reader keeping only the projected fields.
+     */
+    public JSONObject read(JsonReader reader) {
+        JSONObject entry = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (fields.contains(name)) {
+                entry.put(name, reader.readValue());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return entry;
+    }
+
+    /**
+     * Walks a feed page (eg. <code>{"Entries":[...]}</code>) and hands every (projected) entry to the consumer.
+     *
+     * @param page       raw response of the feed
+     * @param arrayName  name of the array holding the entries
+     * @param projection fields to keep or null to keep everything
+     * @param consumer   receives every entry
+     * @return the number of entries on the page
+     */
+    public static int forEachEntry(byte[] page, String arrayName, FeedProjection projection, Consumer<JSONObject> consumer) {
+        JsonReader reader = new JsonReader(page);
+        int count = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (arrayName.equals(reader.nextName())) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    consumer.accept(projection != null ? projection.read(reader) : reader.readObject());
+                    count++;
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return count;
+    }
+}
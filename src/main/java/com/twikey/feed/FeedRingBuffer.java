@@ -0,0 +1,330 @@
+package com.twikey.feed;
+
+import com.twikey.callback.InvoiceCallback;
+import com.twikey.callback.PaylinkCallback;
+import com.twikey.callback.RefundCallback;
+import com.twikey.callback.TransactionCallback;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Fans the entries of the feeds out to several subscribers within the same JVM.
+ * <p>
+ * As the feeds are destructive queues only one component can drain them. By passing one of the callbacks of this
+ * buffer to the feed methods every entry is published in a preallocated slot of a ring and every subscriber reads
+ * it on its own thread, following its own cursor. The producer only blocks when the slowest subscriber is a full
+ * ring behind.
+ *
+ * <pre>
+ * FeedRingBuffer ring = new FeedRingBuffer(4096, FeedRingBuffer.WaitStrategy.blocking());
+ * ring.subscribe("billing", event -&gt; billing.handle(event));
+ * ring.subscribe("crm", event -&gt; crm.handle(event));
+ * api.invoice().feed(ring.invoiceCallback());
+ * </pre>
+ */
+public class FeedRingBuffer implements Closeable {
+
+    /**
+     * How subscribers wait for new events, trading latency for cpu usage
+     */
+    public interface WaitStrategy {
+
+        /**
+         * @return the highest published sequence, at least <code>sequence</code> unless the buffer is closing
+         */
+        long waitFor(long sequence, AtomicLong cursor, FeedRingBuffer ring) throws InterruptedException;
+
+        default void signalAll() {
+        }
+
+        /**
+         * Lowest latency, burns a core per subscriber
+         */
+        static WaitStrategy busySpin() {
+            return (sequence, cursor, ring) -> {
+                long available;
+                while ((available = cursor.get()) < sequence && !ring.halted()) {
+                    Thread.onSpinWait();
+                }
+                return available;
+            };
+        }
+
+        /**
+         * Spins for a while before yielding the thread
+         */
+        static WaitStrategy yielding() {
+            return (sequence, cursor, ring) -> {
+                long available;
+                int spins = 100;
+                while ((available = cursor.get()) < sequence && !ring.halted()) {
+                    if (spins > 0) {
+                        spins--;
+                        Thread.onSpinWait();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+                return available;
+            };
+        }
+
+        /**
+         * Parks the thread between polls
+         */
+        static WaitStrategy sleeping(long parkNanos) {
+            return (sequence, cursor, ring) -> {
+                long available;
+                while ((available = cursor.get()) < sequence && !ring.halted()) {
+                    LockSupport.parkNanos(parkNanos);
+                }
+                return available;
+            };
+        }
+
+        /**
+         * Waits on a condition signalled by the producer, lowest cpu usage
+         */
+        static WaitStrategy blocking() {
+            ReentrantLock lock = new ReentrantLock();
+            Condition published = lock.newCondition();
+            return new WaitStrategy() {
+                @Override
+                public long waitFor(long sequence, AtomicLong cursor, FeedRingBuffer ring) throws InterruptedException {
+                    long available = cursor.get();
+                    if (available >= sequence) {
+                        return available;
+                    }
+                    lock.lock();
+                    try {
+                        while ((available = cursor.get()) < sequence && !ring.halted()) {
+                            published.await(10, TimeUnit.MILLISECONDS);
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    return available;
+                }
+
+                @Override
+                public void signalAll() {
+                    lock.lock();
+                    try {
+                        published.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            };
+        }
+    }
+
+    private final FeedEvent[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final AtomicLong failures = new AtomicLong();
+    private BiConsumer<FeedEvent, RuntimeException> errorHandler;
+    private volatile RuntimeException lastFailure;
+    private volatile boolean running = true;
+
+    /**
+     * @param size         number of slots, rounded up to a power of 2
+     * @param waitStrategy how subscribers wait for new events
+     */
+    public FeedRingBuffer(int size, WaitStrategy waitStrategy) {
+        if (size < 1 || size > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        this.slots = new FeedEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new FeedEvent();
+        }
+        this.mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * @param errorHandler Receives exceptions thrown by subscribers, the subscriber continues with the next event.
+     *                     Without a handler they are only counted, see {@link #getFailureCount()}
+     */
+    public FeedRingBuffer withErrorHandler(BiConsumer<FeedEvent, RuntimeException> errorHandler) {
+        this.errorHandler = errorHandler;
+        return this;
+    }
+
+    /**
+     * Register a subscriber receiving every event published from now on on its own (daemon) thread
+     */
+    public synchronized Closeable subscribe(String name, Consumer<FeedEvent> handler) {
+        Subscriber subscriber = new Subscriber(handler, cursor.get());
+        subscribers.add(subscriber);
+        Thread thread = new Thread(subscriber, "twikey-feed-" + name);
+        thread.setDaemon(true);
+        subscriber.thread = thread;
+        thread.start();
+        return subscriber;
+    }
+
+    /**
+     * Publish an entry, waiting while the slowest subscriber is a full ring behind
+     */
+    public synchronized void publish(FeedType type, JSONObject entry) {
+        if (!running) {
+            throw new IllegalStateException("Ring buffer is closed");
+        }
+        long next = cursor.get() + 1;
+        long wrapPoint = next - slots.length;
+        while (wrapPoint > minimumSubscriberSequence(next - 1)) {
+            LockSupport.parkNanos(1_000);
+        }
+        slots[(int) (next & mask)].set(next, type, entry);
+        cursor.set(next);
+        waitStrategy.signalAll();
+    }
+
+    /**
+     * @return callback for {@link com.twikey.DocumentGateway#feedMessages}, the raw messages are published
+     */
+    public Consumer<JSONObject> documentMessages() {
+        return message -> publish(FeedType.MANDATE, message);
+    }
+
+    public InvoiceCallback invoiceCallback() {
+        return invoice -> publish(FeedType.INVOICE, invoice);
+    }
+
+    public TransactionCallback transactionCallback() {
+        return transaction -> publish(FeedType.TRANSACTION, transaction);
+    }
+
+    public PaylinkCallback paylinkCallback() {
+        return paylink -> publish(FeedType.PAYLINK, paylink);
+    }
+
+    public RefundCallback refundCallback() {
+        return refund -> publish(FeedType.REFUND, refund);
+    }
+
+    /**
+     * @return sequence of the last published event
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    public int getSize() {
+        return slots.length;
+    }
+
+    /**
+     * @return number of events a subscriber failed on
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * @return the last exception thrown by a subscriber, null if none failed
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Stops accepting events and waits until the subscribers handled everything that was published
+     */
+    @Override
+    public void close() {
+        running = false;
+        waitStrategy.signalAll();
+        for (Subscriber subscriber : subscribers) {
+            try {
+                subscriber.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean halted() {
+        return !running || Thread.currentThread().isInterrupted();
+    }
+
+    private long minimumSubscriberSequence(long fallback) {
+        long minimum = fallback;
+        for (Subscriber subscriber : subscribers) {
+            minimum = Math.min(minimum, subscriber.sequence.get());
+        }
+        return minimum;
+    }
+
+    private class Subscriber implements Runnable, Closeable {
+        private final Consumer<FeedEvent> handler;
+        private final AtomicLong sequence;
+        private volatile boolean active = true;
+        private Thread thread;
+
+        Subscriber(Consumer<FeedEvent> handler, long start) {
+            this.handler = handler;
+            this.sequence = new AtomicLong(start);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (active) {
+                    long next = sequence.get() + 1;
+                    long available = waitStrategy.waitFor(next, cursor, FeedRingBuffer.this);
+                    for (long seq = next; seq <= available; seq++) {
+                        FeedEvent event = slots[(int) (seq & mask)];
+                        try {
+                            handler.accept(event);
+                        } catch (RuntimeException e) {
+                            failures.incrementAndGet();
+                            lastFailure = e;
+                            if (errorHandler != null) {
+                                errorHandler.accept(event, e);
+                            }
+                        }
+                    }
+                    if (available >= next) {
+                        sequence.set(available);
+                    } else if (!running) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                subscribers.remove(this);
+            }
+        }
+
+        /**
+         * Unsubscribe, the producer no longer waits for this subscriber
+         */
+        @Override
+        public void close() {
+            active = false;
+            thread.interrupt();
+            subscribers.remove(this);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.twikey.feed;
+
+import org.json.JSONObject;
+
+/**
+ * The different feeds Twikey offers, each one acts as a queue that is drained by the corresponding gateway.
+ */
+public enum FeedType {
+    MANDATE("Messages"),
+    INVOICE("Invoices"),
+    TRANSACTION("Entries"),
+    PAYLINK("Links"),
+    REFUND("Entries");
+
+    private final String entries;
+
+    FeedType(String entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * @return name of the array holding the entries in a page of this feed
+     */
+    public String getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the identifier of the object an entry of this feed is about (eg. mandate number or invoice id)
+     */
+    public String idOf(JSONObject entry) {
+        if (this == MANDATE) {
+            String mandateNumber = entry.optString("OrgnlMndtId", null);
+            if (mandateNumber == null && entry.has("Mndt")) {
+                mandateNumber = entry.getJSONObject("Mndt").optString("MndtId", null);
+            }
+            return mandateNumber;
+        }
+        Object id = entry.opt("id");
+        return id != null ? id.toString() : null;
+    }
+}
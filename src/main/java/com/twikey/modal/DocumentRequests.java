@@ -1,5 +1,7 @@
 package com.twikey.modal;
 
+import com.twikey.codec.FormEncoder;
+
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -204,6 +206,54 @@ public interface DocumentRequests {
             return result;
         }
 
+        /**
+         * Write the same parameters as {@link #toRequest()} straight into a form body.
+         */
+        public void writeForm(FormEncoder form) {
+            form.add("ct", ct);
+            if(account != null) {
+                form.add("iban", account.iban());
+                form.add("bic", account.bic());
+            }
+            if(customer != null) {
+                form.add("customerNumber", customer.getCustomerNumber());
+                form.add("email", customer.getEmail());
+                form.add("firstname", customer.getFirstname());
+                form.add("lastname", customer.getLastname());
+                form.add("mobile", customer.getMobile());
+                form.add("address", customer.getStreet());
+                form.add("city", customer.getCity());
+                form.add("zip", customer.getZip());
+                form.add("country", customer.getCountry());
+                form.add("companyName", customer.getCompanyName());
+                form.add("vatno", customer.getCoc());
+            }
+            form.add("l", l);
+            form.add("mandateNumber", mandateNumber);
+            form.add("contractNumber", contractNumber);
+            form.add("campaign", campaign);
+            form.add("prefix", prefix);
+            form.add("ed", ed);
+            form.add("token", token);
+            form.add("document", document);
+            form.add("transactionMessage", transactionMessage);
+            form.add("transactionRef", transactionRef);
+            form.add("plan", plan);
+            if(subscriptionStart != null) {
+                form.add("subscriptionStart", subscriptionStart);
+                form.add("subscriptionRecurrence", subscriptionRecurrence);
+                form.add("subscriptionMessage", subscriptionMessage);
+                form.add("subscriptionRef", subscriptionRef);
+                form.add("subscriptionAmount", subscriptionAmount);
+                form.add("subscriptionStopAfter", subscriptionStopAfter);
+            }
+            form.add("check", check);
+            form.add("sendInvite", sendInvite);
+            form.add("requireValidation", requireValidation);
+            form.add("reminderDays", reminderDays);
+            form.add("transactionAmount", transactionAmount);
+        }
+
         public static void putIfNotNull(Map<String, String> map, String key, Object value) {
             if (value != null) {
                 if (value instanceof Boolean) {
@@ -419,6 +469,17 @@ public interface DocumentRequests {
             putIfNotNull(result, "bankSignature", bankSignature);
             return result;
         }
+
+        @Override
+        public void writeForm(FormEncoder form) {
+            super.writeForm(form);
+            form.add("method", method.getValue());
+            form.add("digsig", digsig);
+            form.add("key", key);
+            form.add("signDate", signDate);
+            form.add("place", place);
+            form.add("bankSignature", bankSignature);
+        }
     }
 
     /**
@@ -512,6 +573,16 @@ public interface DocumentRequests {
             }
             return map;
         }
+
+        public void writeForm(FormEncoder form) {
+            form.add("type", type.getValue());
+            form.add("mndtId", mandateNumber);
+            form.add("reminder", reminder);
+        }
+
+        public String getMandateNumber() {
+            return mandateNumber;
+        }
     }
 
     /**
@@ -538,7 +609,7 @@ public interface DocumentRequests {
         }
         public static MandateQuery fromIban(String iban) {return new MandateQuery(iban, null, null);}
         public static MandateQuery fromCustomerNumber(String customerNumber) {return new MandateQuery(null, customerNumber, null);}
-        public static MandateQuery fromEmail(String email) {return new MandateQuery(email, null, null);}
+        public static MandateQuery fromEmail(String email) {return new MandateQuery(null, null, email);}
 
         public MandateQuery withIban(String iban) {this.iban=iban;return this;}
         public MandateQuery withCustomerNumber(String customerNumber) {this.customerNumber=customerNumber;return this;}
@@ -575,6 +646,33 @@ public interface DocumentRequests {
             this.page = page;
             return this;
         }
+
+        /**
+         * @return a copy of this query for the given page, this query is left as is
+         */
+        public MandateQuery forPage(int page) {
+            return new MandateQuery(iban, customerNumber, email).setState(state).setPage(page);
+        }
+
+        public String getIban() {
+            return iban;
+        }
+
+        public String getCustomerNumber() {
+            return customerNumber;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        public Integer getPage() {
+            return page;
+        }
     }
 
     /**
@@ -609,6 +707,14 @@ public interface DocumentRequests {
             this.force = force;
             return this;
         }
+
+        public String getMandateNumber() {
+            return mandateNumber;
+        }
+
+        public boolean isForce() {
+            return force;
+        }
     }
 
     /**
@@ -712,6 +818,34 @@ public interface DocumentRequests {
             return result;
         }
 
+        /**
+         * Write the same parameters as {@link #toRequest()} straight into a form body, the explicitly set fields
+         * taking precedence over those of the customer.
+         */
+        public void writeForm(FormEncoder form) {
+            form.add("mndtId", mndtId);
+            form.add("ct", ct);
+            form.add("state", state);
+
+            if (account != null) {
+                form.add("iban", account.iban());
+                form.add("bic", account.bic());
+            }
+            Customer c = customer != null ? customer : new Customer();
+            form.add("customerNumber", customerNumber != null ? customerNumber : c.getCustomerNumber());
+            form.add("email", email != null ? email : c.getEmail());
+            form.add("firstname", firstname != null ? firstname : c.getFirstname());
+            form.add("lastname", lastname != null ? lastname : c.getLastname());
+            form.add("mobile", mobile != null ? mobile : c.getMobile());
+            form.add("address", address != null ? address : c.getStreet());
+            form.add("city", city != null ? city : c.getCity());
+            form.add("zip", zip != null ? zip : c.getZip());
+            form.add("country", country != null ? country : c.getCountry());
+            form.add("companyName", companyName != null ? companyName : c.getCompanyName());
+            form.add("coc", coc != null ? coc : c.getCoc());
+            form.add("l", l);
+        }
+
         public UpdateMandateRequest setCt(Long ct) {
             this.ct = ct;
             return this;
@@ -772,6 +906,10 @@ public interface DocumentRequests {
             return this;
         }
 
+        public String getMndtId() {
+            return mndtId;
+        }
+
         public UpdateMandateRequest setCustomerNumber(String customerNumber) {
             this.customerNumber = customerNumber;
             return this;
@@ -790,7 +928,7 @@ public interface DocumentRequests {
      * <p>Attributes:</p>
      * <ul>
      *   <li>mndtId (String, required): Mandate reference.</li>
-     *   <li>pdfPath (String, required): Path to the PDF file on disk.</li>
+     *   <li>pdfPath (String, required unless the pdf is passed to the gateway separately): Path to the PDF file on disk.</li>
      *   <li>bankSignature (Boolean, optional): Whether the bank signature is included.
      *       Defaults to true if not provided.</li>
      * </ul>
@@ -817,6 +955,18 @@ public interface DocumentRequests {
                 throw new IllegalArgumentException("pdfPath is required");
             }
         }
+
+        /**
+         * @param mndtId   Mandate reference (required), the pdf itself is passed separately to
+         *                 {@link com.twikey.DocumentGateway#uploadPdf(UploadPdfRequest, java.util.function.Supplier)}
+         *                 (or one of the other overloads taking the content).
+         */
+        public UploadPdfRequest(String mndtId) {
+            this(mndtId, null, false);
+            if (mndtId == null || mndtId.isEmpty()) {
+                throw new IllegalArgumentException("mndtId is required");
+            }
+        }
     }
 
 
@@ -1,6 +1,10 @@
 package com.twikey.modal;
 
 
+import com.twikey.codec.JsonReader;
+import com.twikey.codec.SnapshotReader;
+import com.twikey.codec.SnapshotWriter;
+import com.twikey.codec.StringInterner;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONTokener;
@@ -9,6 +13,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,6 +22,15 @@ import java.util.Objects;
 public interface DocumentResponse {
     class Document {
 
+        // state, type, bic, ... have few distinct values but are held for millions of mandates
+        private static final StringInterner INTERNER = StringInterner.shared();
+
+        // dictionaries of the snapshot format, append only
+        private static final String[] STATES = {"prepared", "signed", "cancelled", "suspended", "printed", "uploaded", "expired"};
+        private static final String[] TYPES = {"CORE", "B2B", "CDTC", "CDTA", "CDTS"};
+        private static final String[] SEQUENCE_TYPES = {"RCUR", "OOFF", "FRST", "FNAL"};
+        private static final String[] COUNTRIES = {"BE", "NL", "FR", "DE", "LU", "ES", "IT", "AT", "GB", "IE", "PT"};
+
         private String mandateNumber;
         private String state;
         private String type;
@@ -69,11 +83,11 @@ public interface DocumentResponse {
             Document resp = new Document();
 
             resp.mandateNumber = mndt.getString("MndtId");
-            resp.state = state;
-            resp.type = mndt.getString("LclInstrm");
+            resp.state = INTERNER.intern(state);
+            resp.type = INTERNER.intern(mndt.getString("LclInstrm"));
 
             JSONObject ocrncs = mndt.getJSONObject("Ocrncs");
-            resp.sequenceType = ocrncs.getString("SeqTp");
+            resp.sequenceType = INTERNER.intern(ocrncs.getString("SeqTp"));
             resp.signDate = ocrncs.getJSONObject("Drtn").getString("FrDt");
 
             JSONObject dbtr = mndt.getJSONObject("Dbtr");
@@ -84,19 +98,19 @@ public interface DocumentResponse {
             resp.debtorStreet = addr.getString("AdrLine");
             resp.debtorCity = addr.getString("TwnNm");
             resp.debtorZip = addr.getString("PstCd");
-            resp.debtorCountry = addr.getString("Ctry");
+            resp.debtorCountry = INTERNER.intern(addr.getString("Ctry"));
             if (dbtr.has("Id")) {
                 resp.btwNummer = dbtr.getString("Id");
             }
-            resp.countryOfResidence = dbtr.getString("CtryOfRes");
+            resp.countryOfResidence = INTERNER.intern(dbtr.getString("CtryOfRes"));
             resp.debtorEmail = ctct.getString("EmailAdr");
             resp.customerNumber = ctct.getString("Othr");
 
             resp.iban = mndt.getString("DbtrAcct");
 
             JSONObject agent = mndt.getJSONObject("DbtrAgt").getJSONObject("FinInstnId");
-            resp.bic = agent.getString("BICFI");
-            resp.debtorBank = agent.getString("Nm");
+            resp.bic = INTERNER.intern(agent.getString("BICFI"));
+            resp.debtorBank = INTERNER.intern(agent.getString("Nm"));
 
             resp.contractNumber = mndt.getString("RfrdDoc");
 
@@ -113,6 +127,136 @@ public interface DocumentResponse {
             return resp;
         }
 
+        /**
+         * Streaming counterpart of {@link #fromJson(JSONObject, String)}, missing fields are left null.
+         */
+        public static Document fromJson(JsonReader reader, String state) {
+            Document resp = new Document();
+            resp.state = INTERNER.intern(state);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("Mndt".equals(reader.nextName())) {
+                    readMandate(reader, resp);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return resp;
+        }
+
+        private static void readMandate(JsonReader reader, Document resp) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "MndtId" -> resp.mandateNumber = reader.nextString();
+                    case "LclInstrm" -> resp.type = reader.nextString(INTERNER);
+                    case "Ocrncs" -> {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "SeqTp" -> resp.sequenceType = reader.nextString(INTERNER);
+                                case "Drtn" -> {
+                                    reader.beginObject();
+                                    while (reader.hasNext()) {
+                                        if ("FrDt".equals(reader.nextName())) {
+                                            resp.signDate = reader.nextString();
+                                        } else {
+                                            reader.skipValue();
+                                        }
+                                    }
+                                    reader.endObject();
+                                }
+                                default -> reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    case "Dbtr" -> readDebtor(reader, resp);
+                    case "DbtrAcct" -> resp.iban = reader.nextString();
+                    case "DbtrAgt" -> {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if ("FinInstnId".equals(reader.nextName())) {
+                                reader.beginObject();
+                                while (reader.hasNext()) {
+                                    switch (reader.nextName()) {
+                                        case "BICFI" -> resp.bic = reader.nextString(INTERNER);
+                                        case "Nm" -> resp.debtorBank = reader.nextString(INTERNER);
+                                        default -> reader.skipValue();
+                                    }
+                                }
+                                reader.endObject();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    case "RfrdDoc" -> resp.contractNumber = reader.nextString();
+                    case "SplmtryData" -> {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            String key = null;
+                            String value = null;
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                switch (reader.nextName()) {
+                                    case "Key" -> key = reader.nextString();
+                                    case "Value" -> value = String.valueOf(reader.readValue());
+                                    default -> reader.skipValue();
+                                }
+                            }
+                            reader.endObject();
+                            if (key != null && !key.isEmpty()) {
+                                resp.supplementaryData.put(key, value);
+                            }
+                        }
+                        reader.endArray();
+                    }
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
+        private static void readDebtor(JsonReader reader, Document resp) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "Nm" -> resp.debtorName = reader.nextString();
+                    case "Id" -> resp.btwNummer = reader.nextString();
+                    case "CtryOfRes" -> resp.countryOfResidence = reader.nextString(INTERNER);
+                    case "PstlAdr" -> {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "AdrLine" -> resp.debtorStreet = reader.nextString();
+                                case "TwnNm" -> resp.debtorCity = reader.nextString();
+                                case "PstCd" -> resp.debtorZip = reader.nextString();
+                                case "Ctry" -> resp.debtorCountry = reader.nextString(INTERNER);
+                                default -> reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    case "CtctDtls" -> {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "EmailAdr" -> resp.debtorEmail = reader.nextString();
+                                case "Othr" -> resp.customerNumber = reader.nextString();
+                                default -> reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
         public static List<Document> fromQuery(JSONObject response) {
             JSONArray contracts = response.getJSONArray("Contracts");
             List<Document> docs = new ArrayList<>();
@@ -120,42 +264,138 @@ public interface DocumentResponse {
                 JSONObject contract = (JSONObject) kvcontract;
 
                 Document resp = new Document();
-                resp.type = contract.getString("type");
-                resp.state = contract.getString("state");
+                resp.type = INTERNER.intern(contract.getString("type"));
+                resp.state = INTERNER.intern(contract.getString("state"));
                 resp.mandateNumber = contract.getString("mandateNumber");
                 resp.contractNumber = contract.getString("contractNumber");
                 resp.signDate = contract.getString("signDate");
                 resp.iban = contract.getString("iban");
-                resp.bic = contract.getString("bic");
+                resp.bic = INTERNER.intern(contract.getString("bic"));
                 docs.add(resp);
             }
             return docs;
         }
 
+        /**
+         * Streaming counterpart of {@link #fromQuery(JSONObject)}
+         */
+        public static List<Document> fromQuery(JsonReader reader) {
+            List<Document> docs = new ArrayList<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"Contracts".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Document resp = new Document();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "type" -> resp.type = reader.nextString(INTERNER);
+                            case "state" -> resp.state = reader.nextString(INTERNER);
+                            case "mandateNumber" -> resp.mandateNumber = reader.nextString();
+                            case "contractNumber" -> resp.contractNumber = reader.nextString();
+                            case "signDate" -> resp.signDate = reader.nextString();
+                            case "iban" -> resp.iban = reader.nextString();
+                            case "bic" -> resp.bic = reader.nextString(INTERNER);
+                            default -> reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    docs.add(resp);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+            return docs;
+        }
+
+        /**
+         * Writes the compact binary form of the mandate, eg. to store it in a cache
+         */
+        public void writeSnapshot(SnapshotWriter out) {
+            out.header(SnapshotWriter.DOCUMENT)
+                    .string(getMandateNumber())
+                    .dictionary(STATES, getState())
+                    .dictionary(TYPES, getType())
+                    .dictionary(SEQUENCE_TYPES, getSequenceType())
+                    .string(getSignDate())
+                    .string(getDebtorName())
+                    .string(getDebtorStreet())
+                    .string(getDebtorCity())
+                    .string(getDebtorZip())
+                    .dictionary(COUNTRIES, getDebtorCountry())
+                    .string(getBtwNummer())
+                    .dictionary(COUNTRIES, getCountryOfResidence())
+                    .string(getDebtorEmail())
+                    .string(getCustomerNumber())
+                    .string(getIban())
+                    .string(getBic())
+                    .string(getDebtorBank())
+                    .string(getContractNumber());
+            Map<String, String> data = getSupplementaryData();
+            out.varint(data.size());
+            for (Map.Entry<String, String> entry : data.entrySet()) {
+                out.string(entry.getKey()).string(entry.getValue());
+            }
+        }
+
+        /**
+         * Reads a mandate written by {@link #writeSnapshot(SnapshotWriter)}
+         */
+        public static Document fromSnapshot(SnapshotReader in) {
+            in.header(SnapshotWriter.DOCUMENT);
+            Document resp = new Document();
+            resp.mandateNumber = in.string();
+            resp.state = in.dictionary(STATES, INTERNER);
+            resp.type = in.dictionary(TYPES, INTERNER);
+            resp.sequenceType = in.dictionary(SEQUENCE_TYPES, INTERNER);
+            resp.signDate = in.string();
+            resp.debtorName = in.string();
+            resp.debtorStreet = in.string();
+            resp.debtorCity = in.string();
+            resp.debtorZip = in.string();
+            resp.debtorCountry = in.dictionary(COUNTRIES, INTERNER);
+            resp.btwNummer = in.string();
+            resp.countryOfResidence = in.dictionary(COUNTRIES, INTERNER);
+            resp.debtorEmail = in.string();
+            resp.customerNumber = in.string();
+            resp.iban = in.string();
+            resp.bic = INTERNER.intern(in.string());
+            resp.debtorBank = INTERNER.intern(in.string());
+            resp.contractNumber = in.string();
+            for (long i = in.varint(); i > 0; i--) {
+                resp.supplementaryData.put(in.string(), in.string());
+            }
+            return resp;
+        }
+
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
-            sb.append("Mandate Number   : ").append(mandateNumber).append("\n");
-            sb.append("State            : ").append(state).append("\n");
-            sb.append("Type             : ").append(type).append("\n");
-            sb.append("Sequence Type    : ").append(sequenceType).append("\n");
-            sb.append("Sign Date        : ").append(signDate).append("\n");
-            sb.append("Debtor Name      : ").append(debtorName).append("\n");
-            sb.append("Debtor Street    : ").append(debtorStreet).append("\n");
-            sb.append("Debtor City      : ").append(debtorCity).append("\n");
-            sb.append("Debtor Zip       : ").append(debtorZip).append("\n");
-            sb.append("Debtor Country   : ").append(debtorCountry).append("\n");
-            sb.append("BTW Nummer       : ").append(btwNummer).append("\n");
-            sb.append("Country of Res   : ").append(countryOfResidence).append("\n");
-            sb.append("Debtor Email     : ").append(debtorEmail).append("\n");
-            sb.append("Customer Number  : ").append(customerNumber).append("\n");
-            sb.append("IBAN             : ").append(iban).append("\n");
-            sb.append("BIC              : ").append(bic).append("\n");
-            sb.append("Debtor Bank      : ").append(debtorBank).append("\n");
-            sb.append("Contract Number  : ").append(contractNumber).append("\n\n");
+            sb.append("Mandate Number   : ").append(getMandateNumber()).append("\n");
+            sb.append("State            : ").append(getState()).append("\n");
+            sb.append("Type             : ").append(getType()).append("\n");
+            sb.append("Sequence Type    : ").append(getSequenceType()).append("\n");
+            sb.append("Sign Date        : ").append(getSignDate()).append("\n");
+            sb.append("Debtor Name      : ").append(getDebtorName()).append("\n");
+            sb.append("Debtor Street    : ").append(getDebtorStreet()).append("\n");
+            sb.append("Debtor City      : ").append(getDebtorCity()).append("\n");
+            sb.append("Debtor Zip       : ").append(getDebtorZip()).append("\n");
+            sb.append("Debtor Country   : ").append(getDebtorCountry()).append("\n");
+            sb.append("BTW Nummer       : ").append(getBtwNummer()).append("\n");
+            sb.append("Country of Res   : ").append(getCountryOfResidence()).append("\n");
+            sb.append("Debtor Email     : ").append(getDebtorEmail()).append("\n");
+            sb.append("Customer Number  : ").append(getCustomerNumber()).append("\n");
+            sb.append("IBAN             : ").append(getIban()).append("\n");
+            sb.append("BIC              : ").append(getBic()).append("\n");
+            sb.append("Debtor Bank      : ").append(getDebtorBank()).append("\n");
+            sb.append("Contract Number  : ").append(getContractNumber()).append("\n\n");
 
             sb.append("Supplementary Data:\n");
-            for (Map.Entry<String, String> entry : supplementaryData.entrySet()) {
+            for (Map.Entry<String, String> entry : getSupplementaryData().entrySet()) {
                 sb.append(entry.getKey()).append(" : ").append(entry.getValue()).append("\n");
             }
 
@@ -163,6 +403,277 @@ public interface DocumentResponse {
         }
     }
 
+    /**
+     * {@link Document} backed by the raw bytes of the response, a field is only decoded when its getter is called.
+     * <p>
+     * Creating the view scans the json once to remember where each value starts, which is considerably cheaper than
+     * decoding all of them (and the supplementary data map) when only a few fields are read. The view keeps a
+     * reference to the whole response, so don't hold on to it longer than the response itself would be held.
+     * <p>
+     * Decoded values are cached, the view can be shared between threads (as the caches of the client do).
+     */
+    class LazyDocument extends Document {
+
+        private static final int MANDATE_NUMBER = 0;
+        private static final int STATE = 1;
+        private static final int TYPE = 2;
+        private static final int SEQUENCE_TYPE = 3;
+        private static final int SIGN_DATE = 4;
+        private static final int DEBTOR_NAME = 5;
+        private static final int DEBTOR_STREET = 6;
+        private static final int DEBTOR_CITY = 7;
+        private static final int DEBTOR_ZIP = 8;
+        private static final int DEBTOR_COUNTRY = 9;
+        private static final int BTW_NUMMER = 10;
+        private static final int COUNTRY_OF_RESIDENCE = 11;
+        private static final int DEBTOR_EMAIL = 12;
+        private static final int CUSTOMER_NUMBER = 13;
+        private static final int IBAN = 14;
+        private static final int BIC = 15;
+        private static final int DEBTOR_BANK = 16;
+        private static final int CONTRACT_NUMBER = 17;
+        private static final int SUPPLEMENTARY_DATA = 18;
+        private static final int FIELDS = 19;
+
+        private final byte[] buf;
+        private final String headerState;
+        // offset in buf of the value of every field, -1 when absent
+        private final int[] offsets = new int[FIELDS];
+        private String[] values;
+        private boolean supplementaryDataDecoded;
+
+        private LazyDocument(byte[] buf, String headerState) {
+            this.buf = buf;
+            this.headerState = headerState;
+            Arrays.fill(offsets, -1);
+        }
+
+        /**
+         * Lazy counterpart of {@link Document#fromJson(JsonReader, String)}
+         *
+         * @param reader reader positioned at the start of the /mandate/detail response
+         * @param state  value of the x-state header, if any
+         */
+        public static LazyDocument fromJson(JsonReader reader, String state) {
+            LazyDocument doc = new LazyDocument(reader.buffer(), Document.INTERNER.intern(state));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("Mndt".equals(reader.nextName())) {
+                    doc.indexMandate(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return doc;
+        }
+
+        /**
+         * Lazy counterpart of {@link Document#fromQuery(JsonReader)}, all views share the bytes of the response
+         */
+        public static List<Document> fromQuery(JsonReader reader) {
+            List<Document> docs = new ArrayList<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"Contracts".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    LazyDocument doc = new LazyDocument(reader.buffer(), null);
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "type" -> doc.mark(reader, TYPE);
+                            case "state" -> doc.mark(reader, STATE);
+                            case "mandateNumber" -> doc.mark(reader, MANDATE_NUMBER);
+                            case "contractNumber" -> doc.mark(reader, CONTRACT_NUMBER);
+                            case "signDate" -> doc.mark(reader, SIGN_DATE);
+                            case "iban" -> doc.mark(reader, IBAN);
+                            case "bic" -> doc.mark(reader, BIC);
+                            default -> reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    docs.add(doc);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+            return docs;
+        }
+
+        @Override public String getMandateNumber() { return string(MANDATE_NUMBER, false); }
+        @Override public String getState() { return headerState != null ? headerState : string(STATE, true); }
+        @Override public String getType() { return string(TYPE, true); }
+        @Override public String getSequenceType() { return string(SEQUENCE_TYPE, true); }
+        @Override public String getSignDate() { return string(SIGN_DATE, false); }
+        @Override public String getDebtorName() { return string(DEBTOR_NAME, false); }
+        @Override public String getDebtorStreet() { return string(DEBTOR_STREET, false); }
+        @Override public String getDebtorCity() { return string(DEBTOR_CITY, false); }
+        @Override public String getDebtorZip() { return string(DEBTOR_ZIP, false); }
+        @Override public String getDebtorCountry() { return string(DEBTOR_COUNTRY, true); }
+        @Override public String getBtwNummer() { return string(BTW_NUMMER, false); }
+        @Override public String getCountryOfResidence() { return string(COUNTRY_OF_RESIDENCE, true); }
+        @Override public String getDebtorEmail() { return string(DEBTOR_EMAIL, false); }
+        @Override public String getCustomerNumber() { return string(CUSTOMER_NUMBER, false); }
+        @Override public String getIban() { return string(IBAN, false); }
+        @Override public String getBic() { return string(BIC, true); }
+        @Override public String getDebtorBank() { return string(DEBTOR_BANK, true); }
+        @Override public String getContractNumber() { return string(CONTRACT_NUMBER, false); }
+
+        @Override
+        public synchronized Map<String, String> getSupplementaryData() {
+            Map<String, String> supplementaryData = super.getSupplementaryData();
+            if (!supplementaryDataDecoded) {
+                if (offsets[SUPPLEMENTARY_DATA] >= 0) {
+                    JsonReader reader = reader(SUPPLEMENTARY_DATA);
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String key = null;
+                        String value = null;
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "Key" -> key = reader.nextString();
+                                case "Value" -> value = String.valueOf(reader.readValue());
+                                default -> reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        if (key != null && !key.isEmpty()) {
+                            supplementaryData.put(key, value);
+                        }
+                    }
+                    reader.endArray();
+                }
+                // only once filled, a failure halfway is retried
+                supplementaryDataDecoded = true;
+            }
+            return supplementaryData;
+        }
+
+        private synchronized String string(int field, boolean intern) {
+            if (offsets[field] < 0) {
+                return null;
+            }
+            if (values == null) {
+                values = new String[FIELDS];
+            }
+            String value = values[field];
+            if (value == null) {
+                JsonReader reader = reader(field);
+                value = intern ? reader.nextString(Document.INTERNER) : reader.nextString();
+                values[field] = value;
+            }
+            return value;
+        }
+
+        private JsonReader reader(int field) {
+            // the reader stops after the value, the remainder of the buffer is never looked at
+            return new JsonReader(buf, offsets[field], buf.length - offsets[field]);
+        }
+
+        private void mark(JsonReader reader, int field) {
+            offsets[field] = reader.valueStart();
+            reader.skipValue();
+        }
+
+        private void indexMandate(JsonReader reader) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "MndtId" -> mark(reader, MANDATE_NUMBER);
+                    case "LclInstrm" -> mark(reader, TYPE);
+                    case "Ocrncs" -> {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "SeqTp" -> mark(reader, SEQUENCE_TYPE);
+                                case "Drtn" -> {
+                                    reader.beginObject();
+                                    while (reader.hasNext()) {
+                                        if ("FrDt".equals(reader.nextName())) {
+                                            mark(reader, SIGN_DATE);
+                                        } else {
+                                            reader.skipValue();
+                                        }
+                                    }
+                                    reader.endObject();
+                                }
+                                default -> reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    case "Dbtr" -> indexDebtor(reader);
+                    case "DbtrAcct" -> mark(reader, IBAN);
+                    case "DbtrAgt" -> {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if ("FinInstnId".equals(reader.nextName())) {
+                                reader.beginObject();
+                                while (reader.hasNext()) {
+                                    switch (reader.nextName()) {
+                                        case "BICFI" -> mark(reader, BIC);
+                                        case "Nm" -> mark(reader, DEBTOR_BANK);
+                                        default -> reader.skipValue();
+                                    }
+                                }
+                                reader.endObject();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    case "RfrdDoc" -> mark(reader, CONTRACT_NUMBER);
+                    case "SplmtryData" -> mark(reader, SUPPLEMENTARY_DATA);
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
+        private void indexDebtor(JsonReader reader) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "Nm" -> mark(reader, DEBTOR_NAME);
+                    case "Id" -> mark(reader, BTW_NUMMER);
+                    case "CtryOfRes" -> mark(reader, COUNTRY_OF_RESIDENCE);
+                    case "PstlAdr" -> {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "AdrLine" -> mark(reader, DEBTOR_STREET);
+                                case "TwnNm" -> mark(reader, DEBTOR_CITY);
+                                case "PstCd" -> mark(reader, DEBTOR_ZIP);
+                                case "Ctry" -> mark(reader, DEBTOR_COUNTRY);
+                                default -> reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    case "CtctDtls" -> {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "EmailAdr" -> mark(reader, DEBTOR_EMAIL);
+                                case "Othr" -> mark(reader, CUSTOMER_NUMBER);
+                                default -> reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+    }
+
     class PdfResponse {
         private final byte[] content;
         private final String contentType;
@@ -253,6 +764,27 @@ public interface DocumentResponse {
             return resp;
         }
 
+        public static MandateCreationResponse fromJson(JsonReader reader) {
+            MandateCreationResponse resp = new MandateCreationResponse();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "MndtId" -> resp.mandateNumber = reader.nextString();
+                    case "mndtId" -> {
+                        String mndtId = reader.nextString();
+                        if (resp.mandateNumber == null) {
+                            resp.mandateNumber = mndtId;
+                        }
+                    }
+                    case "url" -> resp.url = reader.nextString();
+                    case "key" -> resp.key = reader.nextString();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return resp;
+        }
+
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
@@ -281,6 +813,20 @@ public interface DocumentResponse {
             return resp;
         }
 
+        public static CustomerAccessResponse fromJson(JsonReader reader) {
+            CustomerAccessResponse resp = new CustomerAccessResponse();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "token" -> resp.token = reader.nextString();
+                    case "url" -> resp.url = reader.nextString();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return resp;
+        }
+
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
@@ -1,8 +1,12 @@
 package com.twikey.modal;
 
+import com.twikey.codec.FormEncoder;
+import com.twikey.codec.JsonArrayStream;
+import com.twikey.codec.JsonWriter;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.InputStream;
 import java.util.*;
 
 public interface InvoiceRequests {
@@ -62,6 +66,21 @@ public interface InvoiceRequests {
                 return map;
             }
 
+            /**
+             * Write the same fields as {@link #toMap()} straight into a json body.
+             */
+            public void writeJson(JsonWriter writer) {
+                writer.beginObject()
+                        .putIfNotNull("code", code)
+                        .putIfNotNull("description", description)
+                        .putIfNotNull("quantity", quantity)
+                        .putIfNotNull("uom", uom)
+                        .putIfNotNull("unitprice", unitprice)
+                        .putIfNotNull("vatcode", vatcode)
+                        .putIfNotNull("vatsum", vatsum)
+                        .endObject();
+            }
+
 //            private static void putIfNotNull(Map<String, Object> map, String key, Object value) {
 //                if (value != null) map.put(key, value);
 //            }
@@ -189,6 +208,54 @@ public interface InvoiceRequests {
             return map;
         }
 
+        /**
+         * Write the same fields as {@link #toRequest()} straight into a json body.
+         */
+        public void writeJson(JsonWriter writer) {
+            writer.beginObject()
+                    .putIfNotNull("id", id)
+                    .putIfNotNull("number", number)
+                    .putIfNotNull("title", title)
+                    .putIfNotNull("remittance", remittance)
+                    .putIfNotNull("ref", ref)
+                    .putIfNotNull("ct", ct)
+                    .putIfNotNull("amount", String.valueOf(amount))
+                    .putIfNotNull("date", date)
+                    .putIfNotNull("duedate", duedate)
+                    .putIfNotNull("locale", locale)
+                    .putIfNotNull("manual", String.valueOf(manual))
+                    .putIfNotNull("pdf", pdf)
+                    .putIfNotNull("pdfUrl", pdfUrl)
+                    .putIfNotNull("redirectUrl", redirectUrl)
+                    .putIfNotNull("email", email)
+                    .putIfNotNull("relatedInvoiceNumber", relatedInvoiceNumber)
+                    .putIfNotNull("cc", cc);
+            if(customer != null) {
+                writer.name("customer").beginObject()
+                        .putIfNotNull("customerNumber", customer.getCustomerNumber())
+                        .putIfNotNull("email", customer.getEmail())
+                        .putIfNotNull("firstname", customer.getFirstname())
+                        .putIfNotNull("lastname", customer.getLastname())
+                        .putIfNotNull("mobile", customer.getMobile())
+                        .putIfNotNull("address", customer.getStreet())
+                        .putIfNotNull("city", customer.getCity())
+                        .putIfNotNull("zip", customer.getZip())
+                        .putIfNotNull("country", customer.getCountry())
+                        .putIfNotNull("companyName", customer.getCompanyName())
+                        .putIfNotNull("vatno", customer.getCoc())
+                        .endObject();
+            }
+            if (lines != null && !lines.isEmpty()) {
+                // the lines are sent as json text, like toRequest does
+                JsonWriter lineWriter = new JsonWriter(lines.size() * 128);
+                lineWriter.beginArray();
+                for (LineItem line : lines) line.writeJson(lineWriter);
+                lineWriter.endArray();
+                writer.name("lines").valueAsString(lineWriter);
+            }
+            writer.endObject();
+        }
+
         private static void putIfNotNull(JSONObject map, String key, Object value) {
             if (value != null) map.put(key, value);
         }
@@ -323,6 +390,7 @@ public interface InvoiceRequests {
         private boolean includeLastPayment;
         private boolean includeMeta;
         private boolean includeCustomer;
+        private boolean cacheFirst;
 
         /**
          * @param invoice Unique invoice ID or invoice number (required).
@@ -372,9 +440,34 @@ public interface InvoiceRequests {
             return this;
         }
 
+        /**
+         * @param cacheFirst answer from the invoice state cache of the client when it knows the invoice, the
+         *                   returned invoice then only has its id, number, state, amount and last payment
+         */
+        public InvoiceDetailRequest cacheFirst(boolean cacheFirst) {
+            this.cacheFirst = cacheFirst;
+            return this;
+        }
+
         public String getInvoice() {
             return invoice;
         }
+
+        public boolean isCacheFirst() {
+            return cacheFirst;
+        }
+
+        public boolean isIncludeLastPayment() {
+            return includeLastPayment;
+        }
+
+        public boolean isIncludeMeta() {
+            return includeMeta;
+        }
+
+        public boolean isIncludeCustomer() {
+            return includeCustomer;
+        }
     }
 
     /**
@@ -426,6 +519,19 @@ public interface InvoiceRequests {
             putIfNotNull(map, "mndtId", mndtId);
             return map;
         }
+
+        public void writeForm(FormEncoder form) {
+            form.add("id", id);
+            form.add("type", type);
+            form.add("initialAmount", initialAmount);
+            form.add("recurringAmount", recurringAmount);
+            form.add("terms", terms);
+            form.add("mndtId", mndtId);
+        }
+
+        public String getId() {
+            return id;
+        }
         private static void putIfNotNull(Map<String, String> map, String key, Object value) {
             if (value != null) map.put(key, String.valueOf(value));
         }
@@ -464,7 +570,16 @@ public interface InvoiceRequests {
         }
 
         /**
-         * @return the path to the UBL XML file.
+         * Creates a new UblUploadRequest for a document that is passed separately to
+         * {@link com.twikey.InvoiceGateway#UBL(UblUploadRequest, java.util.function.Supplier)} (or one of the other
+         * overloads taking the content).
+         */
+        public UblUploadRequest() {
+            this.xmlPath = null;
+        }
+
+        /**
+         * @return the path to the UBL XML file, null when the content is passed separately.
          */
         public String getXmlPath() {
             return xmlPath;
@@ -532,12 +647,18 @@ public interface InvoiceRequests {
      */
     class BulkInvoiceRequest {
 
+        /**
+         * Maximum number of invoices Twikey accepts in a single batch
+         */
+        public static final int MAX_INVOICES = 5000;
+
         private final List<CreateInvoiceRequest> invoices;
 
         /**
          * Constructs a BulkInvoiceRequest with the given list of invoices.
          *
-         * @param invoices List of {@link CreateInvoiceRequest} objects (max 5000).
+         * @param invoices List of {@link CreateInvoiceRequest} objects (max 5000, see
+         *                 {@link com.twikey.bulk.BulkInvoiceSubmitter} to split up more).
          */
         public BulkInvoiceRequest(List<CreateInvoiceRequest> invoices) {
             this.invoices = invoices;
@@ -556,6 +677,15 @@ public interface InvoiceRequests {
             return array;
         }
 
+        /**
+         * Same content as {@link #toRequest()}, but every invoice is only encoded when the stream gets to it.
+         *
+         * @return a new stream over the json array of the invoices
+         */
+        public InputStream openJsonStream() {
+            return new JsonArrayStream<>(invoices, CreateInvoiceRequest::writeJson);
+        }
+
         public List<CreateInvoiceRequest> getInvoices() {
             return invoices;
         }
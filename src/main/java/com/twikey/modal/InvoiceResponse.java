@@ -1,8 +1,15 @@
 package com.twikey.modal;
 
 
+import com.twikey.codec.JsonReader;
+import com.twikey.codec.SnapshotReader;
+import com.twikey.codec.SnapshotWriter;
+import com.twikey.codec.StringInterner;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public interface InvoiceResponse {
@@ -11,6 +18,9 @@ public interface InvoiceResponse {
      */
     public class Invoice {
 
+        // dictionary of the snapshot format, append only
+        private static final String[] STATES = {"", "BOOKED", "PENDING", "PAID", "EXPIRED", "ARCHIVED"};
+
         private String id;
         private String number;
         private String title;
@@ -62,7 +72,7 @@ public interface InvoiceResponse {
             invoice.amount = json.has("amount") ? json.getDouble("amount") : null;
             invoice.date = json.optString("date");
             invoice.duedate = json.optString("duedate");
-            invoice.state = json.optString("state");
+            invoice.state = StringInterner.shared().intern(json.optString("state"));
             invoice.url = json.optString("url");
 
             // Optional fields
@@ -73,26 +83,271 @@ public interface InvoiceResponse {
             return invoice;
         }
 
+        /**
+         * Streaming counterpart of {@link #fromJson(JSONObject)}, only meta and customer are materialized.
+         *
+         * @param reader reader positioned at the start of the invoice object.
+         * @return Invoice instance populated with API response values.
+         */
+        public static Invoice fromJson(JsonReader reader) {
+            Invoice invoice = new Invoice();
+            invoice.id = invoice.number = invoice.title = invoice.remittance = invoice.ref = "";
+            invoice.date = invoice.duedate = invoice.state = invoice.url = "";
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonReader.Token.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "id" -> invoice.id = reader.nextString();
+                    case "number" -> invoice.number = reader.nextString();
+                    case "title" -> invoice.title = reader.nextString();
+                    case "remittance" -> invoice.remittance = reader.nextString();
+                    case "ref" -> invoice.ref = reader.nextString();
+                    case "ct" -> invoice.ct = reader.nextInt();
+                    case "amount" -> invoice.amount = reader.nextDouble();
+                    case "date" -> invoice.date = reader.nextString();
+                    case "duedate" -> invoice.duedate = reader.nextString();
+                    case "state" -> invoice.state = reader.nextString(StringInterner.shared());
+                    case "url" -> invoice.url = reader.nextString();
+                    // an array of payments, kept as text like optString does
+                    case "lastpayment" -> invoice.lastpayment = String.valueOf(reader.readValue());
+                    case "meta" -> invoice.meta = reader.readObject();
+                    case "customer" -> invoice.customer = reader.readObject();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return invoice;
+        }
+
+        /**
+         * Writes the compact binary form of the invoice, eg. to store it in a cache
+         */
+        public void writeSnapshot(SnapshotWriter out) {
+            out.header(SnapshotWriter.INVOICE)
+                    .string(getId())
+                    .string(getNumber())
+                    .string(getTitle())
+                    .string(getRemittance())
+                    .string(getRef())
+                    .nullableInt(getCt())
+                    .nullableDouble(getAmount())
+                    .string(getDate())
+                    .string(getDuedate())
+                    .dictionary(STATES, getState())
+                    .string(getUrl())
+                    .string(getLastpayment())
+                    .json(getMeta())
+                    .json(getCustomer());
+        }
+
+        /**
+         * Reads an invoice written by {@link #writeSnapshot(SnapshotWriter)}
+         */
+        public static Invoice fromSnapshot(SnapshotReader in) {
+            in.header(SnapshotWriter.INVOICE);
+            Invoice invoice = new Invoice();
+            invoice.id = in.string();
+            invoice.number = in.string();
+            invoice.title = in.string();
+            invoice.remittance = in.string();
+            invoice.ref = in.string();
+            invoice.ct = in.nullableInt();
+            invoice.amount = in.nullableDouble();
+            invoice.date = in.string();
+            invoice.duedate = in.string();
+            invoice.state = in.dictionary(STATES, StringInterner.shared());
+            invoice.url = in.string();
+            invoice.lastpayment = in.string();
+            invoice.meta = in.json();
+            invoice.customer = in.json();
+            return invoice;
+        }
+
         @Override
         public String toString() {
             return "Invoice {" +
-                    "id='" + id + '\'' +
-                    ", number='" + number + '\'' +
-                    ", title='" + title + '\'' +
-                    ", remittance='" + remittance + '\'' +
-                    ", ref='" + ref + '\'' +
-                    ", ct=" + ct +
-                    ", amount=" + amount +
-                    ", date='" + date + '\'' +
-                    ", duedate='" + duedate + '\'' +
-                    ", state='" + state + '\'' +
-                    ", url='" + url + '\'' +
-                    ", lastpayment='" + lastpayment + '\'' +
-                    ", meta=" + meta +
-                    ", customer=" + customer +
+                    "id='" + getId() + '\'' +
+                    ", number='" + getNumber() + '\'' +
+                    ", title='" + getTitle() + '\'' +
+                    ", remittance='" + getRemittance() + '\'' +
+                    ", ref='" + getRef() + '\'' +
+                    ", ct=" + getCt() +
+                    ", amount=" + getAmount() +
+                    ", date='" + getDate() + '\'' +
+                    ", duedate='" + getDuedate() + '\'' +
+                    ", state='" + getState() + '\'' +
+                    ", url='" + getUrl() + '\'' +
+                    ", lastpayment='" + getLastpayment() + '\'' +
+                    ", meta=" + getMeta() +
+                    ", customer=" + getCustomer() +
                     '}';
         }
     }
 
+    /**
+     * {@link Invoice} backed by the raw bytes of the response, a field (including meta and customer) is only decoded
+     * when its getter is called.
+     * <p>
+     * Decoded values are cached, the view can be shared between threads (as the caches of the client do).
+     */
+    class LazyInvoice extends Invoice {
+
+        private static final String[] NAMES = {
+                "id", "number", "title", "remittance", "ref", "ct", "amount", "date", "duedate", "state", "url",
+                "lastpayment", "meta", "customer"
+        };
+        private static final int ID = 0;
+        private static final int NUMBER = 1;
+        private static final int TITLE = 2;
+        private static final int REMITTANCE = 3;
+        private static final int REF = 4;
+        private static final int CT = 5;
+        private static final int AMOUNT = 6;
+        private static final int DATE = 7;
+        private static final int DUEDATE = 8;
+        private static final int STATE = 9;
+        private static final int URL = 10;
+        private static final int LASTPAYMENT = 11;
+        private static final int META = 12;
+        private static final int CUSTOMER = 13;
+
+        private final byte[] buf;
+        // offset in buf of the value of every field, -1 when absent or null
+        private final int[] offsets = new int[NAMES.length];
+        private Object[] values;
+
+        private LazyInvoice(byte[] buf) {
+            this.buf = buf;
+            Arrays.fill(offsets, -1);
+        }
+
+        /**
+         * Lazy counterpart of {@link Invoice#fromJson(JsonReader)}
+         *
+         * @param reader reader positioned at the start of the invoice object.
+         * @return view on the invoice, sharing the bytes of the reader
+         */
+        public static LazyInvoice fromJson(JsonReader reader) {
+            LazyInvoice invoice = new LazyInvoice(reader.buffer());
+            reader.beginObject();
+            while (reader.hasNext()) {
+                int field = indexOf(reader.nextName());
+                if (field >= 0 && reader.peek() != JsonReader.Token.NULL) {
+                    invoice.offsets[field] = reader.valueStart();
+                }
+                reader.skipValue();
+            }
+            reader.endObject();
+            return invoice;
+        }
+
+        @Override public String getId() { return string(ID); }
+        @Override public String getNumber() { return string(NUMBER); }
+        @Override public String getTitle() { return string(TITLE); }
+        @Override public String getRemittance() { return string(REMITTANCE); }
+        @Override public String getRef() { return string(REF); }
+        @Override public Integer getCt() { return (Integer) value(CT); }
+        @Override public Double getAmount() { return (Double) value(AMOUNT); }
+        @Override public String getDate() { return string(DATE); }
+        @Override public String getDuedate() { return string(DUEDATE); }
+        @Override public String getState() { return string(STATE); }
+        @Override public String getUrl() { return string(URL); }
+        @Override public String getLastpayment() { return (String) value(LASTPAYMENT); }
+        @Override public JSONObject getMeta() { return (JSONObject) value(META); }
+        @Override public JSONObject getCustomer() { return (JSONObject) value(CUSTOMER); }
+
+        /**
+         * Like the eager decoders, missing string fields are empty
+         */
+        private String string(int field) {
+            Object value = value(field);
+            return value != null ? (String) value : "";
+        }
+
+        private synchronized Object value(int field) {
+            int offset = offsets[field];
+            if (offset < 0) {
+                return null;
+            }
+            if (values == null) {
+                values = new Object[NAMES.length];
+            }
+            Object value = values[field];
+            if (value == null) {
+                // the reader stops after the value, the remainder of the buffer is never looked at
+                JsonReader reader = new JsonReader(buf, offset, buf.length - offset);
+                value = switch (field) {
+                    case CT -> reader.nextInt();
+                    case AMOUNT -> reader.nextDouble();
+                    case STATE -> reader.nextString(StringInterner.shared());
+                    case META, CUSTOMER -> reader.readObject();
+                    case LASTPAYMENT -> String.valueOf(reader.readValue());
+                    default -> reader.nextString();
+                };
+                values[field] = value;
+            }
+            return value;
+        }
+
+        private static int indexOf(String name) {
+            for (int i = 0; i < NAMES.length; i++) {
+                if (NAMES[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Result of {@link com.twikey.InvoiceGateway#batchDetails(String)}: the processing state of a bulk batch and the
+     * invoices it created.
+     */
+    class BatchDetails {
+
+        private String batchId;
+        private String status;
+        private final List<Invoice> invoices = new ArrayList<>();
+        private JSONObject json;
+
+        public String getBatchId() { return batchId; }
+        public String getStatus() { return status; }
+        public List<Invoice> getInvoices() { return invoices; }
+        public JSONObject getJson() { return json; }
+
+        /**
+         * @param batchId       id the details were requested for
+         * @param json          response of the batch details
+         * @param invoicesField name of the array holding the invoices of the batch
+         */
+        public static BatchDetails fromJson(String batchId, JSONObject json, String invoicesField) {
+            BatchDetails details = new BatchDetails();
+            details.json = json;
+            details.batchId = json.optString("batchId", batchId);
+            details.status = json.optString("status", null);
+            JSONArray entries = json.optJSONArray(invoicesField);
+            if (entries != null) {
+                for (Object entry : entries) {
+                    if (entry instanceof JSONObject invoice) {
+                        details.invoices.add(Invoice.fromJson(invoice));
+                    }
+                }
+            }
+            return details;
+        }
 
-}
\ No newline at end of file
+        @Override
+        public String toString() {
+            return "BatchDetails {" +
+                    "batchId='" + batchId + '\'' +
+                    ", status='" + status + '\'' +
+                    ", invoices=" + invoices.size() +
+                    '}';
+        }
+    }
+}
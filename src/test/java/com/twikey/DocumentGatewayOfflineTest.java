@@ -0,0 +1,382 @@
+package com.twikey;
+
+import com.twikey.bulk.MandatePager;
+import com.twikey.cache.MandateIndex;
+import com.twikey.cache.MappedMandateStore;
+import com.twikey.cache.PdfCache;
+import com.twikey.cache.ValidatorCache;
+import com.twikey.codec.FormEncoder;
+import com.twikey.codec.SnapshotReader;
+import com.twikey.codec.SnapshotWriter;
+import com.twikey.codec.TwikeyJsonCodec;
+import com.twikey.feed.FeedType;
+import com.twikey.modal.DocumentResponse;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static com.twikey.modal.DocumentRequests.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DocumentGatewayOfflineTest {
+
+    // entry of the mandate feed with mandate number, email and iban to fill in
+    private static final String MANDATE_MESSAGE = "{\"Mndt\":{\"MndtId\":\"%s\",\"LclInstrm\":\"CORE\",\"Ocrncs\":{\"SeqTp\":\"RCUR\",\"Drtn\":{\"FrDt\":\"2024-01-15\"}}," +
+            "\"Dbtr\":{\"Nm\":\"Twikey\",\"PstlAdr\":{\"AdrLine\":\"Derbystraat 43\",\"PstCd\":\"9000\",\"TwnNm\":\"Gent\",\"Ctry\":\"BE\"}," +
+            "\"CtryOfRes\":\"BE\",\"CtctDtls\":{\"EmailAdr\":\"%s\",\"Othr\":\"Java-Sdk-1\"}}," +
+            "\"DbtrAcct\":\"%s\",\"DbtrAgt\":{\"FinInstnId\":{\"BICFI\":\"GEBABEBB\",\"Nm\":\"BNP\"}}," +
+            "\"RfrdDoc\":\"C-1\",\"SplmtryData\":[]},\"EvtTime\":\"2024-01-15T10:00:00Z\"}";
+
+    private final Customer customer = new Customer()
+            .setNumber("Java-Sdk-1")
+            .setEmail("no-reply@example.com")
+            .setFirstname("Twikey")
+            .setLastname("Support")
+            .setStreet("Derbystraat 43")
+            .setCity("Gent")
+            .setZip("9000")
+            .setCountry("BE")
+            .setLang("nl")
+            .setMobile("32498665995");
+
+    private final Account account = new Account("NL46ABNA8910219718", "ABNANL2A");
+
+    @Test
+    public void testMappedMandateStoreSurvivesRestart() throws IOException {
+        Path dir = Files.createTempDirectory("twikey-mandates");
+        // tiny segments and table to go through several of both
+        try (MappedMandateStore store = new MappedMandateStore(dir, 4096, 4)) {
+            for (int i = 0; i < 200; i++) {
+                store.message(new JSONObject(MANDATE_MESSAGE.formatted("MNDT" + i, "info" + i + "@example.com", "BE68539007547034")));
+            }
+            store.message(new JSONObject(MANDATE_MESSAGE.formatted("MNDT7", "updated@example.com", "NL46ABNA8910219718")));
+            store.message(new JSONObject().put("OrgnlMndtId", "MNDT8").put("CxlRsn", new JSONObject()));
+            assertEquals(199, store.size());
+            assertEquals("info42@example.com", store.get("MNDT42").getDebtorEmail());
+        }
+        try (MappedMandateStore store = new MappedMandateStore(dir, 1024, 4)) {
+            assertEquals(199, store.size());
+            assertEquals("NL46ABNA8910219718", store.get("MNDT7").getIban());
+            assertNull(store.get("MNDT8"));
+            assertEquals("Gent", store.get("MNDT199").getDebtorCity());
+        }
+        // the table is rebuilt from the data, which keeps the segment size it was written with
+        Files.delete(dir.resolve("mandates.idx"));
+        try (MappedMandateStore store = new MappedMandateStore(dir, 1024, 4)) {
+            assertEquals(199, store.size());
+            assertEquals("updated@example.com", store.get("MNDT7").getDebtorEmail());
+            assertFalse(store.contains("MNDT8"));
+
+            // only the current versions are kept
+            for (int i = 100; i < 200; i++) {
+                store.message(new JSONObject(MANDATE_MESSAGE.formatted("MNDT" + i, "again" + i + "@example.com", "BE68539007547034")));
+            }
+            long before = Files.size(dir.resolve("mandates.dat"));
+            store.compact();
+            assertTrue(Files.size(dir.resolve("mandates.dat")) < before);
+            assertEquals(199, store.size());
+            assertEquals("NL46ABNA8910219718", store.get("MNDT7").getIban());
+            store.message(new JSONObject(MANDATE_MESSAGE.formatted("MNDT8", "info8@example.com", "BE68539007547034")));
+        }
+        try (MappedMandateStore store = new MappedMandateStore(dir, 4096, 4)) {
+            assertEquals(200, store.size());
+            assertEquals("updated@example.com", store.get("MNDT7").getDebtorEmail());
+            assertEquals("again150@example.com", store.get("MNDT150").getDebtorEmail());
+            assertEquals("info8@example.com", store.get("MNDT8").getDebtorEmail());
+        }
+    }
+
+    @Test
+    public void testMappedMandateStoreGrowsAfterCompaction() throws IOException {
+        Path dir = Files.createTempDirectory("twikey-mandates");
+        try (MappedMandateStore store = new MappedMandateStore(dir, 4096, 4)) {
+            for (int i = 0; i < 100; i++) {
+                store.message(new JSONObject(MANDATE_MESSAGE.formatted("A" + i, "info@example.com", "BE68539007547034")));
+            }
+            for (int i = 0; i < 95; i++) {
+                store.message(new JSONObject().put("OrgnlMndtId", "A" + i).put("CxlRsn", new JSONObject()));
+            }
+            store.compact();
+            // the smaller table grows over the slots of the one before the compaction
+            for (int i = 100; i < 140; i++) {
+                store.message(new JSONObject(MANDATE_MESSAGE.formatted("A" + i, "info@example.com", "BE68539007547034")));
+            }
+            assertEquals(45, store.size());
+            assertEquals("A98", store.get("A98").getMandateNumber());
+            assertNull(store.get("A3"));
+
+            // churn only drops tombstones, the table does not keep growing
+            long indexSize = Files.size(dir.resolve("mandates.idx"));
+            for (int i = 0; i < 2000; i++) {
+                store.message(new JSONObject(MANDATE_MESSAGE.formatted("B" + i, "info@example.com", "BE68539007547034")));
+                store.message(new JSONObject().put("OrgnlMndtId", "B" + i).put("CxlRsn", new JSONObject()));
+            }
+            assertEquals(45, store.size());
+            assertEquals(indexSize, Files.size(dir.resolve("mandates.idx")));
+        }
+    }
+
+    @Test
+    public void testStreamingCodecMatchesOrgJson() {
+        byte[] body = ("{\"Mndt\":{\"MndtId\":\"CORERECURRENTNL16318\",\"LclInstrm\":\"CORE\"," +
+                "\"Ocrncs\":{\"SeqTp\":\"RCUR\",\"Frqcy\":\"ADHO\",\"Drtn\":{\"FrDt\":\"2024-01-15\"}}," +
+                "\"CdtrSchmeId\":\"NL97ZZZ\",\"Cdtr\":{\"Nm\":\"Twikey\",\"PstlAdr\":{\"Ctry\":\"BE\"}}," +
+                "\"Dbtr\":{\"Nm\":\"Twikey Support\",\"PstlAdr\":{\"AdrLine\":\"Derbystraat 43\",\"PstCd\":\"9000\",\"TwnNm\":\"Gent\",\"Ctry\":\"BE\"}," +
+                "\"CtryOfRes\":\"BE\",\"CtctDtls\":{\"EmailAdr\":\"no-reply@example.com\",\"Othr\":\"Java-Sdk-1\"}}," +
+                "\"DbtrAcct\":\"NL46ABNA8910219718\",\"DbtrAgt\":{\"FinInstnId\":{\"BICFI\":\"ABNANL2A\",\"Nm\":\"ABN AMRO\"}}," +
+                "\"RfrdDoc\":\"C\\u00e9-1\",\"SplmtryData\":[{\"Key\":\"Language\",\"Value\":\"nl\"},{\"Key\":\"Amount\",\"Value\":12.5}]}}").getBytes(UTF_8);
+        DocumentResponse.Document streamed = TwikeyJsonCodec.streaming().decodeDocument(body, "signed");
+        DocumentResponse.Document parsed = TwikeyJsonCodec.orgJson().decodeDocument(body, "signed");
+        assertEquals(parsed.toString(), streamed.toString());
+        assertEquals("Cé-1", streamed.getContractNumber());
+        assertEquals("12.5", streamed.getSupplementaryData().get("Amount"));
+
+        byte[] query = "{\"Contracts\":[{\"type\":\"CORE\",\"state\":\"signed\",\"mandateNumber\":\"M1\",\"contractNumber\":\"C1\",\"signDate\":\"2024-01-15\",\"iban\":\"BE1\",\"bic\":\"GEBABEBB\"}]}".getBytes(UTF_8);
+        assertEquals(TwikeyJsonCodec.orgJson().decodeDocuments(query).get(0).toString(), TwikeyJsonCodec.streaming().decodeDocuments(query).get(0).toString());
+    }
+
+    @Test
+    public void testFormEncodersMatchToRequest() {
+        SignRequest sign = new SignRequest(1, SignRequest.SignMethod.SMS, customer, account)
+                .setPlace("Gent & Brussel")
+                .setBankSignature(false)
+                .setReminderDays(3)
+                .setToken("");
+        assertEquals(nonBlank(sign.toRequest()), decode(sign::writeForm));
+
+        UpdateMandateRequest update = new UpdateMandateRequest("MNDT1", customer)
+                .setEmail("other@example.com")
+                .setCt(2L);
+        assertEquals(nonBlank(update.toRequest()), decode(update::writeForm));
+    }
+
+    private static Map<String, String> nonBlank(Map<String, String> request) {
+        request.values().removeIf(value -> value == null || value.isBlank());
+        return request;
+    }
+
+    private static Map<String, String> decode(Consumer<FormEncoder> writer) {
+        FormEncoder form = new FormEncoder();
+        writer.accept(form);
+        Map<String, String> params = new HashMap<>();
+        for (String param : form.toString().split("&")) {
+            String[] kv = param.split("=", 2);
+            assertNull("Duplicate " + kv[0], params.put(URLDecoder.decode(kv[0], UTF_8), URLDecoder.decode(kv[1], UTF_8)));
+        }
+        return params;
+    }
+
+    @Test
+    public void testDecodedDocumentsShareLowCardinalityValues() {
+        String contract = "{\"type\":\"CORE\",\"state\":\"signed\",\"mandateNumber\":\"M%d\",\"contractNumber\":\"C\",\"signDate\":\"2024-01-15\",\"iban\":\"BE1\",\"bic\":\"GEBABEBB\"}";
+        byte[] query = ("{\"Contracts\":[" + contract.formatted(1) + "," + contract.formatted(2) + "]}").getBytes(UTF_8);
+        for (TwikeyJsonCodec codec : List.of(TwikeyJsonCodec.streaming(), TwikeyJsonCodec.orgJson(), TwikeyJsonCodec.lazy())) {
+            List<DocumentResponse.Document> documents = codec.decodeDocuments(query);
+            assertSame(documents.get(0).getState(), documents.get(1).getState());
+            assertSame(documents.get(0).getType(), documents.get(1).getType());
+            assertSame(documents.get(0).getBic(), documents.get(1).getBic());
+        }
+    }
+
+    @Test
+    public void testLazyCodecMatchesOrgJson() {
+        byte[] body = ("{\"Mndt\":{\"MndtId\":\"MNDT1\",\"LclInstrm\":\"CORE\",\"Ocrncs\":{\"SeqTp\":\"RCUR\",\"Drtn\":{\"FrDt\":\"2024-01-15\"}}," +
+                "\"Dbtr\":{\"Nm\":\"Twikey \\\"Support\\\"\",\"PstlAdr\":{\"AdrLine\":\"Derbystraat 43\",\"PstCd\":\"9000\",\"TwnNm\":\"Gent\",\"Ctry\":\"BE\"}," +
+                "\"CtryOfRes\":\"BE\",\"CtctDtls\":{\"EmailAdr\":\"no-reply@example.com\",\"Othr\":\"Java-Sdk-1\"}}," +
+                "\"DbtrAcct\":\"NL46ABNA8910219718\",\"DbtrAgt\":{\"FinInstnId\":{\"BICFI\":\"ABNANL2A\",\"Nm\":\"ABN AMRO\"}}," +
+                "\"RfrdDoc\":\"C\u00e9-1\",\"SplmtryData\":[{\"Key\":\"Amount\",\"Value\":12.5}]}}").getBytes(UTF_8);
+        DocumentResponse.Document lazy = TwikeyJsonCodec.lazy().decodeDocument(body, null);
+        assertEquals("MNDT1", lazy.getMandateNumber());
+        assertEquals("Twikey \"Support\"", lazy.getDebtorName());
+        assertEquals(TwikeyJsonCodec.orgJson().decodeDocument(body, null).toString(), lazy.toString());
+
+        byte[] query = "{\"Contracts\":[{\"type\":\"CORE\",\"state\":\"signed\",\"mandateNumber\":\"M1\",\"contractNumber\":\"C1\",\"signDate\":\"2024-01-15\",\"iban\":\"BE1\",\"bic\":\"GEBABEBB\"}]}".getBytes(UTF_8);
+        assertEquals(TwikeyJsonCodec.orgJson().decodeDocuments(query).get(0).toString(), TwikeyJsonCodec.lazy().decodeDocuments(query).get(0).toString());
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() {
+        byte[] body = ("{\"Mndt\":{\"MndtId\":\"MNDT1\",\"LclInstrm\":\"CORE\",\"Ocrncs\":{\"SeqTp\":\"RCUR\",\"Drtn\":{\"FrDt\":\"2024-01-15\"}}," +
+                "\"Dbtr\":{\"Nm\":\"Twikey \u20ac\",\"PstlAdr\":{\"AdrLine\":\"Derbystraat 43\",\"PstCd\":\"9000\",\"TwnNm\":\"Gent\",\"Ctry\":\"BE\"}," +
+                "\"CtryOfRes\":\"CH\",\"CtctDtls\":{\"EmailAdr\":\"no-reply@example.com\",\"Othr\":\"Java-Sdk-1\"}}," +
+                "\"DbtrAcct\":\"NL46ABNA8910219718\",\"DbtrAgt\":{\"FinInstnId\":{\"BICFI\":\"ABNANL2A\",\"Nm\":\"ABN AMRO\"}}," +
+                "\"RfrdDoc\":\"C-1\",\"SplmtryData\":[{\"Key\":\"Language\",\"Value\":\"nl\"}]}}").getBytes(UTF_8);
+        SnapshotWriter writer = new SnapshotWriter(16);
+        DocumentResponse.Document document = TwikeyJsonCodec.streaming().decodeDocument(body, "signed");
+        document.writeSnapshot(writer);
+        TwikeyJsonCodec.lazy().decodeDocument(body, "signed").writeSnapshot(writer);
+        assertTrue(writer.size() < body.length);
+
+        SnapshotReader reader = new SnapshotReader(writer.toByteBuffer());
+        assertEquals(document.toString(), DocumentResponse.Document.fromSnapshot(reader).toString());
+        DocumentResponse.Document fromLazy = DocumentResponse.Document.fromSnapshot(reader);
+        assertEquals(document.toString(), fromLazy.toString());
+        assertSame("signed", fromLazy.getState());
+        assertFalse(reader.hasRemaining());
+    }
+
+    @Test
+    public void testPdfFilenameFromContentDisposition() {
+        assertEquals("CORE1.pdf", DocumentGateway.filenameOf(HttpHeaders.of(Map.of("Content-Disposition", List.of("attachment; filename=\"CORE1.pdf\"")), (name, value) -> true)));
+        assertNull(DocumentGateway.filenameOf(HttpHeaders.of(Map.of(), (name, value) -> true)));
+    }
+
+    @Test
+    public void testValidatorCacheKeepsValidatedPdfs() {
+        ValidatorCache cache = new ValidatorCache(10, 10);
+        HttpHeaders etag = HttpHeaders.of(Map.of("ETag", List.of("\"v1\"")), (name, value) -> true);
+        cache.store("/mandate/pdf?mndtId=A", etag, new DocumentResponse.PdfResponse(new byte[6], "A.pdf"));
+        cache.store("/mandate/detail?mndtId=A", etag, new DocumentResponse.Document());
+        cache.store("/mandate/pdf?mndtId=B", HttpHeaders.of(Map.of(), (name, value) -> true), new DocumentResponse.PdfResponse(new byte[6], "B.pdf"));
+        assertNull("Response without validators", cache.get("/mandate/pdf?mndtId=B", DocumentResponse.PdfResponse.class));
+        assertNull("Other type", cache.get("/mandate/pdf?mndtId=A", DocumentResponse.Document.class));
+
+        ValidatorCache.Validated<DocumentResponse.PdfResponse> pdf = cache.get("/mandate/pdf?mndtId=A", DocumentResponse.PdfResponse.class);
+        assertEquals("A.pdf", pdf.value().getFilename());
+        HttpRequest request = pdf.applyTo(HttpRequest.newBuilder(URI.create("https://api.twikey.com/creditor/mandate/pdf?mndtId=A"))).build();
+        assertEquals("\"v1\"", request.headers().firstValue("If-None-Match").orElse(null));
+        assertFalse(request.headers().firstValue("If-Modified-Since").isPresent());
+
+        // pdfs are evicted once their content exceeds maxBytes
+        cache.store("/mandate/pdf?mndtId=C", etag, new DocumentResponse.PdfResponse(new byte[6], "C.pdf"));
+        assertNull(cache.get("/mandate/pdf?mndtId=A", DocumentResponse.PdfResponse.class));
+        assertEquals(6, cache.getBytes());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testMandateIndexFollowsFeed() {
+        MandateIndex index = new MandateIndex();
+        index.message(new JSONObject(MANDATE_MESSAGE.formatted("MNDT1", "No-Reply@Example.com", "BE68539007547034")));
+        index.message(new JSONObject(MANDATE_MESSAGE.formatted("MNDT2", "other@example.com", "BE68539007547034")));
+
+        assertEquals(2, index.query(MandateQuery.fromIban("be68 5390 0754 7034")).size());
+        assertEquals("MNDT1", index.query(MandateQuery.fromEmail("no-reply@example.com")).get(0).getMandateNumber());
+        assertTrue(index.query(MandateQuery.fromEmail("no-reply@example.com").withIban("NL46ABNA8910219718")).isEmpty());
+        assertEquals(2, index.query(MandateQuery.fromCustomerNumber("Java-Sdk-1")).size());
+
+        // updated with a new iban, then cancelled
+        JSONObject update = new JSONObject(MANDATE_MESSAGE.formatted("MNDT1", "no-reply@example.com", "NL46ABNA8910219718")).put("OrgnlMndtId", "MNDT1").put("AmdmntRsn", new JSONObject());
+        index.message(update);
+        assertEquals(1, index.query(MandateQuery.fromIban("BE68539007547034")).size());
+        assertEquals(1, index.query(MandateQuery.fromIban("NL46ABNA8910219718")).size());
+        index.message(new JSONObject().put("OrgnlMndtId", "MNDT1").put("CxlRsn", new JSONObject()));
+        assertTrue(index.query(MandateQuery.fromIban("NL46ABNA8910219718")).isEmpty());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testPdfCacheSharesContentAndEvicts() throws IOException {
+        Path dir = Files.createTempDirectory("twikey-pdf");
+        byte[] pdf = "%PDF-1.4 mandate".getBytes(UTF_8);
+        byte[] other = "%PDF-1.4 another mandate".getBytes(UTF_8);
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            PdfCache cache = new PdfCache(dir, 50);
+            PdfCache.Entry first = cache.put("MNDT1", "MNDT1.pdf", pdf);
+            PdfCache.Entry second = cache.put("MNDT/../2", null, pdf);
+            assertEquals(first.hash(), second.hash());
+            assertEquals("mandate.pdf", second.filename());
+            // the same content is stored once
+            assertEquals(pdf.length, cache.getBytes());
+
+            assertEquals(first, cache.transferTo("MNDT1", Channels.newChannel(out)));
+            assertArrayEquals(pdf, out.toByteArray());
+            assertNull(cache.transferTo("MNDT3", Channels.newChannel(out)));
+
+            cache.put("MNDT3", "MNDT3.pdf", other);
+            assertEquals(pdf.length + other.length, cache.getBytes());
+            // MNDT4 only fits once MNDT/../2 (not freeing the content MNDT1 shares) and MNDT3 are evicted
+            cache.getEntry("MNDT1");
+            cache.put("MNDT4", "MNDT4.pdf", "%PDF-1.4 yet another".getBytes(UTF_8));
+            assertFalse(cache.contains("MNDT3"));
+            assertTrue(cache.contains("MNDT1"));
+            assertNull(cache.get("MNDT/../2"));
+            assertEquals(2, cache.size());
+        }
+        // left behind by a crash
+        Files.writeString(dir.resolve("blobs").resolve("pdf123.tmp"), "%PDF");
+
+        PdfCache cache = new PdfCache(dir, 50);
+        assertEquals(2, cache.size());
+        assertArrayEquals(pdf, cache.get("MNDT1").getContent());
+        assertEquals("MNDT1.pdf", cache.get("MNDT1").getFilename());
+        try (var blobs = Files.list(dir.resolve("blobs"))) {
+            assertEquals(2, blobs.count());
+        }
+
+        TwikeyClient client = new TwikeyClient("key").withPdfCache(cache);
+        client.deliver(FeedType.MANDATE, new JSONObject().put("OrgnlMndtId", "MNDT1").put("CxlRsn", new JSONObject()), entry -> {
+        });
+        assertFalse(cache.contains("MNDT1"));
+        assertEquals(1, cache.size());
+        // a signature in the feed evicts as well
+        client.deliver(FeedType.MANDATE, new JSONObject(MANDATE_MESSAGE.formatted("MNDT4", "info@example.com", "BE68539007547034")), entry -> {
+        });
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMandatePagerWalksAllPages() {
+        Set<Integer> requested = ConcurrentHashMap.newKeySet();
+        MandatePager.Fetcher threePages = page -> {
+            requested.add(page.getPage());
+            List<DocumentResponse.Document> documents = new ArrayList<>();
+            for (int i = 0; page.getPage() < 3 && i < 2; i++) {
+                String mandateNumber = "MNDT" + page.getPage() + i;
+                documents.add(DocumentResponse.Document.fromJson(new JSONObject(MANDATE_MESSAGE.formatted(mandateNumber, "info@example.com", "BE68539007547034")), null));
+            }
+            return documents;
+        };
+        MandateQuery query = MandateQuery.fromCustomerNumber("customer123");
+        try (Stream<DocumentResponse.Document> mandates = new MandatePager(threePages, query, 4, Executors.newFixedThreadPool(2)).stream()) {
+            assertEquals(List.of("MNDT00", "MNDT01", "MNDT10", "MNDT11", "MNDT20", "MNDT21"),
+                    mandates.map(DocumentResponse.Document::getMandateNumber).toList());
+        }
+        assertNull("the query itself is not paged", query.getPage());
+        // at most the look-ahead past the empty page
+        assertTrue(requested.containsAll(List.of(0, 1, 2, 3)));
+        assertTrue(requested.stream().allMatch(page -> page < 3 + 4));
+
+        MandatePager failing = new MandatePager(page -> {
+            if (page.getPage() == 1) {
+                throw new TwikeyClient.UserException("err_call_in_progress");
+            }
+            return threePages.fetch(page);
+        }, query, 1, Executors.newSingleThreadExecutor());
+        assertEquals("MNDT00", failing.next().getMandateNumber());
+        assertEquals("MNDT01", failing.next().getMandateNumber());
+        try {
+            failing.hasNext();
+            fail("Page 1 should fail");
+        } catch (MandatePager.PageException e) {
+            assertEquals(1, e.getPage());
+            assertTrue(e.getCause() instanceof TwikeyClient.UserException);
+        }
+        assertFalse(failing.hasNext());
+    }
+}
@@ -6,11 +6,16 @@ import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 import static com.twikey.modal.DocumentRequests.*;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class DocumentGatewayTest {
 
@@ -141,6 +146,16 @@ public class DocumentGatewayTest {
         assertNotNull("Document Reference", retrievedPdf.getContent());
     }
 
+    @Test
+    public void testRetrievePdfTo() throws IOException, TwikeyClient.UserException, InterruptedException {
+        Assume.assumeTrue("APIKey is set", apiKey != null);
+        Path file = api.document().retrievePdfTo("CORERECURRENTNL18247", Files.createTempDirectory("twikey"));
+        assertTrue("Document written", Files.size(file) > 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertNotNull("Filename", api.document().retrievePdfTo("CORERECURRENTNL18247", out));
+        assertEquals(Files.size(file), out.size());
+    }
+
     @Test
     public void testUploadPdf() throws Exception, TwikeyClient.UserException {
         Assume.assumeTrue("APIKey and CT are set", apiKey != null && ct != 0);
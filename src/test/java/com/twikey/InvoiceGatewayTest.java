@@ -1,19 +1,49 @@
 package com.twikey;
 
+import com.sun.net.httpserver.HttpServer;
+import com.twikey.bulk.BatchTracker;
+import com.twikey.bulk.BulkInvoiceSubmitter;
+import com.twikey.bulk.BulkSubmission;
+import com.twikey.cache.InvoiceStateCache;
+import com.twikey.codec.JsonWriter;
+import com.twikey.codec.SnapshotReader;
+import com.twikey.codec.SnapshotWriter;
+import com.twikey.codec.TwikeyJsonCodec;
+import com.twikey.feed.FeedArchive;
+import com.twikey.feed.FeedType;
 import com.twikey.modal.DocumentRequests;
 import com.twikey.modal.InvoiceRequests;
 import com.twikey.modal.InvoiceResponse;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class InvoiceGatewayTest {
 
@@ -99,6 +129,14 @@ public class InvoiceGatewayTest {
         assertNotNull(repsonse);
     }
 
+    @Test
+    public void testUBLUploadFromSupplier() throws IOException, TwikeyClient.UserException, InterruptedException {
+        Assume.assumeTrue("APIKey and CT are set", apiKey != null && ct != null);
+        byte[] xml = Files.readAllBytes(Path.of("/Users/nathanserry/Downloads/Inv-1752246605_ubl (1).xml"));
+        InvoiceResponse.Invoice repsonse = api.invoice().UBL(new InvoiceRequests.UblUploadRequest(), () -> new ByteArrayInputStream(xml));
+        assertNotNull(repsonse);
+    }
+
     @Test
     public void testBatchCreation() throws IOException, TwikeyClient.UserException, InterruptedException {
         Assume.assumeTrue("APIKey and CT are set", apiKey != null && ct != null);
@@ -129,4 +167,266 @@ public class InvoiceGatewayTest {
         api.invoice().feed(updatedInvoice -> assertNotNull("Updated invoice", updatedInvoice), "meta");
         api.invoice().feed(updatedInvoice -> assertNotNull("Updated invoice", updatedInvoice));
     }
+
+    @Test
+    public void testArchiveReplay() throws IOException {
+        Path dir = Files.createTempDirectory("twikey-archive");
+        Instant start = Instant.now();
+        try (FeedArchive archive = new FeedArchive(dir).withMaxSegmentSize(1)) {
+            archive.append(FeedType.INVOICE, "{\"Invoices\":[{\"id\":\"inv-1\",\"state\":\"BOOKED\"},{\"id\":\"inv-2\",\"state\":\"BOOKED\"}]}".getBytes(UTF_8));
+            archive.append(FeedType.INVOICE, "{\"Invoices\":[]}".getBytes(UTF_8));
+            archive.append(FeedType.INVOICE, "{\"Invoices\":[{\"id\":\"inv-1\",\"state\":\"PAID\"}]}".getBytes(UTF_8));
+
+            List<JSONObject> replayed = new ArrayList<>();
+            archive.replayInvoices(replayed::add, start, Instant.now().plusSeconds(1));
+            assertEquals(3, replayed.size());
+            assertEquals("PAID", replayed.get(2).getString("state"));
+
+            List<JSONObject> history = archive.find(FeedType.INVOICE, "inv-1");
+            assertEquals(2, history.size());
+            assertEquals("BOOKED", history.get(0).getString("state"));
+        }
+    }
+
+    @Test
+    public void testFailingArchiveIsReported() throws IOException {
+        Path dir = Files.createTempDirectory("twikey-archive");
+        List<Exception> failures = new ArrayList<>();
+        try (FeedArchive archive = new FeedArchive(dir)) {
+            TwikeyClient client = new TwikeyClient("key")
+                    .withFeedArchive(archive)
+                    .withFeedErrorHandler((type, e) -> failures.add(e));
+            // the archive can't create its directories anymore, eg. the disk got remounted
+            Files.delete(dir);
+            Files.createFile(dir);
+            client.archive(FeedType.INVOICE, "{\"Invoices\":[{\"id\":\"inv-1\"}]}".getBytes(UTF_8));
+            assertEquals(1, client.getFeedErrorCount());
+            assertTrue(failures.get(0) instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testInvoiceStateCacheRestoresFromJournal() throws IOException {
+        Path journal = Files.createTempFile("twikey-invoices", ".journal");
+        try (InvoiceStateCache cache = new InvoiceStateCache(journal)) {
+            cache.invoice(new JSONObject().put("id", "inv-1").put("number", "INV-1").put("state", "BOOKED").put("amount", 10.5));
+            cache.invoice(new JSONObject().put("id", "inv-2").put("number", "INV-2").put("state", "BOOKED").put("amount", 20));
+            // projected feed entry, the other fields are kept
+            cache.invoice(new JSONObject().put("id", "inv-1").put("state", "PAID").put("lastpayment", new JSONArray().put(new JSONObject().put("method", "sdd"))));
+        }
+        // torn write of a next record
+        Files.write(journal, new byte[]{SnapshotWriter.VERSION, SnapshotWriter.INVOICE_STATE, 9}, StandardOpenOption.APPEND);
+
+        try (InvoiceStateCache cache = new InvoiceStateCache(journal)) {
+            assertEquals(2, cache.size());
+            InvoiceStateCache.InvoiceState paid = cache.getByNumber("INV-1");
+            assertEquals("PAID", paid.state());
+            assertEquals(10.5, paid.amount(), 0);
+            assertTrue(paid.lastPayment().contains("sdd"));
+            assertSame(paid, cache.get("inv-1"));
+            assertNull(cache.get("INV-3"));
+
+            InvoiceResponse.Invoice invoice = cache.get("INV-2").toInvoice();
+            assertEquals("inv-2", invoice.getId());
+            assertEquals("BOOKED", invoice.getState());
+            assertEquals(20, invoice.getAmount(), 0);
+
+            cache.compact();
+        }
+        try (InvoiceStateCache cache = new InvoiceStateCache(journal)) {
+            assertEquals("PAID", cache.get("INV-1").state());
+            cache.invalidate("INV-2");
+            assertNull(cache.get("inv-2"));
+        }
+        // forgotten after a restart as well
+        try (InvoiceStateCache cache = new InvoiceStateCache(journal)) {
+            assertEquals(1, cache.size());
+            assertNull(cache.getByNumber("INV-2"));
+        }
+        Files.delete(journal);
+    }
+
+    @Test
+    public void testGatewayChangesReachInvoiceStateCache() throws Exception, TwikeyClient.UserException {
+        AtomicInteger detailRequests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = new byte[0];
+            int status = 204;
+            if (path.equals("/")) {
+                exchange.getResponseHeaders().add("Authorization", "session");
+                status = 200;
+            } else if (path.equals("/invoice/inv-1") && exchange.getRequestMethod().equals("PUT")) {
+                body = "{\"id\":\"inv-1\",\"number\":\"INV-1\",\"state\":\"BOOKED\",\"amount\":25.0}".getBytes(UTF_8);
+                status = 200;
+            } else if (path.equals("/invoice/inv-1")) {
+                detailRequests.incrementAndGet();
+                body = "{\"id\":\"inv-1\",\"number\":\"INV-1\",\"state\":\"PENDING\",\"amount\":25.0}".getBytes(UTF_8);
+                status = 200;
+            }
+            exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        try {
+            InvoiceStateCache states = new InvoiceStateCache();
+            states.invoice(new JSONObject().put("id", "inv-1").put("number", "INV-1").put("state", "BOOKED").put("amount", 10.0));
+            TwikeyClient client = new TwikeyClient("key")
+                    .withCustomEndpoint("http://localhost:" + server.getAddress().getPort())
+                    .withInvoiceStateCache(states);
+            InvoiceRequests.InvoiceDetailRequest details = new InvoiceRequests.InvoiceDetailRequest("inv-1").cacheFirst(true);
+
+            client.invoice().update(new InvoiceRequests.UpdateInvoiceRequest("inv-1", "2025-09-01", "2025-09-08"));
+            assertEquals(25.0, client.invoice().details(details).getAmount(), 0);
+            assertEquals(0, detailRequests.get());
+
+            // after an action the state is asked again
+            client.invoice().action(InvoiceRequests.InvoiceActionRequest.simple("inv-1", "reminder"));
+            assertNull(states.get("INV-1"));
+            assertEquals("PENDING", client.invoice().details(details).getState());
+            assertEquals(1, detailRequests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testStreamingCodecMatchesOrgJson() {
+        byte[] body = ("{\"id\":\"fec44175-b4fe-414c-92aa-9d0a7dd0dbf2\",\"number\":\"Inv-20200916\",\"title\":\"Invoice July\"," +
+                "\"ct\":1988,\"amount\":100.5,\"date\":\"2020-09-16\",\"duedate\":\"2020-10-16\",\"state\":\"BOOKED\"," +
+                "\"remittance\":null,\"lines\":[{\"code\":\"A\"}],\"meta\":{\"sdd\":true}," +
+                "\"customer\":{\"customerNumber\":\"customerNum123\",\"email\":\"no-reply@example.com\"}}").getBytes(UTF_8);
+        InvoiceResponse.Invoice streamed = TwikeyJsonCodec.streaming().decodeInvoice(body);
+        InvoiceResponse.Invoice parsed = TwikeyJsonCodec.orgJson().decodeInvoice(body);
+        assertEquals(parsed.toString(), streamed.toString());
+        assertEquals(Integer.valueOf(1988), streamed.getCt());
+        assertEquals("customerNum123", streamed.getCustomer().getString("customerNumber"));
+
+        InvoiceResponse.Invoice lazy = TwikeyJsonCodec.lazy().decodeInvoice(body);
+        assertEquals("BOOKED", lazy.getState());
+        assertEquals(parsed.toString(), lazy.toString());
+
+        SnapshotWriter writer = new SnapshotWriter();
+        lazy.writeSnapshot(writer);
+        assertEquals(parsed.toString(), InvoiceResponse.Invoice.fromSnapshot(new SnapshotReader(writer.toByteArray())).toString());
+    }
+
+    @Test
+    public void testCodecsKeepLastPaymentArrayAsText() {
+        byte[] body = ("{\"id\":\"inv-1\",\"number\":\"INV-1\",\"state\":\"PAID\",\"amount\":10.5," +
+                "\"lastpayment\":[{\"amount\":10.5,\"method\":\"sdd\"}]}").getBytes(UTF_8);
+        InvoiceResponse.Invoice parsed = TwikeyJsonCodec.orgJson().decodeInvoice(body);
+        assertEquals("[{\"amount\":10.5,\"method\":\"sdd\"}]", parsed.getLastpayment());
+        assertEquals(parsed.toString(), TwikeyJsonCodec.streaming().decodeInvoice(body).toString());
+        assertEquals(parsed.toString(), TwikeyJsonCodec.lazy().decodeInvoice(body).toString());
+    }
+
+    @Test
+    public void testJsonEncoderMatchesToRequest() {
+        InvoiceRequests.CreateInvoiceRequest invoice = new InvoiceRequests.CreateInvoiceRequest("Inv-1", 100.0, "2024-01-01", "2024-02-01", customer)
+                .setTitle("Factuur \"januari\" \u20ac")
+                .setLines(List.of(
+                        new InvoiceRequests.CreateInvoiceRequest.LineItem().setCode("A").setQuantity(2).setUnitprice(10.5),
+                        new InvoiceRequests.CreateInvoiceRequest.LineItem().setDescription("Line\nbreak").setVatsum(2.0)));
+        JsonWriter writer = new JsonWriter(16);
+        invoice.writeJson(writer);
+        JSONObject written = new JSONObject(writer.toString());
+        JSONObject expected = invoice.toRequest();
+        assertEquals(new JSONArray(expected.getString("lines")).toList(), new JSONArray(written.getString("lines")).toList());
+        written.remove("lines");
+        expected.remove("lines");
+        assertEquals(expected.toMap(), written.toMap());
+    }
+
+    @Test
+    public void testBulkJsonStreamMatchesToRequest() throws IOException {
+        assertEquals("[]", new String(new InvoiceRequests.BulkInvoiceRequest(List.of()).openJsonStream().readAllBytes(), UTF_8));
+
+        List<InvoiceRequests.CreateInvoiceRequest> invoices = IntStream.range(0, 50)
+                .mapToObj(i -> new InvoiceRequests.CreateInvoiceRequest("Inv-" + i, 10.0 + i, "2024-01-01", "2024-02-01", customer)
+                        .setLines(List.of(new InvoiceRequests.CreateInvoiceRequest.LineItem().setCode("A" + i))))
+                .toList();
+        InvoiceRequests.BulkInvoiceRequest batch = new InvoiceRequests.BulkInvoiceRequest(invoices);
+        JSONArray streamed = new JSONArray(new String(batch.openJsonStream().readAllBytes(), UTF_8));
+        JSONArray expected = batch.toRequest();
+        assertEquals(expected.length(), streamed.length());
+        for (int i = 0; i < expected.length(); i++) {
+            JSONObject invoice = streamed.getJSONObject(i);
+            assertEquals(new JSONArray(expected.getJSONObject(i).getString("lines")).toList(), new JSONArray(invoice.getString("lines")).toList());
+            invoice.remove("lines");
+            expected.getJSONObject(i).remove("lines");
+            assertEquals(expected.getJSONObject(i).toMap(), invoice.toMap());
+        }
+    }
+
+    @Test
+    public void testBulkSubmitterChunksInvoices() throws InterruptedException {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        BulkInvoiceSubmitter.Sender sender = batch -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+                if (batch.getInvoices().get(0).toRequest().getString("number").equals("Inv-5")) {
+                    throw new TwikeyClient.UserException("err_duplicate");
+                }
+                if (batch.getInvoices().get(0).toRequest().getString("number").equals("Inv-10")) {
+                    return new JSONObject();
+                }
+                return new JSONObject().put("batchId", "bulk-" + batch.getInvoices().get(0).toRequest().getString("number"));
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        };
+        try (BulkInvoiceSubmitter submitter = new BulkInvoiceSubmitter(sender, 2, Executors.newFixedThreadPool(4)).withChunkSize(5)) {
+            BulkSubmission submission = submitter.submit(IntStream.range(0, 12)
+                    .mapToObj(i -> new InvoiceRequests.CreateInvoiceRequest("Inv-" + i, 10.0, "2024-01-01", "2024-02-01", customer)))
+                    .await();
+            assertEquals(List.of(5, 5, 2), submission.getChunks().stream().map(BulkSubmission.Chunk::getSize).toList());
+            assertEquals(List.of("bulk-Inv-0"), submission.getBatchIds());
+            // a response without batchId fails the chunk as well
+            assertEquals(List.of(5, 2), submission.getFailed().stream().map(BulkSubmission.Chunk::getSize).toList());
+            assertTrue(maxInFlight.get() <= 2);
+        }
+    }
+
+    @Test
+    public void testBatchTrackerBacksOffUntilCompleted() throws Exception {
+        AtomicInteger polls = new AtomicInteger();
+        BatchTracker.Poller poller = batchId -> {
+            int poll = polls.incrementAndGet();
+            if (poll == 1) {
+                // no status yet, still pending
+                return new JSONObject();
+            }
+            if (poll < 3) {
+                return new JSONObject().put("status", "PROCESSING")
+                        .put("Errors", new JSONArray().put(new JSONObject().put("id", "not-an-invoice")));
+            }
+            return new JSONObject().put("status", "COMPLETED")
+                    .put("Invoices", new JSONArray().put(new JSONObject().put("id", "inv-1").put("state", "BOOKED")));
+        };
+        try (BatchTracker tracker = new BatchTracker(poller, Executors.newSingleThreadScheduledExecutor())
+                .withBackoff(Duration.ofMillis(1), Duration.ofMillis(10), 2)) {
+            CompletableFuture<InvoiceResponse.BatchDetails> future = tracker.track("bulk-1");
+            assertSame(future, tracker.track("bulk-1"));
+            InvoiceResponse.BatchDetails details = future.get(5, TimeUnit.SECONDS);
+            assertEquals(3, polls.get());
+            assertEquals("BOOKED", details.getInvoices().get(0).getState());
+            assertEquals(0, tracker.getTrackedCount());
+        }
+
+        // a failed batch ends the tracking when the completion says so
+        BatchTracker.Poller failing = batchId -> new JSONObject().put("status", "ERROR")
+                .put("Errors", new JSONArray().put(new JSONObject().put("id", "inv-2")));
+        try (BatchTracker tracker = new BatchTracker(failing, Executors.newSingleThreadScheduledExecutor())
+                .withBackoff(Duration.ofMillis(1), Duration.ofMillis(10), 2)
+                .withCompletion(BatchTracker.COMPLETED.or(details -> "ERROR".equals(details.getStatus())))
+                .withInvoicesField("Errors")) {
+            InvoiceResponse.BatchDetails details = tracker.track("bulk-2").get(5, TimeUnit.SECONDS);
+            assertEquals("inv-2", details.getInvoices().get(0).getId());
+        }
+    }
 }
@@ -1,14 +1,23 @@
 package com.twikey;
 
+import com.twikey.callback.TransactionCallback;
+import com.twikey.feed.DeadLetterStore;
+import com.twikey.feed.FeedProjection;
+import com.twikey.feed.FeedType;
 import org.json.JSONObject;
 import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.*;
 
 public class TransactionGatewayTest {
@@ -55,4 +64,51 @@ public class TransactionGatewayTest {
         Assume.assumeTrue("APIKey is set", apiKey != null);
         api.transaction().feed(updatedTransaction -> assertNotNull("Updated transaction", updatedTransaction),"link");
     }
+
+    @Test
+    public void testFeedProjection() {
+        String page = "{\"Entries\":[" +
+                "{\"id\":381563,\"state\":\"PAID\",\"amount\":10.0,\"ref\":\"r1\",\"msg\":\"skip\",\"link\":{\"id\":1,\"nested\":[\"a\\\"]\",{\"b\":null}]}}," +
+                "{\"id\":381564,\"state\":\"ERROR\",\"amount\":\"5.50\",\"ref\":null}" +
+                "],\"Other\":[1,2,3]}";
+        List<JSONObject> entries = new ArrayList<>();
+        int count = FeedProjection.forEachEntry(page.getBytes(UTF_8), "Entries", FeedProjection.of("id", "state", "amount", "ref"), entries::add);
+        assertEquals(2, count);
+        assertEquals(381563, entries.get(0).getLong("id"));
+        assertEquals("PAID", entries.get(0).getString("state"));
+        assertEquals("r1", entries.get(0).getString("ref"));
+        assertFalse(entries.get(0).has("msg"));
+        assertFalse(entries.get(0).has("link"));
+        assertEquals("5.50", entries.get(1).getString("amount"));
+        assertTrue(entries.get(1).isNull("ref"));
+    }
+
+    @Test
+    public void testDeadLetters() throws IOException {
+        DeadLetterStore deadLetters = new DeadLetterStore(Files.createTempDirectory("twikey-dead-letters")).withRetries(2);
+        TwikeyClient client = new TwikeyClient(apiKey).withDeadLetters(deadLetters);
+        AtomicInteger attempts = new AtomicInteger();
+        List<Long> processed = new ArrayList<>();
+        TransactionCallback poisoned = tx -> {
+            if (tx.getLong("id") == 2) {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("poison");
+            }
+            processed.add(tx.getLong("id"));
+        };
+        for (int i = 1; i <= 3; i++) {
+            client.deliver(FeedType.TRANSACTION, new JSONObject().put("id", i), poisoned::transaction);
+        }
+        assertEquals(List.of(1L, 3L), processed);
+        assertEquals(3, attempts.get());
+
+        List<DeadLetterStore.DeadLetter> letters = deadLetters.list(FeedType.TRANSACTION);
+        assertEquals(1, letters.size());
+        assertEquals(2, letters.get(0).entry().getLong("id"));
+        assertTrue(letters.get(0).error().contains("poison"));
+
+        assertEquals(1, deadLetters.replayTransactions(tx -> processed.add(tx.getLong("id"))));
+        assertEquals(List.of(1L, 3L, 2L), processed);
+        assertTrue(deadLetters.list(FeedType.TRANSACTION).isEmpty());
+    }
 }
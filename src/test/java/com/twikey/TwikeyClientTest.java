@@ -1,10 +1,42 @@
 package com.twikey;
 
+import com.twikey.cache.InvoiceStateCache;
+import com.twikey.cache.MandateCache;
+import com.twikey.cache.MappedMandateStore;
+import com.twikey.cache.NegativeCache;
+import com.twikey.codec.FormEncoder;
+import com.twikey.codec.SnapshotReader;
+import com.twikey.codec.SnapshotWriter;
+import com.twikey.feed.FeedDeduplicator;
+import com.twikey.feed.FeedDrainer;
+import com.twikey.feed.FeedEvent;
+import com.twikey.feed.FeedRingBuffer;
+import com.twikey.feed.FeedType;
+import com.twikey.modal.DocumentRequests;
+import com.twikey.modal.DocumentResponse;
+import com.twikey.modal.InvoiceRequests;
+import org.json.JSONObject;
 import org.junit.Test;
 
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.*;
 
 public class TwikeyClientTest {
@@ -50,4 +82,251 @@ public class TwikeyClientTest {
         assertEquals("safe=hello+world", data);
     }
 
+    @Test
+    public void test_formEncoder_matchesUrlEncoder() {
+        String[] values = {"plain", "hello world", "a+b=c&d", "Derbystraat 43, 9000 Gent", "caf\u00e9 \u20ac", "\ud83d\ude00 smile", "lone \ud83d", "~!*'()/?:@"};
+        for (String value : values) {
+            try (FormEncoder form = FormEncoder.acquire()) {
+                form.add("k y", value).add("n", 42L).add("b", Boolean.TRUE);
+                assertEquals(URLEncoder.encode("k y", UTF_8) + "=" + URLEncoder.encode(value, UTF_8) + "&n=42&b=true", form.toString());
+            }
+        }
+    }
+
+    @Test
+    public void test_formEncoder_reusesPooledBuffer() {
+        FormEncoder first;
+        try (FormEncoder form = FormEncoder.acquire()) {
+            first = form;
+            try (FormEncoder nested = FormEncoder.acquire()) {
+                assertNotSame(form, nested);
+            }
+        }
+        try (FormEncoder form = FormEncoder.acquire()) {
+            assertSame(first, form);
+            assertTrue(form.isEmpty());
+        }
+    }
+
+    @Test
+    public void test_deduplicator_dropsRepeatedEvents() {
+        FeedDeduplicator deduplicator = new FeedDeduplicator(Duration.ofHours(1), 1000, 2);
+        JSONObject paid = new JSONObject().put("id", 1).put("state", "PAID");
+        JSONObject error = new JSONObject().put("id", 1).put("state", "ERROR");
+        assertTrue(deduplicator.firstSeen(FeedType.TRANSACTION, paid));
+        assertFalse(deduplicator.firstSeen(FeedType.TRANSACTION, paid));
+        assertTrue(deduplicator.firstSeen(FeedType.TRANSACTION, error));
+        assertTrue(deduplicator.firstSeen(FeedType.INVOICE, paid));
+
+        // evicted from the exact lru, but still remembered by the bloom filter
+        assertTrue(deduplicator.firstSeen(FeedType.REFUND, paid));
+        assertFalse(deduplicator.firstSeen(FeedType.TRANSACTION, paid));
+    }
+
+    @Test
+    public void test_drainer_coalescesBursts() throws InterruptedException {
+        AtomicInteger drains = new AtomicInteger();
+        CountDownLatch drained = new CountDownLatch(1);
+        try (FeedDrainer drainer = new FeedDrainer(new TwikeyClient("key"), Duration.ofMillis(50), Duration.ofSeconds(1))) {
+            drainer.register(FeedType.INVOICE, () -> {
+                drains.incrementAndGet();
+                drained.countDown();
+            });
+            for (int i = 0; i < 1000; i++) {
+                drainer.signal(FeedType.INVOICE);
+            }
+            assertTrue(drained.await(2, TimeUnit.SECONDS));
+            Thread.sleep(200);
+            assertEquals(1, drains.get());
+        }
+    }
+
+    @Test
+    public void test_drainer_keepsLastFailure() throws InterruptedException {
+        try (FeedDrainer drainer = new FeedDrainer(new TwikeyClient("key"), Duration.ZERO, Duration.ZERO)) {
+            drainer.register(FeedType.INVOICE, () -> {
+                throw new TwikeyClient.UserException("err_invalid_apikey");
+            });
+            drainer.signal(FeedType.INVOICE);
+            for (int i = 0; i < 200 && drainer.getLastFailure(FeedType.INVOICE) == null; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals("err_invalid_apikey", drainer.getLastFailure(FeedType.INVOICE).getMessage());
+            assertNull(drainer.getLastFailure(FeedType.MANDATE));
+        }
+    }
+
+    @Test
+    public void test_mandateCache_evictsExpiresAndFollowsFeed() throws Exception, TwikeyClient.UserException {
+        AtomicInteger loads = new AtomicInteger();
+        AtomicLong now = new AtomicLong();
+        MandateCache cache = new MandateCache(2, document -> 1, Duration.ofMinutes(5), new Clock() {
+            public ZoneId getZone() { return ZoneOffset.UTC; }
+            public Clock withZone(ZoneId zone) { return this; }
+            public Instant instant() { return Instant.ofEpochMilli(now.get()); }
+        });
+        MandateCache.Loader loader = () -> {
+            loads.incrementAndGet();
+            return new DocumentResponse.Document();
+        };
+
+        DocumentResponse.Document first = cache.get("MNDT1", loader);
+        assertSame(first, cache.get("MNDT1", loader));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHitCount());
+
+        // least recently used is evicted
+        cache.get("MNDT2", loader);
+        cache.get("MNDT1", loader);
+        cache.get("MNDT3", loader);
+        assertNull(cache.getIfPresent("MNDT2"));
+        assertNotNull(cache.getIfPresent("MNDT1"));
+        assertEquals(1, cache.getEvictionCount());
+
+        now.addAndGet(Duration.ofMinutes(6).toMillis());
+        assertNull(cache.getIfPresent("MNDT1"));
+
+        // a change in the feed drops the mandate, a load of it that raced with the change is not kept
+        TwikeyClient api = new TwikeyClient("key").withMandateCache(cache);
+        cache.get("MNDT1", loader);
+        cache.get("MNDT4", () -> {
+            api.deliver(FeedType.MANDATE, new JSONObject().put("OrgnlMndtId", "MNDT1"), entry -> {});
+            return new DocumentResponse.Document();
+        });
+        assertNull(cache.getIfPresent("MNDT1"));
+        // other mandates are not affected
+        assertNotNull(cache.getIfPresent("MNDT4"));
+        cache.get("MNDT1", () -> {
+            api.deliver(FeedType.MANDATE, new JSONObject().put("OrgnlMndtId", "MNDT1"), entry -> {});
+            return new DocumentResponse.Document();
+        });
+        assertNull(cache.getIfPresent("MNDT1"));
+    }
+
+    @Test
+    public void test_negativeCache_answersMissesUntilCreatedOrExpired() throws Exception, TwikeyClient.UserException {
+        AtomicLong now = new AtomicLong();
+        NegativeCache missing = new NegativeCache(2, Duration.ofSeconds(30), new Clock() {
+            public ZoneId getZone() { return ZoneOffset.UTC; }
+            public Clock withZone(ZoneId zone) { return this; }
+            public Instant instant() { return Instant.ofEpochMilli(now.get()); }
+        });
+        assertTrue(NegativeCache.isNotFound(404, null));
+        assertTrue(NegativeCache.isNotFound(400, "err_no_such_mandate"));
+        assertFalse(NegativeCache.isNotFound(400, "err_invalid_params"));
+
+        TwikeyClient api = new TwikeyClient("key").withNegativeCache(missing);
+        missing.missing(FeedType.MANDATE, "MNDT1", "err_no_such_mandate");
+        missing.missing(FeedType.INVOICE, "INV1", "err_not_found");
+        try {
+            // answered without calling Twikey
+            api.document().fetch(new DocumentRequests.MandateDetailRequest("MNDT1"));
+            fail("Mandate should be missing");
+        } catch (TwikeyClient.UserException e) {
+            assertEquals("err_no_such_mandate", e.getMessage());
+        }
+        try {
+            api.invoice().details(new InvoiceRequests.InvoiceDetailRequest("INV1"));
+            fail("Invoice should be missing");
+        } catch (TwikeyClient.UserException e) {
+            assertEquals("err_not_found", e.getMessage());
+        }
+        assertEquals(2, missing.getHitCount());
+
+        // the same reference in another feed is not affected, a new invoice in the feed is forgotten
+        missing.check(FeedType.INVOICE, "MNDT1");
+        api.deliver(FeedType.INVOICE, new JSONObject().put("id", "f3a1").put("number", "INV1"), entry -> {});
+        missing.check(FeedType.INVOICE, "INV1");
+        assertEquals(1, missing.size());
+
+        now.addAndGet(Duration.ofSeconds(31).toMillis());
+        missing.check(FeedType.MANDATE, "MNDT1");
+        assertEquals(0, missing.size());
+    }
+
+    @Test
+    public void test_feedEventSnapshot_roundTrips() {
+        SnapshotWriter writer = new SnapshotWriter();
+        new FeedEvent(FeedType.REFUND, new JSONObject().put("id", "R1").put("amount", 10.5)).writeSnapshot(writer);
+        FeedEvent event = FeedEvent.fromSnapshot(new SnapshotReader(writer.toByteArray()));
+        assertEquals(-1, event.getSequence());
+        assertEquals(FeedType.REFUND, event.getType());
+        assertEquals("R1", event.getEntry().getString("id"));
+        assertEquals(10.5, event.getEntry().getDouble("amount"), 0);
+    }
+
+    @Test
+    public void test_ringBuffer_fansOutToAllSubscribers() {
+        List<Integer> fast = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> slow = Collections.synchronizedList(new ArrayList<>());
+        FeedRingBuffer ring = new FeedRingBuffer(6, FeedRingBuffer.WaitStrategy.blocking());
+        assertEquals(8, ring.getSize());
+        ring.subscribe("fast", event -> fast.add(event.getEntry().getInt("id")));
+        ring.subscribe("slow", event -> {
+            slow.add(event.getEntry().getInt("id"));
+            Thread.yield();
+        });
+        for (int i = 0; i < 1000; i++) {
+            ring.invoiceCallback().invoice(new JSONObject().put("id", i));
+        }
+        ring.close();
+        assertEquals(1000, fast.size());
+        assertEquals(1000, slow.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) fast.get(i));
+            assertEquals(i, (int) slow.get(i));
+        }
+    }
+
+    @Test
+    public void test_ringBuffer_countsSubscriberFailures() {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        FeedRingBuffer ring = new FeedRingBuffer(4, FeedRingBuffer.WaitStrategy.blocking());
+        ring.subscribe("failing", event -> {
+            if (event.getType() == FeedType.MANDATE && event.getEntry().has("CxlRsn")) {
+                throw new IllegalStateException("cancelled");
+            }
+            received.add(FeedType.MANDATE.idOf(event.getEntry()));
+        });
+        ring.documentMessages().accept(new JSONObject().put("OrgnlMndtId", "MNDT1").put("CxlRsn", new JSONObject()));
+        ring.documentMessages().accept(new JSONObject().put("Mndt", new JSONObject().put("MndtId", "MNDT2")));
+        ring.close();
+        assertEquals(List.of("MNDT2"), received);
+        assertEquals(1, ring.getFailureCount());
+        assertEquals("cancelled", ring.getLastFailure().getMessage());
+    }
+
+    @Test
+    public void test_deliver_survivesFailingInvoiceCache() throws Exception {
+        Path dir = Files.createTempDirectory("twikey-invoices");
+        InvoiceStateCache invoices = new InvoiceStateCache(dir.resolve("invoices.journal"));
+        TwikeyClient api = new TwikeyClient("key").withInvoiceStateCache(invoices);
+        // a closed journal can no longer be written
+        invoices.close();
+
+        List<JSONObject> delivered = new ArrayList<>();
+        api.deliver(FeedType.INVOICE, new JSONObject().put("id", "f3a1").put("number", "INV1").put("state", "PAID"), delivered::add);
+        assertEquals(1, delivered.size());
+        assertEquals(1, api.getFeedErrorCount());
+    }
+
+    @Test
+    public void test_deliver_survivesFailingMandateStore() throws Exception {
+        try (MappedMandateStore store = new MappedMandateStore(Files.createTempDirectory("twikey-store"), 256, 4)) {
+            TwikeyClient api = new TwikeyClient("key").withMandateStore(store);
+            // too large for a segment of the store
+            JSONObject mandate = new JSONObject(("{\"Mndt\":{\"MndtId\":\"MNDT1\",\"LclInstrm\":\"CORE\",\"Ocrncs\":{\"SeqTp\":\"RCUR\",\"Drtn\":{\"FrDt\":\"2024-01-15\"}}," +
+                    "\"Dbtr\":{\"Nm\":\"%s\",\"PstlAdr\":{\"AdrLine\":\"Derbystraat 43\",\"PstCd\":\"9000\",\"TwnNm\":\"Gent\",\"Ctry\":\"BE\"}," +
+                    "\"CtryOfRes\":\"BE\",\"CtctDtls\":{\"EmailAdr\":\"info@example.com\",\"Othr\":\"Java-Sdk-1\"}}," +
+                    "\"DbtrAcct\":\"BE68539007547034\",\"DbtrAgt\":{\"FinInstnId\":{\"BICFI\":\"GEBABEBB\",\"Nm\":\"BNP\"}}," +
+                    "\"RfrdDoc\":\"C-1\",\"SplmtryData\":[]},\"EvtTime\":\"2024-01-15T10:00:00Z\"}").formatted("Twikey".repeat(100)));
+
+            List<JSONObject> delivered = new ArrayList<>();
+            api.deliver(FeedType.MANDATE, mandate, delivered::add);
+            assertEquals(1, delivered.size());
+            assertEquals(1, api.getFeedErrorCount());
+            assertFalse(store.contains("MNDT1"));
+        }
+    }
+
 }